@@ -0,0 +1,66 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Topics posted on {@link EventBus} by the scanning, docking, transfer and sync services.
+ * State topics keep their latest value; event topics don't.
+ */
+public final class AppEvents {
+    private AppEvents() {}
+
+    // Remaining scan time in ms
+    public static final EventBus.Topic<Long> SCAN_TIMER = EventBus.Topic.state("scan_timer");
+    // Remaining sleep time in ms
+    public static final EventBus.Topic<Long> SLEEP_TIMER = EventBus.Topic.state("sleep_timer");
+    // Shimmers found by the current scan, as "Name - MAC" entries
+    public static final EventBus.Topic<List<String>> SCAN_RESULTS = EventBus.Topic.state("scan_results");
+    // Scanning status line
+    public static final EventBus.Topic<String> SCAN_STATUS = EventBus.Topic.state("scan_status");
+    // Docking protocol status line
+    public static final EventBus.Topic<String> DOCKING_STATUS = EventBus.Topic.state("docking_status");
+
+    // Files received so far in the current transfer
+    public static final EventBus.Topic<TransferProgress> TRANSFER_PROGRESS = EventBus.Topic.state("transfer_progress");
+    // Transfer started; MAC of the sensor (may be "")
+    public static final EventBus.Topic<String> TRANSFER_STARTED = EventBus.Topic.event("transfer_started");
+    // Transfer finished successfully; MAC of the sensor
+    public static final EventBus.Topic<String> TRANSFER_DONE = EventBus.Topic.event("transfer_done");
+    // Transfer failed; failure reason
+    public static final EventBus.Topic<String> TRANSFER_FAILED = EventBus.Topic.event("transfer_failed");
+    // Message for the progress card, with optional retry countdown
+    public static final EventBus.Topic<TransferError> TRANSFER_ERROR = EventBus.Topic.event("transfer_error");
+    // Cloud sync started (true) / finished (false)
+    public static final EventBus.Topic<Boolean> SYNC_RUNNING = EventBus.Topic.state("sync_running");
+    // A SyncService run finished; true if the upload completed
+    public static final EventBus.Topic<Boolean> SYNC_DONE = EventBus.Topic.event("sync_done");
+
+    public static final class TransferProgress {
+        public final int progress;
+        public final int total;
+        public final String filename;
+
+        public TransferProgress(int progress, int total, String filename) {
+            this.progress = progress;
+            this.total = total;
+            this.filename = filename;
+        }
+    }
+
+    public static final class TransferError {
+        public final String message;
+        public final int retrySeconds;
+
+        public TransferError(String message, int retrySeconds) {
+            this.message = message;
+            this.retrySeconds = retrySeconds;
+        }
+    }
+
+    // Posted lists must not change underneath subscribers
+    public static List<String> snapshot(List<String> devices) {
+        return Collections.unmodifiableList(new ArrayList<>(devices));
+    }
+}
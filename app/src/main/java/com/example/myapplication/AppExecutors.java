@@ -0,0 +1,277 @@
+package com.example.myapplication;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The app's background threads. All work that used to get its own {@code new Thread} runs on one
+ * of three named, bounded pools:
+ *   - {@link #io}: disk, database and network work that nobody is waiting on (sync, upload drains,
+ *     reconciliation, telemetry start-up);
+ *   - {@link #bluetooth}: RFCOMM probes, dock queries and file transfers. Kept apart from io so a
+ *     long upload can't hold up a transfer, and sized for one Shimmer at a time plus a probe;
+ *   - {@link #ui}: short work a screen is waiting on (state reads, list pages, mapping calls), so
+ *     it never queues behind a 30-minute sync.
+ * Compression, the only CPU-heavy step, streams inside the upload it belongs to, so there is no
+ * separate CPU pool.
+ *
+ * A full queue rejects with {@link RejectedExecutionException} instead of growing; callers handle
+ * it like any other failure. Work that belongs to something with a lifetime (a protocol run, an
+ * activity) goes through a {@link Scope}, which cancels whatever is still queued or running in
+ * one call. A task that throws is logged and recorded to Crashlytics, since the future holding
+ * the exception is rarely read. Each pool keeps queue depth, wait and run time counters;
+ * {@link #logStats} prints them.
+ */
+public final class AppExecutors {
+    private static final String TAG = "AppExecutors";
+
+    private static volatile AppExecutors instance;
+
+    private final Pool io = new Pool("io", 4, 32, Process.THREAD_PRIORITY_BACKGROUND);
+    private final Pool bluetooth = new Pool("bt", 2, 4, Process.THREAD_PRIORITY_DEFAULT);
+    private final Pool ui = new Pool("ui", 2, 16, Process.THREAD_PRIORITY_DEFAULT);
+
+    private AppExecutors() {}
+
+    public static AppExecutors get() {
+        if (instance == null) {
+            synchronized (AppExecutors.class) {
+                if (instance == null) instance = new AppExecutors();
+            }
+        }
+        return instance;
+    }
+
+    public Pool io() {
+        return io;
+    }
+
+    public Pool bluetooth() {
+        return bluetooth;
+    }
+
+    public Pool ui() {
+        return ui;
+    }
+
+    public void logStats() {
+        for (Pool pool : new Pool[]{io, bluetooth, ui}) {
+            Log.d(TAG, pool.stats().toString());
+        }
+    }
+
+    /** Counters since process start; times are from task submission (wait) and start (run). */
+    public static final class Stats {
+        public final String pool;
+        public final int running;
+        public final int queued;
+        public final int maxQueued;
+        public final long completed;
+        public final long rejected;
+        public final long meanWaitMs;
+        public final long maxWaitMs;
+        public final long meanRunMs;
+        public final long maxRunMs;
+
+        Stats(String pool, int running, int queued, int maxQueued, long completed, long rejected,
+              long meanWaitMs, long maxWaitMs, long meanRunMs, long maxRunMs) {
+            this.pool = pool;
+            this.running = running;
+            this.queued = queued;
+            this.maxQueued = maxQueued;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.meanWaitMs = meanWaitMs;
+            this.maxWaitMs = maxWaitMs;
+            this.meanRunMs = meanRunMs;
+            this.maxRunMs = maxRunMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: running %d, queued %d (max %d), completed %d, rejected %d, wait mean %d / max %d ms, run mean %d / max %d ms",
+                    pool, running, queued, maxQueued, completed, rejected, meanWaitMs, maxWaitMs, meanRunMs, maxRunMs);
+        }
+    }
+
+    /** A named, bounded pool. Threads are created on demand and exit after 30 s idle. */
+    public static final class Pool {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxQueued = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWaitMs = new AtomicLong();
+        private final AtomicLong maxWaitMs = new AtomicLong();
+        private final AtomicLong totalRunMs = new AtomicLong();
+        private final AtomicLong maxRunMs = new AtomicLong();
+
+        Pool(String name, int threads, int queueSize, int priority) {
+            this.name = name;
+            AtomicInteger n = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueSize),
+                    r -> new Thread(() -> {
+                        Process.setThreadPriority(priority);
+                        r.run();
+                    }, name + "-" + n.incrementAndGet()));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * Queues {@code task}; while it runs, its thread is named "{pool}-{n}:{taskName}".
+         * Cancelling the returned future interrupts the task.
+         *
+         * @throws RejectedExecutionException when the queue is full
+         */
+        public Future<?> submit(String taskName, Runnable task) {
+            FutureTask<Void> future = new FutureTask<>(timed(taskName, task), null);
+            try {
+                executor.execute(future);
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                Log.w(TAG, name + " pool rejected " + taskName + ": " + stats());
+                throw e;
+            }
+            maxQueued.accumulateAndGet(executor.getQueue().size(), Math::max);
+            return future;
+        }
+
+        public Scope newScope(String scopeName) {
+            return new Scope(this, scopeName);
+        }
+
+        public Stats stats() {
+            long done = completed.get();
+            return new Stats(name, running.get(), executor.getQueue().size(), maxQueued.get(), done, rejected.get(),
+                    done == 0 ? 0 : totalWaitMs.get() / done, maxWaitMs.get(),
+                    done == 0 ? 0 : totalRunMs.get() / done, maxRunMs.get());
+        }
+
+        private Runnable timed(String taskName, Runnable task) {
+            long queuedAt = SystemClock.elapsedRealtime();
+            return () -> {
+                long startedAt = SystemClock.elapsedRealtime();
+                Thread thread = Thread.currentThread();
+                String threadName = thread.getName();
+                thread.setName(threadName + ":" + taskName);
+                running.incrementAndGet();
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // The future keeps it too, but most callers never call get(); don't let it vanish
+                    reportFailure(taskName, t);
+                    throw t;
+                } finally {
+                    running.decrementAndGet();
+                    thread.setName(threadName);
+                    long waited = startedAt - queuedAt;
+                    long ran = SystemClock.elapsedRealtime() - startedAt;
+                    totalWaitMs.addAndGet(waited);
+                    maxWaitMs.accumulateAndGet(waited, Math::max);
+                    totalRunMs.addAndGet(ran);
+                    maxRunMs.accumulateAndGet(ran, Math::max);
+                    completed.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    private static void reportFailure(String taskName, Throwable t) {
+        if (Thread.currentThread().isInterrupted()) {
+            // Cancelled through its future or scope; the failure is the cancellation's doing
+            Log.w(TAG, taskName + " failed after cancellation: " + t);
+            return;
+        }
+        Log.e(TAG, taskName + " failed", t);
+        try {
+            Telemetry.crashlytics().recordException(t);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not record " + taskName + " failure: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Work tied to one owner's lifetime. {@link #cancel} interrupts everything submitted through
+     * the scope that hasn't finished and rejects later submissions, so nothing from an old
+     * protocol run or a destroyed activity keeps running.
+     */
+    public static final class Scope {
+        private final Pool pool;
+        private final String name;
+        private final Set<Future<?>> tasks = Collections.newSetFromMap(new IdentityHashMap<>());
+        private boolean cancelled = false;
+
+        private Scope(Pool pool, String name) {
+            this.pool = pool;
+            this.name = name;
+        }
+
+        /**
+         * Like {@link Pool#submit}, but tracked by this scope.
+         *
+         * @throws RejectedExecutionException when the queue is full or the scope was cancelled
+         */
+        public Future<?> submit(String taskName, Runnable task) {
+            synchronized (this) {
+                if (cancelled) throw new RejectedExecutionException(name + " scope cancelled");
+            }
+            Future<?>[] self = new Future<?>[1];
+            Future<?> future = pool.submit(taskName, () -> {
+                try {
+                    task.run();
+                } finally {
+                    forget(self[0]);
+                }
+            });
+            synchronized (this) {
+                self[0] = future;
+                if (!future.isDone()) tasks.add(future);
+                if (cancelled) future.cancel(true);
+            }
+            return future;
+        }
+
+        private synchronized void forget(Future<?> future) {
+            if (future != null) tasks.remove(future);
+        }
+
+        // Tasks submitted through this scope that haven't finished yet
+        public synchronized int pending() {
+            tasks.removeIf(Future::isDone);
+            return tasks.size();
+        }
+
+        public void cancel() {
+            List<Future<?>> toCancel;
+            synchronized (this) {
+                cancelled = true;
+                toCancel = new ArrayList<>(tasks);
+                tasks.clear();
+            }
+            for (Future<?> f : toCancel) f.cancel(true);
+            if (!toCancel.isEmpty()) {
+                Log.d(TAG, "Cancelled " + toCancel.size() + " task(s) in " + pool.name + "/" + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.json.JSONArray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory UI/protocol state (status text, device list, timers, transfer progress) shared by the
+ * services and MainActivity. This replaces the "app_state" SharedPreferences file, which was
+ * rewritten in full on every apply(), several times a second while timers ran.
+ *
+ * Reads come from memory. Edits are applied atomically in memory and marked dirty; a background
+ * writer coalesces everything dirtied within {@link #FLUSH_DELAY_MS} into one snapshot, written
+ * in a compact binary form through {@link AtomicFile} so a crash never leaves a torn file.
+ */
+public final class AppStateStore {
+    private static final String TAG = "AppStateStore";
+
+    // Keys (kept identical to the old app_state prefs names)
+    public static final String STATUS_TEXT = "status_text";
+    public static final String SCANNING_STATUS = "scanning_status";
+    public static final String SCANNED_DEVICES = "scanned_devices";
+    public static final String SELECTED_MAC = "selected_mac";
+    public static final String REMAINING_TIME = "remaining_time";
+    public static final String REMAINING_SLEEP = "remaining_sleep";
+    public static final String SLEEP_UNTIL = "sleep_until";
+    public static final String TRANSFER_PROGRESS = "transfer_progress";
+    public static final String TRANSFER_TOTAL = "transfer_total";
+    public static final String TRANSFER_FILENAME = "transfer_filename";
+    public static final String PROGRESS_VISIBILITY = "progress_visibility";
+    public static final String TRANSFER_STATUS = "transfer_status";
+    public static final String TRANSFER_ERROR = "transfer_error";
+    public static final String TRANSFER_RETRY_SEC = "transfer_retry_sec";
+    public static final String TRANSFER_MAC = "transfer_mac";
+    public static final String IS_FIRST_LAUNCH = "is_first_launch";
+    // One of the DiscoveryBackend names; unset means DiscoveryBackend.AUTO
+    public static final String DISCOVERY_BACKEND = "discovery_backend";
+
+    private static final String FILE_NAME = "app_state.bin";
+    private static final String LEGACY_PREFS = "app_state";
+    private static final int FORMAT_VERSION = 1;
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    private static final byte T_STRING = 1;
+    private static final byte T_LONG = 2;
+    private static final byte T_INT = 3;
+    private static final byte T_BOOL = 4;
+    private static final byte T_STRING_LIST = 5;
+
+    private static volatile AppStateStore instance;
+
+    private final AtomicFile file;
+    private final Map<String, Object> values = new HashMap<>();
+    private final Handler writer;
+    private boolean dirty = false;
+    private boolean flushScheduled = false;
+
+    // What restoreUIState needs, read in one go
+    public static final class UiState {
+        public final String statusText;
+        public final List<String> devices;
+        public final String selectedMac;
+        public final boolean firstLaunch;
+
+        UiState(String statusText, List<String> devices, String selectedMac, boolean firstLaunch) {
+            this.statusText = statusText;
+            this.devices = devices;
+            this.selectedMac = selectedMac;
+            this.firstLaunch = firstLaunch;
+        }
+    }
+
+    public final class Editor {
+        private final Map<String, Object> puts = new HashMap<>();
+
+        private Editor() {}
+
+        public Editor putString(String key, String value) { puts.put(key, value); return this; }
+        public Editor putLong(String key, long value) { puts.put(key, value); return this; }
+        public Editor putInt(String key, int value) { puts.put(key, value); return this; }
+        public Editor putBoolean(String key, boolean value) { puts.put(key, value); return this; }
+        public Editor putStringList(String key, List<String> value) {
+            puts.put(key, value == null ? null : Collections.unmodifiableList(new ArrayList<>(value)));
+            return this;
+        }
+        public Editor remove(String key) { puts.put(key, null); return this; }
+
+        // Applies all changes atomically in memory; the disk write is debounced
+        public void apply() {
+            synchronized (AppStateStore.this) {
+                boolean changed = false;
+                for (Map.Entry<String, Object> e : puts.entrySet()) {
+                    Object old = e.getValue() == null ? values.remove(e.getKey()) : values.put(e.getKey(), e.getValue());
+                    changed |= old == null ? e.getValue() != null : !old.equals(e.getValue());
+                }
+                if (changed) markDirtyLocked();
+            }
+        }
+    }
+
+    private AppStateStore(Context ctx) {
+        file = new AtomicFile(new File(ctx.getFilesDir(), FILE_NAME));
+        HandlerThread thread = new HandlerThread("AppStateWriter");
+        thread.start();
+        writer = new Handler(thread.getLooper());
+        if (!load()) {
+            migrateFromPrefs(ctx);
+        }
+    }
+
+    public static AppStateStore get(Context ctx) {
+        if (instance == null) {
+            synchronized (AppStateStore.class) {
+                if (instance == null) instance = new AppStateStore(ctx.getApplicationContext());
+            }
+        }
+        return instance;
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    public synchronized String getString(String key, String def) {
+        Object v = values.get(key);
+        return v instanceof String ? (String) v : def;
+    }
+
+    public synchronized long getLong(String key, long def) {
+        Object v = values.get(key);
+        return v instanceof Long ? (Long) v : def;
+    }
+
+    public synchronized int getInt(String key, int def) {
+        Object v = values.get(key);
+        return v instanceof Integer ? (Integer) v : def;
+    }
+
+    public synchronized boolean getBoolean(String key, boolean def) {
+        Object v = values.get(key);
+        return v instanceof Boolean ? (Boolean) v : def;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized List<String> getStringList(String key) {
+        Object v = values.get(key);
+        return v instanceof List ? (List<String>) v : Collections.emptyList();
+    }
+
+    public synchronized UiState readUiState() {
+        return new UiState(getString(STATUS_TEXT, ""), getStringList(SCANNED_DEVICES),
+                getString(SELECTED_MAC, ""), getBoolean(IS_FIRST_LAUNCH, true));
+    }
+
+    // Write pending changes now (e.g. when the activity stops or a service is destroyed)
+    public void flushNow() {
+        writer.post(this::flush);
+    }
+
+    private void markDirtyLocked() {
+        dirty = true;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.postDelayed(this::flush, FLUSH_DELAY_MS);
+        }
+    }
+
+    private void flush() {
+        Map<String, Object> snapshot;
+        synchronized (this) {
+            flushScheduled = false;
+            if (!dirty) return;
+            dirty = false;
+            snapshot = new HashMap<>(values);
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Object> e : snapshot.entrySet()) {
+                out.writeUTF(e.getKey());
+                writeValue(out, e.getValue());
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "State write failed: " + e.getMessage());
+            if (fos != null) file.failWrite(fos);
+            synchronized (this) {
+                markDirtyLocked();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(DataOutputStream out, Object v) throws IOException {
+        if (v instanceof String) {
+            out.writeByte(T_STRING);
+            out.writeUTF((String) v);
+        } else if (v instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) v);
+        } else if (v instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(T_BOOL);
+            out.writeBoolean((Boolean) v);
+        } else {
+            List<String> list = (List<String>) v;
+            out.writeByte(T_STRING_LIST);
+            out.writeInt(list.size());
+            for (String s : list) out.writeUTF(s);
+        }
+    }
+
+    private boolean load() {
+        if (!file.getBaseFile().exists()) return false;
+        try (FileInputStream fis = file.openRead(); DataInputStream in = new DataInputStream(fis)) {
+            if (in.readInt() != FORMAT_VERSION) return false;
+            int n = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < n; i++) {
+                    String key = in.readUTF();
+                    byte type = in.readByte();
+                    switch (type) {
+                        case T_STRING: values.put(key, in.readUTF()); break;
+                        case T_LONG: values.put(key, in.readLong()); break;
+                        case T_INT: values.put(key, in.readInt()); break;
+                        case T_BOOL: values.put(key, in.readBoolean()); break;
+                        case T_STRING_LIST:
+                            int size = in.readInt();
+                            List<String> list = new ArrayList<>(size);
+                            for (int j = 0; j < size; j++) list.add(in.readUTF());
+                            values.put(key, Collections.unmodifiableList(list));
+                            break;
+                        default: throw new IOException("Unknown value type " + type);
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "State file unreadable, starting fresh: " + e.getMessage());
+            synchronized (this) {
+                values.clear();
+            }
+            return false;
+        }
+    }
+
+    // One-time import of the old app_state prefs; the prefs file is deleted afterwards
+    private void migrateFromPrefs(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE);
+        Map<String, ?> all = prefs.getAll();
+        synchronized (this) {
+            for (Map.Entry<String, ?> e : all.entrySet()) {
+                String key = e.getKey();
+                Object v = e.getValue();
+                if (key.equals(SCANNED_DEVICES) || key.equals("scanned_devices_json")) continue;
+                if (v instanceof String || v instanceof Long || v instanceof Integer || v instanceof Boolean) {
+                    values.put(key, v);
+                }
+            }
+            values.put(SCANNED_DEVICES, Collections.unmodifiableList(legacyDevices(prefs)));
+            // The sync list used to be mirrored into prefs; it now comes straight from the DB
+            values.remove("sync_display_list");
+            values.remove("files_to_upload_size");
+            values.keySet().removeIf(k -> k.startsWith("file_") && (k.endsWith("_status") || k.endsWith("_uploading")));
+            markDirtyLocked();
+        }
+        if (!all.isEmpty()) {
+            writer.post(() -> {
+                flush();
+                ctx.deleteSharedPreferences(LEGACY_PREFS);
+                Log.d(TAG, "Migrated " + all.size() + " app_state pref(s) to " + FILE_NAME);
+            });
+        }
+    }
+
+    // Devices were stored twice (JSON and newline-separated); prefer JSON
+    private static List<String> legacyDevices(SharedPreferences prefs) {
+        List<String> devices = new ArrayList<>();
+        String json = prefs.getString("scanned_devices_json", null);
+        if (json != null && !json.isEmpty()) {
+            try {
+                JSONArray arr = new JSONArray(json);
+                for (int i = 0; i < arr.length(); i++) devices.add(arr.getString(i));
+            } catch (Exception ignored) {}
+        }
+        if (devices.isEmpty()) {
+            String saved = prefs.getString(SCANNED_DEVICES, "");
+            if (saved != null && !saved.isEmpty()) {
+                for (String line : saved.split("\n")) {
+                    if (!line.trim().isEmpty()) devices.add(line.trim());
+                }
+            }
+        }
+        return devices;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.myapplication;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * BLE scan for Shimmer advertisements. Leaves the classic radio alone, so it can run beside an
+ * RFCOMM transfer; alongside a transfer it uses the low power scan mode and, when there are known
+ * devices, filters on their MACs. Sensors that only speak classic Bluetooth are never reported,
+ * see {@link FallbackDiscoveryBackend}.
+ *
+ * Android drops unfiltered scan results while the screen is off, so an active scan without known
+ * devices may find nothing at night.
+ */
+public class BleDiscoveryBackend implements DiscoveryBackend {
+    private static final String TAG = "BleDiscovery";
+
+    private final BluetoothAdapter adapter;
+    private final Handler handler;
+    private final KnownDeviceStore knownDevices;
+    // Replaced on start, read by scan callbacks on the binder/main thread
+    private volatile Set<String> knownMacs = Collections.emptySet();
+    private BluetoothLeScanner scanner;
+    // Written on the handler thread, read by scan callbacks on the binder/main thread
+    private volatile Listener listener;
+
+    public BleDiscoveryBackend(Context context, BluetoothAdapter adapter, Handler handler) {
+        this.adapter = adapter;
+        this.handler = handler;
+        this.knownDevices = new KnownDeviceStore(context);
+    }
+
+    private final ScanCallback callback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            report(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) report(result);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(TAG, "BLE scan failed: " + errorCode);
+        }
+    };
+
+    private void report(ScanResult result) {
+        Listener l = listener;
+        if (l == null || result.getDevice() == null) return;
+        ScanRecord record = result.getScanRecord();
+        String name = record != null ? record.getDeviceName() : null;
+        String mac = result.getDevice().getAddress();
+        if (!DiscoveryBackend.isShimmerName(name) && !knownMacs.contains(mac)) return;
+        handler.post(() -> {
+            if (listener == l) l.onShimmerFound(mac, name);
+        });
+    }
+
+    @Override
+    public String name() {
+        return BLE;
+    }
+
+    @Override
+    public boolean usesInquiry() {
+        return false;
+    }
+
+    @Override
+    public boolean start(boolean alongsideTransfer, Listener listener) {
+        if (adapter == null || !adapter.isEnabled()) return false;
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null) return false;
+        Set<String> macs = new HashSet<>();
+        for (String mac : knownDevices.devices(0L)) macs.add(mac.toUpperCase(Locale.US));
+        knownMacs = macs;
+        List<ScanFilter> filters = null;
+        if (alongsideTransfer && !knownMacs.isEmpty()) {
+            filters = new ArrayList<>();
+            for (String mac : knownMacs) filters.add(new ScanFilter.Builder().setDeviceAddress(mac).build());
+        }
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(alongsideTransfer ? ScanSettings.SCAN_MODE_LOW_POWER : ScanSettings.SCAN_MODE_BALANCED)
+                .build();
+        this.listener = listener;
+        try {
+            scanner.startScan(filters, settings, callback);
+            return true;
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Could not start BLE scan: " + e.getMessage());
+            this.listener = null;
+            return false;
+        }
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+        if (scanner == null) return;
+        try {
+            if (adapter.isEnabled()) scanner.stopScan(callback);
+        } catch (SecurityException | IllegalStateException e) {
+            Log.e(TAG, "Could not stop BLE scan: " + e.getMessage());
+        }
+        scanner = null;
+    }
+}
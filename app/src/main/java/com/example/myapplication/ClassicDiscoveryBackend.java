@@ -0,0 +1,95 @@
+package com.example.myapplication;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+
+/**
+ * Classic Bluetooth inquiry (BluetoothAdapter.startDiscovery), reporting ACTION_FOUND devices
+ * named like a Shimmer. Finds every Shimmer, including ones that only speak classic Bluetooth,
+ * but can't run beside a transfer.
+ */
+public class ClassicDiscoveryBackend implements DiscoveryBackend {
+    private static final String TAG = "ClassicDiscovery";
+
+    private final Context context;
+    private final BluetoothAdapter adapter;
+    private final Handler handler;
+    private Listener listener;
+    // Track receiver registration to avoid IllegalArgumentException on unregister
+    private boolean receiverRegistered = false;
+
+    public ClassicDiscoveryBackend(Context context, BluetoothAdapter adapter, Handler handler) {
+        this.context = context;
+        this.adapter = adapter;
+        this.handler = handler;
+    }
+
+    // Registered with the backend's handler, so it runs on the caller's thread
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device == null || listener == null) return;
+            if (ActivityCompat.checkSelfPermission(context, android.Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+                return;
+            }
+            String name = device.getName();
+            if (DiscoveryBackend.isShimmerName(name)) listener.onShimmerFound(device.getAddress(), name);
+        }
+    };
+
+    @Override
+    public String name() {
+        return CLASSIC;
+    }
+
+    @Override
+    public boolean usesInquiry() {
+        return true;
+    }
+
+    @Override
+    public boolean start(boolean alongsideTransfer, Listener listener) {
+        if (alongsideTransfer || adapter == null || !adapter.isEnabled()) return false;
+        this.listener = listener;
+        try {
+            if (!receiverRegistered) {
+                context.registerReceiver(receiver, new IntentFilter(BluetoothDevice.ACTION_FOUND), null, handler);
+                receiverRegistered = true;
+            }
+            if (adapter.isDiscovering()) adapter.cancelDiscovery();
+            return adapter.startDiscovery();
+        } catch (SecurityException e) {
+            Log.e(TAG, "Bluetooth scan failed due to missing permission", e);
+            stop();
+            return false;
+        }
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+        try {
+            if (adapter != null && adapter.isDiscovering()) adapter.cancelDiscovery();
+        } catch (SecurityException se) {
+            Log.e(TAG, "SecurityException cancelling discovery: " + se.getMessage());
+        }
+        if (!receiverRegistered) return;
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (IllegalArgumentException ignored) {
+            // not registered
+        } finally {
+            receiverRegistered = false;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.myapplication;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Per-device failure history for {@link SilentBackoff}, stored in filemeta.db so it carries over
+ * from one night to the next. One row per (device, reason).
+ */
+public class DeviceBackoffStore implements SilentBackoff.Store {
+    static final String TABLE = "device_backoff";
+
+    private final Context context;
+
+    public DeviceBackoffStore(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                "MAC TEXT NOT NULL, " +
+                "REASON TEXT NOT NULL, " +
+                "CONSECUTIVE INTEGER NOT NULL DEFAULT 0, " +
+                "TOTAL INTEGER NOT NULL DEFAULT 0, " +
+                "LAST_AT INTEGER NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (MAC, REASON))");
+    }
+
+    @Override
+    public SilentBackoff.Record get(String mac, SilentBackoff.Reason reason) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        try (Cursor cursor = db.query(TABLE, new String[]{"CONSECUTIVE", "TOTAL", "LAST_AT"},
+                "MAC=? AND REASON=?", new String[]{mac, reason.name()}, null, null, null)) {
+            if (!cursor.moveToFirst()) return null;
+            return new SilentBackoff.Record(cursor.getInt(0), cursor.getInt(1), cursor.getLong(2));
+        }
+    }
+
+    @Override
+    public void put(String mac, SilentBackoff.Reason reason, SilentBackoff.Record record) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("MAC", mac);
+        values.put("REASON", reason.name());
+        values.put("CONSECUTIVE", record.consecutive);
+        values.put("TOTAL", record.total);
+        values.put("LAST_AT", record.lastAt);
+        db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public void clearConsecutive(String mac, SilentBackoff.Reason... reasons) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("CONSECUTIVE", 0);
+        if (reasons.length == 0) {
+            db.update(TABLE, values, "MAC=?", new String[]{mac});
+            return;
+        }
+        db.beginTransactionNonExclusive();
+        try {
+            for (SilentBackoff.Reason reason : reasons) {
+                db.update(TABLE, values, "MAC=? AND REASON=?", new String[]{mac, reason.name()});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.myapplication;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.os.Handler;
+
+import java.util.Locale;
+
+/**
+ * How the app looks for Shimmers in range: a classic inquiry ({@link ClassicDiscoveryBackend}),
+ * a low duty cycle BLE scan ({@link BleDiscoveryBackend}), BLE with a classic fallback for
+ * sensors that don't advertise over BLE ({@link FallbackDiscoveryBackend}), or fake sensors
+ * ({@link SimulatedDiscoveryBackend}). DockingManager and ScanningService pick one with
+ * {@link #create} every time they start a scan, so the setting takes effect without a restart.
+ *
+ * A classic inquiry takes over the radio and stalls RFCOMM links on the same adapter; a backend
+ * started with alongsideTransfer set must not run one, which is what lets the docking protocol
+ * keep looking for the next device while the current one transfers.
+ */
+public interface DiscoveryBackend {
+    String CLASSIC = "classic";
+    String BLE = "ble";
+    String AUTO = "auto";
+    String SIMULATED = "simulated";
+
+    interface Listener {
+        void onShimmerFound(String mac, String name);  // name may be null for a known MAC
+    }
+
+    String name();
+
+    // True when a scan is a classic inquiry: it ends by itself after ~12 s and stalls RFCOMM links
+    boolean usesInquiry();
+
+    // Reports Shimmers on the backend's handler until stop(); false if it can't scan (that way) now
+    boolean start(boolean alongsideTransfer, Listener listener);
+
+    void stop();
+
+    static boolean isShimmerName(String name) {
+        return name != null && name.toLowerCase(Locale.US).contains("shimmer");
+    }
+
+    // Takes effect from the next scan
+    static void select(Context context, String which) {
+        AppStateStore.get(context).edit().putString(AppStateStore.DISCOVERY_BACKEND, which).apply();
+    }
+
+    // Backend chosen in AppStateStore.DISCOVERY_BACKEND; callbacks run on handler
+    static DiscoveryBackend create(Context context, BluetoothAdapter adapter, Handler handler) {
+        String which = AppStateStore.get(context).getString(AppStateStore.DISCOVERY_BACKEND, AUTO);
+        switch (which) {
+            case CLASSIC:
+                return new ClassicDiscoveryBackend(context, adapter, handler);
+            case BLE:
+                return new BleDiscoveryBackend(context, adapter, handler);
+            case SIMULATED:
+                return new SimulatedDiscoveryBackend(handler);
+            default:
+                return new FallbackDiscoveryBackend(new BleDiscoveryBackend(context, adapter, handler),
+                        new ClassicDiscoveryBackend(context, adapter, handler), handler);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Brings files/data and the files table back in line. The directory is read once and sorted, the
+ * DB rows are read in FILE_PATH order (served by the unique index), and a single sorted merge
+ * finds both kinds of drift:
+ *   - rows whose file is gone (and was not evicted by the quota) are purged, with their upload job;
+ *   - files with no row are leftovers of killed transfers (.partial files included); they are
+ *     moved to files/quarantine for inspection. Quarantine counts against the storage budget and
+ *     is the first thing StorageQuotaManager deletes when it needs room.
+ * Repairs are applied in batched transactions. Files modified within the last 15 minutes are
+ * skipped so an in-flight transfer (which inserts its row only once the file is complete) is
+ * never touched.
+ */
+public class DiskReconciler {
+    private static final String TAG = "DiskReconciler";
+
+    static final String QUARANTINE_DIR = "quarantine";
+
+    private static final long IN_FLIGHT_GRACE_MS = 15 * 60 * 1000L;
+
+    public static final class Report {
+        public int filesScanned;
+        public int rowsScanned;
+        public int rowsPurged;
+        public int partialsQuarantined;
+        public int orphansQuarantined;
+
+        public boolean changedAnything() {
+            return rowsPurged + partialsQuarantined + orphansQuarantined > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "scanned " + filesScanned + " file(s) / " + rowsScanned + " row(s); purged " + rowsPurged
+                    + " stale row(s), quarantined " + partialsQuarantined + " partial(s) and "
+                    + orphansQuarantined + " other orphan(s)";
+        }
+    }
+
+    private final Context context;
+
+    public DiskReconciler(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    public Report run() throws IOException {
+        Report report = new Report();
+        File dataDir = new File(context.getFilesDir(), "data");
+        if (!dataDir.exists()) dataDir.mkdirs();
+
+        List<String> disk = listDirectory(dataDir);
+        report.filesScanned = disk.size();
+
+        List<String> stalePaths = new ArrayList<>();
+        List<File> orphans = new ArrayList<>();
+        FileMetaRepository repo = FileMetaRepository.get(context);
+        long now = System.currentTimeMillis();
+        String dataPrefix = dataDir.getAbsolutePath() + File.separator;
+
+        try (Cursor cursor = repo.db().query("files", new String[]{"FILE_PATH", "EVICTED_AT"},
+                null, null, null, null, "FILE_PATH ASC")) {
+            int i = 0;
+            boolean hasRow = cursor.moveToNext();
+            while (hasRow || i < disk.size()) {
+                String rowPath = hasRow ? cursor.getString(0) : null;
+                String diskPath = i < disk.size() ? disk.get(i) : null;
+                int cmp = rowPath == null ? 1 : diskPath == null ? -1 : rowPath.compareTo(diskPath);
+                if (cmp == 0) {
+                    // In both: nothing to do
+                    report.rowsScanned++;
+                    hasRow = cursor.moveToNext();
+                    i++;
+                } else if (cmp < 0) {
+                    // Row without a file (rows outside files/data are not ours to judge)
+                    report.rowsScanned++;
+                    if (cursor.isNull(1) && rowPath.startsWith(dataPrefix)) stalePaths.add(rowPath);
+                    hasRow = cursor.moveToNext();
+                } else {
+                    // File without a row
+                    File f = new File(diskPath);
+                    if (now - f.lastModified() >= IN_FLIGHT_GRACE_MS) orphans.add(f);
+                    i++;
+                }
+            }
+        }
+
+        if (!stalePaths.isEmpty()) {
+            report.rowsPurged = repo.purge(stalePaths);
+            List<File> staleFiles = new ArrayList<>();
+            for (String p : stalePaths) staleFiles.add(new File(p));
+            new UploadJobQueue(context).markSucceeded(staleFiles);
+        }
+
+        File quarantine = new File(context.getFilesDir(), QUARANTINE_DIR);
+        for (File f : orphans) {
+            if (!quarantine.exists()) quarantine.mkdirs();
+            if (!f.renameTo(new File(quarantine, f.getName()))) {
+                Log.w(TAG, "Could not quarantine " + f.getName());
+            } else if (f.getName().endsWith(".partial")) {
+                report.partialsQuarantined++;
+            } else {
+                report.orphansQuarantined++;
+            }
+        }
+
+        Log.d(TAG, "Reconciliation: " + report);
+        return report;
+    }
+
+    // One pass over the directory; absolute paths sorted the same way as the FILE_PATH index
+    private static List<String> listDirectory(File dir) throws IOException {
+        List<String> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p)) paths.add(p.toFile().getAbsolutePath());
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+}
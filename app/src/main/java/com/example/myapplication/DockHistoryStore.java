@@ -0,0 +1,76 @@
+package com.example.myapplication;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dock times per device for {@link DockPhaseModel}, stored in filemeta.db: one row per device per
+ * night (its first docked answer). Rows older than RETENTION_MS are pruned on insert.
+ */
+public class DockHistoryStore implements DockPhaseModel.Store {
+    static final String TABLE = "dock_history";
+
+    private static final long RETENTION_MS = 60L * 24 * 60 * 60 * 1000;
+
+    private final Context context;
+
+    public DockHistoryStore(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                "MAC TEXT NOT NULL, " +
+                "DOCKED_AT INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_dock_history_mac ON " + TABLE + "(MAC, DOCKED_AT)");
+    }
+
+    @Override
+    public List<Long> dockTimes(String mac, long since) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        List<Long> times = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE, new String[]{"DOCKED_AT"}, "MAC=? AND DOCKED_AT>=?",
+                new String[]{mac, String.valueOf(since)}, null, null, "DOCKED_AT ASC")) {
+            while (cursor.moveToNext()) {
+                times.add(cursor.getLong(0));
+            }
+        }
+        return times;
+    }
+
+    @Override
+    public Set<String> devices(long since) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        Set<String> macs = new HashSet<>();
+        try (Cursor cursor = db.query(true, TABLE, new String[]{"MAC"}, "DOCKED_AT>=?",
+                new String[]{String.valueOf(since)}, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                macs.add(cursor.getString(0));
+            }
+        }
+        return macs;
+    }
+
+    @Override
+    public void addDockTime(String mac, long at) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("MAC", mac);
+        values.put("DOCKED_AT", at);
+        db.beginTransactionNonExclusive();
+        try {
+            db.insert(TABLE, null, values);
+            db.delete(TABLE, "DOCKED_AT<?", new String[]{String.valueOf(at - RETENTION_MS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
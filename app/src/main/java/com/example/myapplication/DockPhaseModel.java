@@ -0,0 +1,151 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-device model of when each Shimmer usually gets docked, learned from the time of its first
+ * docked answer on past nights (DockHistoryStore on the phone, {@link MemoryStore} in the
+ * simulator). The protocol uses it two ways:
+ *   - {@link #nextScanAt}: with nothing queued, skip init scans until shortly before the earliest
+ *     expected dock time of a device still missing tonight;
+ *   - {@link #likelyDocked}: when a device is usually docked by now, go straight to the dock
+ *     query instead of the monitoring scan loop.
+ *
+ * Only the docked period matters here: a docked sensor keeps its radio on and answers RFCOMM at
+ * once, while an undocked one is only visible in its 30 s / 30 min Bluetooth cycle and would fail
+ * the dock query anyway. Devices with fewer than MIN_NIGHTS of history are never predicted, so a
+ * new sensor gets the default cadence.
+ *
+ * Pure Java, called only from the protocol thread.
+ */
+public class DockPhaseModel {
+
+    public interface Store {
+        List<Long> dockTimes(String mac, long since);   // epoch millis, any order
+        Set<String> devices(long since);                // devices with at least one dock time since
+        void addDockTime(String mac, long at);
+    }
+
+    private static final long HISTORY_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final int MIN_NIGHTS = 3;
+    // Scan again this long before the 10th percentile dock time
+    private static final double EARLY_QUANTILE = 0.1;
+    private static final long DOCK_LEAD_MS = 15 * 60 * 1000L;
+    // Skip monitoring once 80% of past nights had the device docked by this time of night
+    private static final double DOCKED_QUANTILE = 0.8;
+
+    private final DockingProtocol.Config config;
+    private final Store store;
+    // First docked answer per device per night is what gets recorded
+    private final Set<String> recordedTonight = new HashSet<>();
+
+    public DockPhaseModel(DockingProtocol.Config config, Store store) {
+        this.config = config;
+        this.store = store;
+    }
+
+    public void onNightStart() {
+        recordedTonight.clear();
+    }
+
+    // Already recorded tonight before a restart
+    public void markRecorded(String mac) {
+        recordedTonight.add(mac);
+    }
+
+    public void onDocked(String mac, long at) {
+        if (recordedTonight.add(mac)) store.addDockTime(mac, at);
+    }
+
+    /**
+     * Earliest time an init scan is worth running for devices not in {@code done}, or -1 when the
+     * default cadence should be kept (no history, or some device may dock any time now).
+     */
+    public long nextScanAt(Collection<String> done, long now) {
+        if (!config.dockPrediction) return -1;
+        long wake = -1;
+        long nightStart = nightStart(now);
+        for (String mac : store.devices(now - HISTORY_MS)) {
+            if (done.contains(mac)) continue;
+            List<Long> offsets = dockOffsets(mac, now);
+            if (offsets == null) return -1;
+            long earliest = nightStart + quantile(offsets, EARLY_QUANTILE) - DOCK_LEAD_MS;
+            if (earliest <= now) return -1;
+            wake = wake < 0 ? earliest : Math.min(wake, earliest);
+        }
+        return wake;
+    }
+
+    // True when this device was docked by this time of night on most past nights
+    public boolean likelyDocked(String mac, long now) {
+        if (!config.dockPrediction) return false;
+        List<Long> offsets = dockOffsets(mac, now);
+        return offsets != null && now - nightStart(now) >= quantile(offsets, DOCKED_QUANTILE);
+    }
+
+    // Dock times as offsets from their night's start, sorted; null with too little history
+    private List<Long> dockOffsets(String mac, long now) {
+        List<Long> times = store.dockTimes(mac, now - HISTORY_MS);
+        if (times.size() < MIN_NIGHTS) return null;
+        List<Long> offsets = new ArrayList<>(times.size());
+        for (long t : times) offsets.add(t - nightStart(t));
+        Collections.sort(offsets);
+        return offsets;
+    }
+
+    private static long quantile(List<Long> sorted, double q) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.floor(q * sorted.size())));
+    }
+
+    // Most recent night start (nightStartHour:nightStartMinute) at or before t
+    long nightStart(long t) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(t);
+        cal.set(Calendar.HOUR_OF_DAY, config.nightStartHour);
+        cal.set(Calendar.MINUTE, config.nightStartMinute);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        if (cal.getTimeInMillis() > t) cal.add(Calendar.DAY_OF_MONTH, -1);
+        return cal.getTimeInMillis();
+    }
+
+    /** Store that lives as long as the object; learning across nights needs one instance for all. */
+    public static final class MemoryStore implements Store {
+        private final Map<String, List<Long>> dockTimes = new HashMap<>();
+
+        @Override
+        public List<Long> dockTimes(String mac, long since) {
+            List<Long> result = new ArrayList<>();
+            List<Long> all = dockTimes.get(mac);
+            if (all != null) for (long t : all) if (t >= since) result.add(t);
+            return result;
+        }
+
+        @Override
+        public Set<String> devices(long since) {
+            Set<String> result = new HashSet<>();
+            for (Map.Entry<String, List<Long>> e : dockTimes.entrySet()) {
+                for (long t : e.getValue()) {
+                    if (t >= since) {
+                        result.add(e.getKey());
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void addDockTime(String mac, long at) {
+            dockTimes.computeIfAbsent(mac, m -> new ArrayList<>()).add(at);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.myapplication;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous dock state query: runs the blocking RFCOMM round trip in the caller's scope and
+ * delivers the result on the given handler. The caller owns the timeout; when it fires it calls
+ * {@link Call#cancel()}, which closes the socket so a hung connect() or read() returns promptly,
+ * and guarantees the callback will not run afterwards.
+ *
+ * {@link #probe} is the cheap variant used to check a known Shimmer is in range: one connect
+ * attempt without retries, closed as soon as it succeeds.
+ */
+public class DockStateQuery {
+    private static final String TAG = "DockStateQuery";
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    public interface Callback {
+        void onResult(DockingProtocol.DockResult result);
+    }
+
+    public interface PresenceCallback {
+        void onResult(boolean present);
+    }
+
+    public static final class Call {
+        private volatile boolean cancelled;
+        private volatile BluetoothSocket socket;
+        private volatile Future<?> future;
+
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            BluetoothSocket s = socket;
+            if (s != null) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+            Future<?> f = future;
+            if (f != null) f.cancel(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final Context context;
+    private final BluetoothAdapter adapter;
+    private final Handler resultHandler;
+
+    public DockStateQuery(Context context, BluetoothAdapter adapter, Handler resultHandler) {
+        this.context = context;
+        this.adapter = adapter;
+        this.resultHandler = resultHandler;
+    }
+
+    // Starts a query for mac; callback runs once on resultHandler unless the call is cancelled first
+    public Call start(AppExecutors.Scope scope, String mac, Callback callback) {
+        Call call = new Call();
+        try {
+            call.future = scope.submit("DockQuery", () -> {
+                DockingProtocol.DockResult result = queryDockStateFromShimmer(mac, call);
+                resultHandler.post(() -> {
+                    if (!call.cancelled) callback.onResult(result);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Dock query rejected for " + mac + ": pool busy or run stopped");
+            resultHandler.post(() -> {
+                if (!call.cancelled) callback.onResult(new DockingProtocol.DockResult(0, 0L, true));
+            });
+        }
+        return call;
+    }
+
+    // Starts a presence probe for mac; callback runs once on resultHandler unless the call is cancelled first
+    public Call probe(AppExecutors.Scope scope, String mac, PresenceCallback callback) {
+        Call call = new Call();
+        try {
+            call.future = scope.submit("PresenceProbe", () -> {
+                boolean present = probeShimmer(mac, call);
+                resultHandler.post(() -> {
+                    if (!call.cancelled) callback.onResult(present);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Presence probe rejected for " + mac + ": pool busy or run stopped");
+            resultHandler.post(() -> {
+                if (!call.cancelled) callback.onResult(false);
+            });
+        }
+        return call;
+    }
+
+    // Single RFCOMM connect, no command sent; runs on the bluetooth pool
+    private boolean probeShimmer(String macAddress, Call call) {
+        if (adapter == null || !adapter.isEnabled()) return false;
+        if (ActivityCompat.checkSelfPermission(context, android.Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "Missing BLUETOOTH_CONNECT permission for presence probe");
+            return false;
+        }
+        BluetoothSocket socket = null;
+        try {
+            socket = adapter.getRemoteDevice(macAddress).createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+            call.socket = socket;
+            if (call.cancelled) return false;
+            adapter.cancelDiscovery();
+            socket.connect();
+            Log.d(TAG, "Presence probe: " + macAddress + " answered");
+            return true;
+        } catch (IOException | SecurityException | IllegalArgumentException e) {
+            Log.d(TAG, "Presence probe: " + macAddress + " not reachable (" + e.getMessage() + ")");
+            return false;
+        } finally {
+            if (socket != null) {
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Blocking RFCOMM round trip (CHECK_DOCK_STATE 0xD5 -> RESPONSE_DOCK_STATE 0xD6); runs on the bluetooth pool
+    private DockingProtocol.DockResult queryDockStateFromShimmer(String macAddress, Call call) {
+        // If Bluetooth is OFF, signal with -1 instead of treating as undocked
+        if (adapter == null || !adapter.isEnabled()) {
+            Log.w(TAG, "Bluetooth OFF during dock state query");
+            return new DockingProtocol.DockResult(-1, 0L, false);
+        }
+        BluetoothSocket socket = null;
+        try {
+            // Permission check
+            if (ActivityCompat.checkSelfPermission(context, android.Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+                Log.w(TAG, "Missing BLUETOOTH_CONNECT permission");
+                return new DockingProtocol.DockResult(0, 0L, false); // Treat as undocked if permission not granted
+            }
+
+            BluetoothDevice device = adapter.getRemoteDevice(macAddress);
+            socket = device.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+            // Publish the socket so cancel() can close it and unblock connect()/read()
+            call.socket = socket;
+            if (call.cancelled) return new DockingProtocol.DockResult(0, 0L, true);
+            adapter.cancelDiscovery();
+
+            // Retry connection up to 3 times
+            boolean connected = false;
+            for (int attempts = 1; attempts <= 3 && !connected && !call.cancelled; attempts++) {
+                try {
+                    socket.connect();
+                    connected = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Socket connect attempt " + attempts + " failed.", e);
+                    // Log retry attempt for RTC tracking
+                    Log.d(TAG, "[RTC-RETRY] Attempt " + attempts + " for MAC " + macAddress);
+                    if (attempts < 3) try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
+                    // If BT toggled OFF during retries, bail with -1
+                    if (adapter == null || !adapter.isEnabled()) return new DockingProtocol.DockResult(-1, 0L, false);
+                }
+            }
+            if (!connected) {
+                Log.e(TAG, "Unable to connect to Shimmer after 3 retries");
+                // Log RTC not stored due to connection failure
+                Log.d(TAG, "[RTC-STORE] Connection failed, shimmerRtc64 NOT stored for MAC " + macAddress);
+                return new DockingProtocol.DockResult(0, 0L, true);
+            }
+            Log.d(TAG, "Connected to Shimmer: " + macAddress);
+
+            // Send CHECK_DOCK_STATE (0xD5)
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[]{(byte) 0xD5});
+            out.flush();
+            Log.d(TAG, "Sent CHECK_DOCK_STATE (0xD5)");
+
+            // Increase wait time before reading response
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ie) {
+                Log.e(TAG, "Sleep interrupted before reading response", ie);
+            }
+
+            // Read RESPONSE_DOCK_STATE (0xD6) and status byte, skipping all 0xFF
+            InputStream in = socket.getInputStream();
+            int firstByte;
+            do {
+                firstByte = in.read();
+                if (firstByte == -1) {
+                    Log.e(TAG, "Stream ended before receiving response");
+                    Log.d(TAG, "[RTC-STORE] Stream ended, shimmerRtc64 NOT stored for MAC " + macAddress);
+                    return new DockingProtocol.DockResult(0, 0L, true);
+                }
+            } while (firstByte == 0xFF);
+
+            if (firstByte == 0xD6) {
+                int statusByte = in.read();
+                if (statusByte == -1) {
+                    Log.e(TAG, "Stream ended before receiving status byte");
+                    Log.d(TAG, "[RTC-STORE] Status byte missing, shimmerRtc64 NOT stored for MAC " + macAddress);
+                    return new DockingProtocol.DockResult(0, 0L, false);
+                }
+                // Read shimmer RTC64 (8 bytes)
+                byte[] rtcBytes = new byte[8];
+                int rtcRead = in.read(rtcBytes);
+                long shimmerRtc = 0L;
+                if (rtcRead == 8) {
+                    // Correctly interpret as little-endian
+                    for (int i = 7; i >= 0; i--) {
+                        shimmerRtc = (shimmerRtc << 8) | (rtcBytes[i] & 0xFF);
+                    }
+                }else {
+                    Log.e(TAG, "Failed to read shimmer RTC64, got " + rtcRead + " bytes");
+                    Log.d(TAG, "[RTC-STORE] RTC64 read failed, shimmerRtc64 NOT stored for MAC " + macAddress);
+                }
+                Log.d(TAG, "Received dock status from Shimmer: " + statusByte + ", shimmerRtc64=" + shimmerRtc);
+                if (statusByte == 1) {
+                    Log.d(TAG, "[RTC-STORE] shimmerRtc64 STORED for MAC " + macAddress + ": " + shimmerRtc);
+                } else {
+                    Log.d(TAG, "[RTC-STORE] shimmerRtc64 NOT stored (undocked) for MAC " + macAddress);
+                }
+                return new DockingProtocol.DockResult(statusByte == 1 ? 1 : 0, shimmerRtc, false); // 0 = Undocked, 1 = Docked
+            } else {
+                Log.e(TAG, String.format("Unexpected non-FF, non-D6 byte from Shimmer: 0x%02X (%d)", firstByte, firstByte));
+                Log.d(TAG, "[RTC-STORE] Unexpected response, shimmerRtc64 NOT stored for MAC " + macAddress);
+                return new DockingProtocol.DockResult(0, 0L, false);
+            }
+        } catch (SecurityException se) {
+            Log.e(TAG, "Bluetooth connect failed due to missing permission", se);
+            Log.d(TAG, "[RTC-STORE] shimmerRtc64 NOT stored due to permission error for MAC " + macAddress);
+            return new DockingProtocol.DockResult(0, 0L, false);
+        } catch (Exception e) {
+            Log.e(TAG, "Error querying dock state: " + e.getMessage(), e);
+            Log.d(TAG, "[RTC-STORE] shimmerRtc64 NOT stored due to exception for MAC " + macAddress);
+            return new DockingProtocol.DockResult(0, 0L, false);
+        } finally {
+            if (socket != null) {
+                try { socket.close();
+                    Log.d(TAG, "Bluetooth socket closed");
+                } catch (Exception ignored) {
+                    Log.e(TAG, "Error closing Bluetooth socket", ignored);
+                }
+            }
+        }
+    }
+}
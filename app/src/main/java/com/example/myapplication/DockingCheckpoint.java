@@ -0,0 +1,70 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The docking protocol's progress through a night, saved at every state change so that a restart
+ * after the process was killed resumes the night instead of starting over (DockingCheckpointStore
+ * on the phone, {@link MemoryStore} in the simulator).
+ *
+ * Only what is expensive to redo is kept: devices already transferred, the queue with its retry
+ * counts, the dock timestamps and the device in hand. Timers and in-flight queries or transfers
+ * are not; the resumed protocol redoes the current device's stage from monitoring.
+ */
+public final class DockingCheckpoint {
+
+    public interface Store {
+        DockingCheckpoint load();   // null if none or unreadable
+        void save(DockingCheckpoint checkpoint);
+        void clear();
+    }
+
+    public final long nightStart;   // identifies the night; checkpoints from another night are ignored
+    public final DockingProtocol.State state;
+    public final String currentMac;
+    public final List<String> queue;
+    public final List<String> completed;
+    public final Map<String, Integer> retryCounts;
+    public final Map<String, DockingTimestampModel> dockTimestamps;
+    public final int emptyProbeRounds;
+    public final boolean uploadPending;
+
+    public DockingCheckpoint(long nightStart, DockingProtocol.State state, String currentMac,
+                             List<String> queue, List<String> completed, Map<String, Integer> retryCounts,
+                             Map<String, DockingTimestampModel> dockTimestamps, int emptyProbeRounds,
+                             boolean uploadPending) {
+        this.nightStart = nightStart;
+        this.state = state;
+        this.currentMac = currentMac;
+        this.queue = Collections.unmodifiableList(new ArrayList<>(queue));
+        this.completed = Collections.unmodifiableList(new ArrayList<>(completed));
+        this.retryCounts = Collections.unmodifiableMap(new LinkedHashMap<>(retryCounts));
+        this.dockTimestamps = Collections.unmodifiableMap(new LinkedHashMap<>(dockTimestamps));
+        this.emptyProbeRounds = emptyProbeRounds;
+        this.uploadPending = uploadPending;
+    }
+
+    /** Store that lives as long as the object; a simulated restart keeps the same instance. */
+    public static final class MemoryStore implements Store {
+        private DockingCheckpoint saved;
+
+        @Override
+        public DockingCheckpoint load() {
+            return saved;
+        }
+
+        @Override
+        public void save(DockingCheckpoint checkpoint) {
+            saved = checkpoint;
+        }
+
+        @Override
+        public void clear() {
+            saved = null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link DockingCheckpoint}s in a small binary file written through {@link AtomicFile}, so a
+ * kill mid-write leaves the previous checkpoint intact. Saves run on the protocol thread and are
+ * synchronous (the file is a few hundred bytes); a save identical to the last one is skipped, so
+ * the monitoring/silent cycles of a quiet night don't touch the disk.
+ */
+public class DockingCheckpointStore implements DockingCheckpoint.Store {
+    private static final String TAG = "DockingCheckpoint";
+    private static final String FILE_NAME = "docking_checkpoint.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    private final AtomicFile file;
+    private byte[] lastWritten;
+
+    public DockingCheckpointStore(Context ctx) {
+        this.file = new AtomicFile(new File(ctx.getApplicationContext().getFilesDir(), FILE_NAME));
+    }
+
+    @Override
+    public DockingCheckpoint load() {
+        if (!file.getBaseFile().exists()) return null;
+        try (FileInputStream fis = file.openRead(); DataInputStream in = new DataInputStream(fis)) {
+            return read(in);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Checkpoint unreadable, starting the night fresh: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void save(DockingCheckpoint c) {
+        byte[] bytes;
+        try {
+            bytes = serialize(c);
+        } catch (IOException e) {
+            Log.w(TAG, "Checkpoint serialization failed: " + e.getMessage());
+            return;
+        }
+        if (Arrays.equals(bytes, lastWritten)) return;
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            fos.write(bytes);
+            file.finishWrite(fos);
+            lastWritten = bytes;
+        } catch (IOException e) {
+            Log.w(TAG, "Checkpoint write failed: " + e.getMessage());
+            if (fos != null) file.failWrite(fos);
+        }
+    }
+
+    @Override
+    public void clear() {
+        file.delete();
+        lastWritten = null;
+    }
+
+    // Null for a file written by another format version
+    static DockingCheckpoint read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) return null;
+        long nightStart = in.readLong();
+        DockingProtocol.State state = DockingProtocol.State.valueOf(in.readUTF());
+        String currentMac = in.readBoolean() ? in.readUTF() : null;
+        List<String> queue = readList(in);
+        List<String> completed = readList(in);
+        Map<String, Integer> retryCounts = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) retryCounts.put(in.readUTF(), in.readInt());
+        Map<String, DockingTimestampModel> dockTimestamps = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            dockTimestamps.put(in.readUTF(), new DockingTimestampModel(in.readLong(), in.readInt()));
+        }
+        int emptyProbeRounds = in.readInt();
+        boolean uploadPending = in.readBoolean();
+        return new DockingCheckpoint(nightStart, state, currentMac, queue, completed, retryCounts,
+                dockTimestamps, emptyProbeRounds, uploadPending);
+    }
+
+    static byte[] serialize(DockingCheckpoint c) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(c.nightStart);
+        out.writeUTF(c.state.name());
+        out.writeBoolean(c.currentMac != null);
+        if (c.currentMac != null) out.writeUTF(c.currentMac);
+        writeList(out, c.queue);
+        writeList(out, c.completed);
+        out.writeInt(c.retryCounts.size());
+        for (Map.Entry<String, Integer> e : c.retryCounts.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue());
+        }
+        out.writeInt(c.dockTimestamps.size());
+        for (Map.Entry<String, DockingTimestampModel> e : c.dockTimestamps.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue().shimmerRtc);
+            out.writeInt(e.getValue().androidRtc);
+        }
+        out.writeInt(c.emptyProbeRounds);
+        out.writeBoolean(c.uploadPending);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String s : list) out.writeUTF(s);
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add(in.readUTF());
+        return list;
+    }
+}
@@ -0,0 +1,791 @@
+package com.example.myapplication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The night docking protocol as an explicit state machine:
+ *
+ *   IDLE -> PROBING / INIT_SCAN -> MONITORING -> DOCK_QUERY -> WAITING_TO_TRANSFER -> TRANSFERRING -> (next device)
+ *                     \                  |             |                                     |
+ *                      `-------------> SILENT <-------'-------------------------------------'
+ *
+ * Devices already in the {@link KnownDeviceRegistry} are found with short direct connects
+ * (PROBING, and the monitoring scans of a known device) instead of a Bluetooth discovery;
+ * discovery (INIT_SCAN) is only used when the registry can't cover the devices still missing
+ * tonight, and every probeRoundsPerDiscovery empty probe rounds to enroll new sensors. When the
+ * port can scan without a classic inquiry (BLE), it also scans during a transfer, so the next
+ * device is queued and known to be in range by the time the transfer ends.
+ *
+ * Stages advance on completion signals rather than fixed delays: the transfer starts once the
+ * sensor answers a readiness probe (bounded by waitBeforeTransferMs), and a finished transfer
+ * starts the upload and immediately moves on to the next device, so the next device's monitoring
+ * and transfer overlap the previous one's upload. Uploads are serialized: a transfer finishing
+ * while one runs queues exactly one follow-up upload ({@link #onSyncDone}).
+ *
+ * Every silent state carries a {@link SilentBackoff.Reason}; {@link SilentBackoff} turns it and
+ * the device's history into the silent duration and the retry-vs-rotate decision.
+ * {@link DockPhaseModel} stretches idle silences until devices are expected on the dock and
+ * lets a device that is usually docked by now skip the monitoring scans.
+ *
+ * Every state change saves a {@link DockingCheckpoint}; {@link #start} resumes from the saved one
+ * when it belongs to the current night, so a restart after process death neither rescans from
+ * scratch nor transfers a finished device again.
+ *
+ * Pure Java on purpose: time comes from a {@link Clock}, delays from a {@link Scheduler}, and every
+ * side effect (Bluetooth, dock query, transfer, upload, UI) goes through a {@link Port}. Results
+ * come back in as events ({@link #onDeviceFound}, {@link #onPresence}, {@link #onDockState}, {@link #onTransferDone},
+ * {@link #onTransferFailed}, {@link #onSyncDone}). DockingManager wires this to Android; the
+ * DockingSimulator test helper runs it in virtual time.
+ *
+ * Not thread-safe: the scheduler and all event calls must use a single thread.
+ */
+public class DockingProtocol {
+
+    public enum State {
+        IDLE,                 // not running
+        PROBING,              // presence probes of known devices to build the device queue
+        INIT_SCAN,            // discovery to build the device queue (up to MAX_QUEUED)
+        MONITORING,           // periodic scans checking the current device stays in range
+        DOCK_QUERY,           // RFCOMM query of the current device's dock state
+        WAITING_TO_TRANSFER,  // docked; probing until the sensor is ready to transfer
+        TRANSFERRING,         // file transfer from the current device, scanning for the next if the port can
+        SILENT                // paused for silentStateDurationMs, then retry/rotate/rescan
+    }
+
+    // Timing and window; defaults match what DockingManager always used
+    public static final class Config {
+        public long monitoringPhaseDurationMs = 60 * 1000;
+        public long scanPeriodMs = 20 * 1000;
+        public long scanDurationMs = 60 * 1000;
+        public long undockedTimeoutMs = 60 * 1000;
+        public long silentStateDurationMs = 60 * 1000;
+        // Readiness probes every readyProbeIntervalMs after docking; transfer anyway after waitBeforeTransferMs
+        public long readyProbeIntervalMs = 10 * 1000;
+        public long waitBeforeTransferMs = 60 * 1000;
+        // A query still unanswered after this is treated as a failed connect
+        public long dockQueryTimeoutMs = 20 * 1000;
+
+        public int nightStartHour = 20;
+        public int nightStartMinute = 0;
+        public int nightEndHour = 17;
+        public int nightEndMinute = 0;
+
+        // Use DockPhaseModel's learned dock times to skip idle scans and monitoring
+        public boolean dockPrediction = true;
+
+        // Look for known devices with direct connects instead of discovery
+        public boolean knownDeviceProbes = true;
+        // A presence probe still unanswered after this counts as absent (classic page timeout is ~5 s)
+        public long presenceProbeTimeoutMs = 8 * 1000;
+        // Empty probe rounds in a row before one discovery round, so a new sensor still gets enrolled
+        public int probeRoundsPerDiscovery = 10;
+    }
+
+    public interface Clock {
+        long now(); // epoch millis
+    }
+
+    public interface Scheduler {
+        void schedule(long delayMs, Runnable task);
+        void cancelAll();
+    }
+
+    // Result of a dock state query; status is -1 (Bluetooth off), 0 (undocked) or 1 (docked)
+    public static final class DockResult {
+        public final int status;
+        public final long shimmerRtc;
+        public final boolean connectFailed;
+
+        public DockResult(int status, long shimmerRtc, boolean connectFailed) {
+            this.status = status;
+            this.shimmerRtc = shimmerRtc;
+            this.connectFailed = connectFailed;
+        }
+    }
+
+    public interface Port {
+        boolean isBluetoothOn();
+        boolean hasScanPermission();
+        void startDiscovery();          // report matches through onDeviceFound
+        boolean startDiscoveryAlongsideTransfer(); // discovery that leaves RFCOMM alone; false if not possible
+        void stopDiscovery();
+        void probePresence(int probeId, String mac); // short direct connect; answer through onPresence, off the protocol thread
+        void cancelPresenceProbe();      // abandon the probe in flight, if any; no answer expected after this
+        void queryDockState(int queryId, String mac); // answer through onDockState, off the protocol thread
+        void cancelDockQuery();          // abandon the query in flight, if any; no answer expected after this
+        void startTransfer(String mac, DockingTimestampModel timestamps); // answer through onTransferDone/Failed
+        void cancelTransfer();
+        void startSync();                // answer through onSyncDone
+        void log(String message);
+    }
+
+    public interface Listener {
+        void onStateChanged(State from, State to, String mac);
+        void onStatus(String status);
+        void onDocked();
+        void onUndocked();
+        void onFileTransferStart();
+        void onFinished();              // night complete (not called on forceStop)
+    }
+
+    private static final int MAX_QUEUED = 2;
+    private static final int DEVICES_PER_NIGHT = 2;
+    // Longest idle silence DockPhaseModel may ask for, so a new or early device isn't missed for long
+    private static final long MAX_PREDICTED_SILENT_MS = 30 * 60 * 1000L;
+
+    private final Config config;
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final Port port;
+    private final Listener listener;
+    private final SilentBackoff backoff;
+    private final DockPhaseModel dockModel;
+    private final KnownDeviceRegistry known;
+    private final DockingCheckpoint.Store checkpoints;
+
+    private State state = State.IDLE;
+    private boolean forceStopped = false;
+    // Start of the night window being worked on; keys the checkpoints
+    private long nightStart;
+
+    // Devices found by the init scan, in discovery order, and those already transferred tonight
+    private final Set<String> queue = new LinkedHashSet<>();
+    private final Set<String> completed = new HashSet<>();
+    private final Map<String, Integer> silentRetryCounts = new HashMap<>();
+    private final Map<String, DockingTimestampModel> dockTimestamps = new HashMap<>();
+    private String currentMac;
+    // Why the last silent state was entered; decides retry vs rotate when it ends
+    private SilentBackoff.Reason silentReason;
+    // Id of the latest dock query; answers carrying any other id are stale
+    private int querySeq = 0;
+
+    // Presence probes: devices left in this round, id of the latest probe, empty rounds in a row
+    private final ArrayDeque<String> probeTargets = new ArrayDeque<>();
+    private int probeSeq = 0;
+    private int emptyProbeRounds = 0;
+    // When a queued device answered its probe or was seen during a transfer; a fresh sighting makes
+    // the monitoring scans redundant
+    private final Map<String, Long> presentAt = new HashMap<>();
+
+    // Deadline for the readiness probes of currentMac
+    private long readyDeadline;
+
+    // Upload stage, running beside the device stages
+    private boolean syncRunning;
+    private boolean syncRequested;
+
+    // Monitoring bookkeeping for currentMac
+    private long monitoringStartedAt;
+    private long lastSeenAt;
+    private boolean seenThisScan;
+
+    public DockingProtocol(Config config, Clock clock, Scheduler scheduler, Port port, Listener listener) {
+        this(config, clock, scheduler, port, listener, new SilentBackoff(config, new SilentBackoff.MemoryStore()),
+                new DockPhaseModel(config, new DockPhaseModel.MemoryStore()),
+                new KnownDeviceRegistry(config, new KnownDeviceRegistry.MemoryStore()),
+                new DockingCheckpoint.MemoryStore());
+    }
+
+    public DockingProtocol(Config config, Clock clock, Scheduler scheduler, Port port, Listener listener,
+                           SilentBackoff backoff, DockPhaseModel dockModel, KnownDeviceRegistry known,
+                           DockingCheckpoint.Store checkpoints) {
+        this.config = config;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.port = port;
+        this.listener = listener;
+        this.backoff = backoff;
+        this.dockModel = dockModel;
+        this.known = known;
+        this.checkpoints = checkpoints;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public String currentMac() {
+        return currentMac;
+    }
+
+    public boolean isActive() {
+        return state != State.IDLE;
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    // ---- Commands ----
+
+    public void start() {
+        forceStopped = false;
+        if (isActive()) {
+            port.log("Docking protocol already active. Ignoring start.");
+            return;
+        }
+        if (!isNightWindow()) {
+            port.log("Not in night window, docking protocol will NOT start.");
+            return;
+        }
+        nightStart = dockModel.nightStart(clock.now());
+        DockingCheckpoint saved = checkpoints.load();
+        silentRetryCounts.clear();
+        completed.clear();
+        emptyProbeRounds = 0;
+        dockModel.onNightStart();
+        if (saved != null && saved.nightStart == nightStart) {
+            resume(saved);
+            return;
+        }
+        port.log("Starting night docking protocol...");
+        listener.onStatus("Docking protocol started.");
+        startInitScan();
+    }
+
+    // Picks the night up where the checkpoint left it; the stage in progress starts over
+    private void resume(DockingCheckpoint saved) {
+        port.log("Resuming night from checkpoint: state " + saved.state + ", completed " + saved.completed
+                + ", queue " + saved.queue + ", current " + saved.currentMac);
+        completed.addAll(saved.completed);
+        queue.clear();
+        queue.addAll(saved.queue);
+        silentRetryCounts.putAll(saved.retryCounts);
+        dockTimestamps.clear();
+        dockTimestamps.putAll(saved.dockTimestamps);
+        emptyProbeRounds = saved.emptyProbeRounds;
+        for (String mac : saved.dockTimestamps.keySet()) dockModel.markRecorded(mac);
+        for (String mac : saved.completed) dockModel.markRecorded(mac);
+        listener.onStatus("Docking protocol resumed (" + completed.size() + " Shimmer(s) already done).");
+        // The upload may have died with the process; running it again only uploads what's left
+        if (saved.uploadPending) requestSync();
+        if (completed.size() >= DEVICES_PER_NIGHT) {
+            port.log("All Shimmers were already processed tonight. Protocol complete.");
+            finish();
+        } else if (saved.currentMac != null && queue.contains(saved.currentMac) && !completed.contains(saved.currentMac)) {
+            startMonitoring(saved.currentMac);
+        } else if (!queue.isEmpty()) {
+            processQueue();
+        } else {
+            startInitScan();
+        }
+    }
+
+    // Stops everything and forgets the night's progress
+    public void forceStop() {
+        port.log("Force stopping docking protocol and cleaning up all state.");
+        forceStopped = true;
+        port.cancelTransfer();
+        scheduler.cancelAll();
+        port.stopDiscovery();
+        queue.clear();
+        completed.clear();
+        silentRetryCounts.clear();
+        dockTimestamps.clear();
+        probeTargets.clear();
+        presentAt.clear();
+        currentMac = null;
+        syncRequested = false;
+        moveTo(State.IDLE, "force stop");
+        // An explicit stop ends the night; don't resume it on the next start
+        checkpoints.clear();
+        listener.onStatus("Docking protocol forcibly stopped and cleaned up.");
+    }
+
+    // Stops timers and in-flight work but keeps the checkpoint, so the next start() resumes the night
+    public void suspend() {
+        port.log("Suspending docking protocol; the night resumes from its checkpoint on the next start.");
+        port.cancelTransfer();
+        port.cancelDockQuery();
+        port.cancelPresenceProbe();
+        scheduler.cancelAll();
+        port.stopDiscovery();
+        State prev = state;
+        state = State.IDLE;
+        listener.onStateChanged(prev, State.IDLE, currentMac);
+    }
+
+    public void clearForceStop() {
+        forceStopped = false;
+    }
+
+    // External trigger (Bluetooth turned off, transfer failure seen by the service)
+    public void forceSilent() {
+        port.stopDiscovery();
+        enterSilent(SilentBackoff.Reason.FORCED, null);
+    }
+
+    // ---- Events from the port ----
+
+    public void onDeviceFound(String mac) {
+        if (completed.contains(mac)) {
+            port.log("Ignoring already completed Shimmer: " + mac);
+            return;
+        }
+        if (state == State.INIT_SCAN) {
+            if (queue.size() < MAX_QUEUED && queue.add(mac)) {
+                port.log("Found Shimmer: " + mac);
+            }
+        } else if (state == State.MONITORING && mac.equals(currentMac)) {
+            lastSeenAt = clock.now();
+            seenThisScan = true;
+            port.log("Found monitored Shimmer: " + mac);
+        } else if (state == State.TRANSFERRING && !mac.equals(currentMac)
+                && (queue.contains(mac) || queue.size() < MAX_QUEUED)) {
+            if (queue.add(mac)) {
+                silentRetryCounts.put(mac, 0);
+                port.log("Found Shimmer during transfer: " + mac);
+            }
+            presentAt.put(mac, clock.now());
+        }
+    }
+
+    public void onPresence(int probeId, String mac, boolean present) {
+        if (probeId != probeSeq || (state != State.PROBING && state != State.MONITORING)) {
+            port.log("Ignoring stale presence answer for " + mac + " (probe " + probeId + ") in " + state);
+            return;
+        }
+        probeSeq++; // retire the probe's timeout
+        if (present) known.onPresent(mac, clock.now());
+        if (state == State.MONITORING) {
+            if (present && mac.equals(currentMac)) {
+                lastSeenAt = clock.now();
+                seenThisScan = true;
+                port.log("Monitored Shimmer answered presence probe: " + mac);
+            }
+            return;
+        }
+        if (present && queue.add(mac)) {
+            port.log("Known Shimmer present: " + mac);
+            presentAt.put(mac, clock.now());
+        }
+        probeNext();
+    }
+
+    public void onDockState(int queryId, String mac, DockResult result) {
+        if (queryId != querySeq || !mac.equals(currentMac)
+                || (state != State.DOCK_QUERY && state != State.WAITING_TO_TRANSFER)) {
+            port.log("Ignoring stale dock state for " + mac + " (query " + queryId + ") in " + state);
+            return;
+        }
+        if (state == State.WAITING_TO_TRANSFER) {
+            onReadyProbe(result);
+            return;
+        }
+        if (result.status < 0) {
+            bluetoothOffSilent("dock query response");
+        } else if (result.connectFailed) {
+            port.log("Could not reach Shimmer " + mac + " for the dock query");
+            enterSilent(SilentBackoff.Reason.CONNECT_FAILED, null);
+        } else if (result.status == 0) {
+            port.log("Shimmer is undocked: " + mac);
+            listener.onUndocked();
+            enterSilent(SilentBackoff.Reason.UNDOCKED, null);
+        } else {
+            backoff.onDocked(mac);
+            dockModel.onDocked(mac, clock.now());
+            int androidRtc = (int) (clock.now() / 1000L);
+            dockTimestamps.put(mac, new DockingTimestampModel(result.shimmerRtc, androidRtc));
+            port.log("[Docking] Stored timestamp for " + mac + ": shimmerRtc64=" + result.shimmerRtc + ", androidRtc32=" + androidRtc);
+            listener.onDocked();
+            listener.onFileTransferStart();
+            moveTo(State.WAITING_TO_TRANSFER, "docked");
+            readyDeadline = clock.now() + config.waitBeforeTransferMs;
+            port.log("Probing readiness every " + config.readyProbeIntervalMs + "ms (at most "
+                    + config.waitBeforeTransferMs + "ms) before starting file transfer...");
+            scheduler.schedule(config.readyProbeIntervalMs, this::probeReady);
+        }
+    }
+
+    public void onTransferDone(String mac) {
+        if (state != State.TRANSFERRING) return;
+        port.log("Transfer success for " + currentMac + "; removing from queue and starting sync.");
+        queue.remove(currentMac);
+        completed.add(currentMac);
+        silentRetryCounts.remove(currentMac);
+        backoff.onTransferDone(currentMac);
+        known.onTransferDone(currentMac, clock.now());
+        currentMac = null;
+        requestSync();
+        // Don't wait for the upload; the next device's stages run beside it
+        processQueue();
+    }
+
+    public void onSyncDone(boolean success) {
+        syncRunning = false;
+        port.log("Upload " + (success ? "finished" : "failed") + (syncRequested ? "; starting the queued one." : "."));
+        if (syncRequested) {
+            syncRequested = false;
+            requestSync();
+        }
+    }
+
+    public void onTransferFailed(String reason) {
+        if (state != State.TRANSFERRING) return;
+        port.log("Transfer failed for " + currentMac + " (" + reason + "); keeping it in the queue.");
+        enterSilent(SilentBackoff.Reason.fromTransferFailure(reason), reason);
+    }
+
+    // ---- States ----
+
+    private void startInitScan() {
+        queue.clear();
+        dockTimestamps.clear();
+        presentAt.clear();
+        List<String> candidates = known.candidates(completed, clock.now());
+        // Probing only pays off when the registry covers every device still missing tonight
+        if (!candidates.isEmpty() && candidates.size() >= DEVICES_PER_NIGHT - completed.size()
+                && emptyProbeRounds < config.probeRoundsPerDiscovery) {
+            startProbeRound(candidates);
+            return;
+        }
+        emptyProbeRounds = 0;
+        moveTo(State.INIT_SCAN, candidates.isEmpty() ? null : "enrollment scan");
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("init scan start");
+            return;
+        }
+        if (!port.hasScanPermission()) {
+            port.log("Missing BLUETOOTH_SCAN permission");
+            enterSilent(SilentBackoff.Reason.NO_PERMISSION, null);
+            return;
+        }
+        port.startDiscovery();
+        scheduler.schedule(config.scanDurationMs, this::onInitScanEnd);
+    }
+
+    private void onInitScanEnd() {
+        port.stopDiscovery();
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("init scan end");
+            return;
+        }
+        if (queue.isEmpty()) {
+            listener.onUndocked();
+            enterSilent(SilentBackoff.Reason.NOTHING_FOUND, null);
+            return;
+        }
+        for (String mac : queue) silentRetryCounts.put(mac, 0);
+        processQueue();
+    }
+
+    private void startProbeRound(List<String> candidates) {
+        moveTo(State.PROBING, candidates.size() + " known device(s)");
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("probe round start");
+            return;
+        }
+        probeTargets.clear();
+        probeTargets.addAll(candidates);
+        probeNext();
+    }
+
+    // One probe at a time: classic connects are serialized by the controller anyway
+    private void probeNext() {
+        if (state != State.PROBING) return;
+        String mac = queue.size() < MAX_QUEUED ? probeTargets.poll() : null;
+        if (mac == null) {
+            onProbeRoundEnd();
+            return;
+        }
+        startPresenceProbe(mac, config.presenceProbeTimeoutMs);
+    }
+
+    private void startPresenceProbe(String mac, long timeoutMs) {
+        final int probeId = ++probeSeq;
+        port.probePresence(probeId, mac);
+        scheduler.schedule(timeoutMs, () -> onPresenceTimeout(probeId, mac));
+    }
+
+    private void onPresenceTimeout(int probeId, String mac) {
+        if (probeId != probeSeq) return;
+        port.log("Presence probe for " + mac + " timed out");
+        port.cancelPresenceProbe();
+        onPresence(probeId, mac, false);
+    }
+
+    private void onProbeRoundEnd() {
+        probeTargets.clear();
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("probe round end");
+            return;
+        }
+        if (queue.isEmpty()) {
+            emptyProbeRounds++;
+            listener.onUndocked();
+            enterSilent(SilentBackoff.Reason.NOTHING_FOUND, "no known Shimmer answered");
+            return;
+        }
+        emptyProbeRounds = 0;
+        for (String mac : queue) silentRetryCounts.put(mac, 0);
+        processQueue();
+    }
+
+    // Next device that still needs a transfer, or finish/wait when there is none
+    private void processQueue() {
+        Iterator<String> it = queue.iterator();
+        while (it.hasNext()) {
+            String mac = it.next();
+            if (!completed.contains(mac)) {
+                port.log("Round robin: processing Shimmer " + mac);
+                startMonitoring(mac);
+                return;
+            }
+            port.log("Skipping already completed Shimmer in queue: " + mac);
+            it.remove();
+        }
+        if (completed.size() < DEVICES_PER_NIGHT) {
+            port.log("Queue empty but only " + completed.size() + " Shimmer(s) completed; waiting for next device.");
+            enterSilent(SilentBackoff.Reason.WAITING_FOR_DEVICES, null);
+        } else {
+            port.log("All Shimmers processed (" + completed.size() + "). Protocol complete.");
+            finish();
+        }
+    }
+
+    private void startMonitoring(String mac) {
+        currentMac = mac;
+        monitoringStartedAt = clock.now();
+        lastSeenAt = monitoringStartedAt;
+        Long seenAt = presentAt.remove(mac);
+        if (seenAt != null && monitoringStartedAt - seenAt <= config.scanPeriodMs) {
+            // Just reached or seen, which is all the monitoring scans would find out
+            startDockQuery("seen moments ago");
+            return;
+        }
+        if (dockModel.likelyDocked(mac, monitoringStartedAt)) {
+            // Usually on the dock by now: the query answers faster than a minute of scans
+            startDockQuery("usually docked by now");
+            return;
+        }
+        moveTo(State.MONITORING, null);
+        runMonitoringScan();
+    }
+
+    private void runMonitoringScan() {
+        if (state != State.MONITORING) return;
+        if (clock.now() - monitoringStartedAt >= config.monitoringPhaseDurationMs) {
+            startDockQuery("monitoring phase over");
+            return;
+        }
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("periodic scan start");
+            return;
+        }
+        seenThisScan = false;
+        if (known.isKnown(currentMac, clock.now())) {
+            // A direct connect answers in a second or two where an inquiry takes ~12 s
+            startPresenceProbe(currentMac, Math.min(config.presenceProbeTimeoutMs, config.scanPeriodMs));
+        } else {
+            if (!port.hasScanPermission()) {
+                port.log("Missing BLUETOOTH_SCAN permission");
+                enterSilent(SilentBackoff.Reason.NO_PERMISSION, null);
+                return;
+            }
+            port.startDiscovery();
+        }
+        scheduler.schedule(config.scanPeriodMs, this::onMonitoringScanEnd);
+    }
+
+    private void startDockQuery(String why) {
+        moveTo(State.DOCK_QUERY, why);
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("dock query start");
+            return;
+        }
+        final int queryId = ++querySeq;
+        port.queryDockState(queryId, currentMac);
+        scheduler.schedule(config.dockQueryTimeoutMs, () -> onDockQueryTimeout(queryId));
+    }
+
+    private void onDockQueryTimeout(int queryId) {
+        if ((state != State.DOCK_QUERY && state != State.WAITING_TO_TRANSFER) || queryId != querySeq) return;
+        port.log("Dock query for " + currentMac + " timed out after " + config.dockQueryTimeoutMs + " ms");
+        port.cancelDockQuery();
+        onDockState(queryId, currentMac, new DockResult(0, 0L, true));
+    }
+
+    // The firmware has no "ready" command; a fresh docked answer over RFCOMM is the readiness signal
+    private void probeReady() {
+        if (state != State.WAITING_TO_TRANSFER) return;
+        if (clock.now() >= readyDeadline) {
+            port.log("No readiness signal from " + currentMac + " within " + config.waitBeforeTransferMs + "ms; transferring anyway.");
+            startTransfer();
+            return;
+        }
+        final int queryId = ++querySeq;
+        port.queryDockState(queryId, currentMac);
+        long timeout = Math.min(config.dockQueryTimeoutMs, Math.max(0L, readyDeadline - clock.now()));
+        scheduler.schedule(timeout, () -> onDockQueryTimeout(queryId));
+    }
+
+    private void onReadyProbe(DockResult result) {
+        querySeq++; // retire the probe's timeout
+        if (result.status == 1 && !result.connectFailed) {
+            port.log("Shimmer " + currentMac + " ready; starting file transfer.");
+            startTransfer();
+        } else if (clock.now() >= readyDeadline) {
+            probeReady();
+        } else {
+            scheduler.schedule(Math.min(config.readyProbeIntervalMs, readyDeadline - clock.now()), this::probeReady);
+        }
+    }
+
+    private void onMonitoringScanEnd() {
+        if (state != State.MONITORING) return;
+        port.stopDiscovery();
+        if (!port.isBluetoothOn()) {
+            bluetoothOffSilent("periodic scan end");
+            return;
+        }
+        if (!seenThisScan && clock.now() - lastSeenAt > config.undockedTimeoutMs) {
+            listener.onUndocked();
+            enterSilent(SilentBackoff.Reason.NOT_SEEN, "not seen for " + config.undockedTimeoutMs + " ms");
+            return;
+        }
+        runMonitoringScan();
+    }
+
+    private void requestSync() {
+        if (syncRunning) {
+            syncRequested = true;
+            port.log("Upload already running; queued another for the new files.");
+            return;
+        }
+        syncRunning = true;
+        port.startSync();
+    }
+
+    private void startTransfer() {
+        if (state != State.WAITING_TO_TRANSFER) return;
+        moveTo(State.TRANSFERRING, null);
+        port.startTransfer(currentMac, dockTimestamps.get(currentMac));
+        if (completed.size() + 1 < DEVICES_PER_NIGHT && port.startDiscoveryAlongsideTransfer()) {
+            port.log("Scanning for the next Shimmer during the transfer");
+        }
+    }
+
+    private void bluetoothOffSilent(String where) {
+        port.log("Bluetooth OFF (" + where + "). Entering silent state.");
+        enterSilent(SilentBackoff.Reason.BLUETOOTH_OFF, where);
+    }
+
+    private void enterSilent(SilentBackoff.Reason reason, String detail) {
+        if (forceStopped || state == State.SILENT) return;
+        scheduler.cancelAll();
+        long silentMs = backoff.onFailure(currentMac, reason, clock.now());
+        if (reason == SilentBackoff.Reason.NOTHING_FOUND || reason == SilentBackoff.Reason.WAITING_FOR_DEVICES) {
+            long wake = dockModel.nextScanAt(completed, clock.now());
+            if (wake > 0) silentMs = Math.max(silentMs, Math.min(wake - clock.now(), MAX_PREDICTED_SILENT_MS));
+        }
+        silentReason = reason;
+        moveTo(State.SILENT, reason + (detail != null ? ": " + detail : "") + ", " + silentMs + " ms");
+        String duration = formatDuration(silentMs);
+        listener.onStatus(reason == SilentBackoff.Reason.BLUETOOTH_OFF
+                ? "Bluetooth is off. Entering silent state (" + duration + "). Please turn on Bluetooth."
+                : "Entering silent state (" + duration + ")...");
+        scheduler.schedule(silentMs, this::onSilentEnd);
+    }
+
+    private static String formatDuration(long ms) {
+        return ms < 2 * 60 * 1000L ? (ms / 1000) + " s" : (ms / 60000) + " min";
+    }
+
+    private void onSilentEnd() {
+        if (state != State.SILENT) return;
+        if (currentMac != null) {
+            retryOrRotate();
+        } else if (!queue.isEmpty()) {
+            processQueue();
+        } else if (isNightWindow()) {
+            // Keep looking for devices all night until enough have been transferred
+            port.log("No Shimmers queued; retrying initialization scan after silent state.");
+            startInitScan();
+        } else {
+            port.log("No Shimmers in queue. Protocol complete.");
+            finish();
+        }
+    }
+
+    // Retry the current device as often as the last failure reason allows, then move on to the next in the queue
+    private void retryOrRotate() {
+        int retries = silentRetryCounts.getOrDefault(currentMac, 0);
+        int maxRetries = backoff.retriesBeforeRotate(silentReason);
+        if (retries < maxRetries) {
+            port.log("Retrying " + currentMac + " after silent state (attempt " + (retries + 1) + "/" + maxRetries + ", " + silentReason + ")");
+            silentRetryCounts.put(currentMac, retries + 1);
+            startMonitoring(currentMac);
+            return;
+        }
+        port.log("Max silent retries reached for " + currentMac + ". Moving to next Shimmer but keeping it queued.");
+        silentRetryCounts.put(currentMac, 0);
+        String next = nextAfter(currentMac);
+        currentMac = null;
+        if (next == null) {
+            port.log("No Shimmers in queue. Protocol complete.");
+            finish();
+            return;
+        }
+        silentRetryCounts.put(next, 0);
+        startMonitoring(next);
+    }
+
+    private String nextAfter(String mac) {
+        List<String> order = new ArrayList<>(queue);
+        if (order.isEmpty()) return null;
+        int i = order.indexOf(mac);
+        return order.get((i + 1) % order.size());
+    }
+
+    private void finish() {
+        // Nobody will be around for onSyncDone, so start a queued upload now; SyncService
+        // waits for the running one before it begins
+        if (syncRequested) {
+            syncRequested = false;
+            port.startSync();
+        }
+        scheduler.cancelAll();
+        currentMac = null;
+        moveTo(State.IDLE, "done");
+        listener.onFinished();
+    }
+
+    private void moveTo(State next, String why) {
+        State prev = state;
+        state = next;
+        // Leaving a querying state any other way than by its answer (silent, stop) abandons the query
+        if ((prev == State.DOCK_QUERY || prev == State.WAITING_TO_TRANSFER) && next != prev) port.cancelDockQuery();
+        if ((prev == State.PROBING || prev == State.MONITORING) && next != prev) port.cancelPresenceProbe();
+        if (prev == State.TRANSFERRING && next != prev) port.stopDiscovery();
+        port.log("State " + prev + " -> " + next + (currentMac != null ? " [" + currentMac + "]" : "")
+                + (why != null ? " (" + why + ")" : ""));
+        // Once finished, a running upload is SyncService's business alone
+        checkpoints.save(new DockingCheckpoint(nightStart, next, currentMac, new ArrayList<>(queue),
+                new ArrayList<>(completed), silentRetryCounts, dockTimestamps, emptyProbeRounds,
+                next != State.IDLE && (syncRunning || syncRequested)));
+        listener.onStateChanged(prev, next, currentMac);
+    }
+
+    boolean isNightWindow() {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(clock.now());
+        int nowTotal = cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
+        int startTotal = config.nightStartHour * 60 + config.nightStartMinute;
+        int endTotal = config.nightEndHour * 60 + config.nightEndMinute;
+        if (startTotal == endTotal) return false; // zero-length
+        if (startTotal < endTotal) {
+            return nowTotal >= startTotal && nowTotal < endTotal;
+        } else { // wraps midnight
+            return nowTotal >= startTotal || nowTotal < endTotal;
+        }
+    }
+}
@@ -48,10 +48,6 @@ public class DockingService extends Service implements DockingManager.DockingCal
     // New: Action for forced protocol stop (from DockingEndReceiver)
     public static final String ACTION_FORCE_STOP = "com.example.myapplication.FORCE_STOP_DOCKING";
 
-    // Broadcasts
-    public static final String ACTION_TRANSFER_DONE = "com.example.myapplication.TRANSFER_DONE";
-    public static final String ACTION_TRANSFER_FAILED = "com.example.myapplication.TRANSFER_FAILED";
-
     // Retry
     private static final long RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
     private long firstFailureAtMs = 0L;
@@ -73,40 +69,26 @@ public class DockingService extends Service implements DockingManager.DockingCal
         }
     };
 
-    private final BroadcastReceiver transferDoneReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            // On transfer success, broadcast sync start for UI
-            Intent syncStart = new Intent("com.example.myapplication.ACTION_SYNC_START");
-            syncStart.setPackage(getPackageName());
-            sendBroadcast(syncStart);
-            updateNotification("File transfer completed. Syncing files...");
-            cancelRetry();
-            // When sync is done, broadcast sync done for UI
-            Intent syncDone = new Intent("com.example.myapplication.ACTION_SYNC_DONE");
-            syncDone.setPackage(getPackageName());
-            sendBroadcast(syncDone);
-            stopSelf();
-        }
+    private final EventBus.Subscriber<String> transferDoneSubscriber = mac -> {
+        // SyncService reports the upload itself (SYNC_RUNNING / SYNC_DONE)
+        updateNotification("File transfer completed. Syncing files...");
+        cancelRetry();
+        // The protocol may still have another Shimmer queued; onProtocolFinished() stops the service
     };
 
-    private final BroadcastReceiver transferFailedReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String reason = intent.getStringExtra("reason");
-            Log.w("DockingService", "Transfer failed. Reason=" + reason);
-            updateNotification("Transfer failed" + (reason != null ? " (" + reason + ")" : "") + ". Entering silent state...");
-            sendDockingStatus("Transfer failed. Entering silent state...");
-            // Do not schedule a retry here; let DockingManager manage silent and restart
-            if (dockingManager != null) dockingManager.forceSilentState();
-        }
+    private final EventBus.Subscriber<String> transferFailedSubscriber = reason -> {
+        Log.w("DockingService", "Transfer failed. Reason=" + reason);
+        updateNotification("Transfer failed (" + reason + "). Entering silent state...");
+        sendDockingStatus("Transfer failed. Entering silent state...");
+        // DockingManager sees the same event and picks the silent duration from the reason;
+        // forcing silent here would race it and lose the reason
     };
 
+    private EventBus.Subscription transferDoneSub;
+    private EventBus.Subscription transferFailedSub;
+
     private void sendDockingStatus(String status) {
-        Intent i = new Intent("com.example.myapplication.DOCKING_STATUS");
-        i.setPackage(getPackageName());
-        i.putExtra("status", status);
-        sendBroadcast(i);
+        if (status != null) EventBus.get().post(AppEvents.DOCKING_STATUS, status);
     }
 
     private final BroadcastReceiver btStateReceiver = new BroadcastReceiver() {
@@ -138,15 +120,15 @@ public class DockingService extends Service implements DockingManager.DockingCal
         int endMinute = prefs.getInt("night_end_minute", 0);
 
         dockingManager = new DockingManager(this, this);
-        dockingManager.nightStartHour = startHour;
-        dockingManager.nightStartMinute = startMinute;
-        dockingManager.nightEndHour = endHour;
-        dockingManager.nightEndMinute = endMinute;
+        dockingManager.config.nightStartHour = startHour;
+        dockingManager.config.nightStartMinute = startMinute;
+        dockingManager.config.nightEndHour = endHour;
+        dockingManager.config.nightEndMinute = endMinute;
 
         handler.post(() -> dockingManager.startNightDockingFlow());
         // Receivers: removed connectivityReceiver; docking is Bluetooth-only
-        registerReceiver(transferDoneReceiver, new IntentFilter(ACTION_TRANSFER_DONE), Context.RECEIVER_NOT_EXPORTED);
-        registerReceiver(transferFailedReceiver, new IntentFilter(ACTION_TRANSFER_FAILED), Context.RECEIVER_NOT_EXPORTED);
+        transferDoneSub = EventBus.get().subscribe(AppEvents.TRANSFER_DONE, transferDoneSubscriber);
+        transferFailedSub = EventBus.get().subscribe(AppEvents.TRANSFER_FAILED, transferFailedSubscriber);
         registerReceiver(btStateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED), Context.RECEIVER_NOT_EXPORTED);
         // Register receiver for forced protocol stop
         registerReceiver(forceStopReceiver, new IntentFilter(ACTION_FORCE_STOP), Context.RECEIVER_NOT_EXPORTED);
@@ -157,7 +139,7 @@ public class DockingService extends Service implements DockingManager.DockingCal
             // Reset forceStopped flag to allow protocol restart
             if (dockingManager != null) {
                 Log.d("Docking","Resetting Flag");
-                dockingManager.forceStopped = false;
+                dockingManager.clearForceStop();
             }
         return START_STICKY;
     }
@@ -167,10 +149,11 @@ public class DockingService extends Service implements DockingManager.DockingCal
         super.onDestroy();
         handler.removeCallbacksAndMessages(null);
         cancelRetry();
-        try { unregisterReceiver(transferDoneReceiver); } catch (Exception ignored) {}
-        try { unregisterReceiver(transferFailedReceiver); } catch (Exception ignored) {}
+        if (transferDoneSub != null) transferDoneSub.unsubscribe();
+        if (transferFailedSub != null) transferFailedSub.unsubscribe();
         try { unregisterReceiver(btStateReceiver); } catch (Exception ignored) {}
         try { unregisterReceiver(forceStopReceiver); } catch (Exception ignored) {}
+        if (dockingManager != null) dockingManager.release();
         // connectivityReceiver registration removed; no unregister
 
         // Restart ScanningService
@@ -257,12 +240,13 @@ public class DockingService extends Service implements DockingManager.DockingCal
         updateNotification(msg);
         sendDockingStatus(msg);
         // Notify UI that transfer started
-        try {
-            Intent i = new Intent("com.example.myapplication.ACTION_TRANSFER_START");
-            i.setPackage(getPackageName());
-            if (mac != null) i.putExtra("mac", mac);
-            sendBroadcast(i);
-        } catch (Exception ignored) {}
+        EventBus.get().post(AppEvents.TRANSFER_STARTED, mac != null ? mac : "");
+    }
+
+    @Override
+    public void onProtocolFinished() {
+        updateNotification("Docking protocol complete.");
+        stopSelf();
     }
 
     private void updateNotification(String text) {
@@ -285,8 +269,8 @@ public class DockingService extends Service implements DockingManager.DockingCal
 
     private boolean isWithinDockingWindow() {
         int now = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
-        int start = dockingManager.nightStartHour;
-        int end = dockingManager.nightEndHour;
+        int start = dockingManager.config.nightStartHour;
+        int end = dockingManager.config.nightEndHour;
         if (start == end) return false;
         if (start < end) return now >= start && now < end;
         return now >= start || now < end;
@@ -294,7 +278,7 @@ public class DockingService extends Service implements DockingManager.DockingCal
 
     private long millisUntilWindowOpens() {
         Calendar cal = Calendar.getInstance();
-        int start = dockingManager.nightStartHour;
+        int start = dockingManager.config.nightStartHour;
 
         Calendar next = (Calendar) cal.clone();
         next.set(Calendar.MINUTE, 0);
@@ -0,0 +1,173 @@
+package com.example.myapplication;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * In-process replacement for the app's own broadcasts (progress, status, completion). A
+ * sendBroadcast is an IPC round trip through system_server even when the sender and receiver
+ * share a process; here a post is a map write plus a Handler message.
+ *
+ * Events are typed by {@link Topic}. Every subscriber is called on the main thread, in post order.
+ * A topic is one of two kinds:
+ *   - {@link Topic#event}: every post is delivered once and nothing is retained (done/failed/errors);
+ *   - {@link Topic#state}: only the latest value matters. Posts arriving faster than the main
+ *     thread drains them are coalesced into one delivery of the newest value, and that value is
+ *     kept, so a late subscriber receives it as soon as it subscribes.
+ */
+public final class EventBus {
+    private static final String TAG = "EventBus";
+
+    public interface Subscriber<T> {
+        void onEvent(T value);
+    }
+
+    public static final class Topic<T> {
+        final String name;
+        final boolean state;
+
+        private Topic(String name, boolean state) {
+            this.name = name;
+            this.state = state;
+        }
+
+        public static <T> Topic<T> event(String name) {
+            return new Topic<>(name, false);
+        }
+
+        public static <T> Topic<T> state(String name) {
+            return new Topic<>(name, true);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static final class Subscription {
+        private final EventBus bus;
+        private final Topic<?> topic;
+        private final Subscriber<?> subscriber;
+        private volatile boolean active = true;
+
+        private Subscription(EventBus bus, Topic<?> topic, Subscriber<?> subscriber) {
+            this.bus = bus;
+            this.topic = topic;
+            this.subscriber = subscriber;
+        }
+
+        public void unsubscribe() {
+            if (!active) return;
+            active = false;
+            List<Subscription> subs = bus.subscribers.get(topic);
+            if (subs != null) subs.remove(this);
+        }
+    }
+
+    private final Executor main;
+    private final BooleanSupplier onMainThread;
+    private final Map<Topic<?>, CopyOnWriteArrayList<Subscription>> subscribers = new ConcurrentHashMap<>();
+    private final Map<Topic<?>, Object> sticky = new ConcurrentHashMap<>();
+    // State topics with a delivery already queued; the newest value replaces the queued one
+    private final Map<Topic<?>, Object> pending = new HashMap<>();
+
+    // Created on first get(), so tests that build their own bus never touch the main looper
+    private static final class Holder {
+        static final EventBus INSTANCE = new EventBus();
+    }
+
+    private EventBus() {
+        Handler handler = new Handler(Looper.getMainLooper());
+        this.main = handler::post;
+        this.onMainThread = () -> Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    // Tests run the "main thread" queue by hand
+    EventBus(Executor main, BooleanSupplier onMainThread) {
+        this.main = main;
+        this.onMainThread = onMainThread;
+    }
+
+    public static EventBus get() {
+        return Holder.INSTANCE;
+    }
+
+    // Safe from any thread; value must not be null
+    public <T> void post(Topic<T> topic, T value) {
+        if (value == null) throw new IllegalArgumentException("null value posted to " + topic);
+        if (!topic.state) {
+            main.execute(() -> dispatch(topic, value));
+            return;
+        }
+        sticky.put(topic, value);
+        synchronized (pending) {
+            boolean queued = pending.containsKey(topic);
+            pending.put(topic, value);
+            if (queued) return;
+        }
+        main.execute(() -> {
+            Object latest;
+            synchronized (pending) {
+                latest = pending.remove(topic);
+            }
+            if (latest != null) dispatch(topic, latest);
+        });
+    }
+
+    /**
+     * Subscribes on the main thread. For a state topic the current value, if any, is delivered
+     * right away (synchronously when called on the main thread).
+     */
+    public <T> Subscription subscribe(Topic<T> topic, Subscriber<T> subscriber) {
+        Subscription sub = new Subscription(this, topic, subscriber);
+        subscribers.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(sub);
+        if (topic.state) {
+            Runnable replay = () -> {
+                Object current = sticky.get(topic);
+                if (current != null) deliver(sub, current);
+            };
+            if (onMainThread.getAsBoolean()) replay.run();
+            else main.execute(replay);
+        }
+        return sub;
+    }
+
+    // Latest value of a state topic, or null
+    @SuppressWarnings("unchecked")
+    public <T> T peek(Topic<T> topic) {
+        return (T) sticky.get(topic);
+    }
+
+    // Forget the retained value (e.g. a finished transfer) so new subscribers don't replay it
+    public void clear(Topic<?> topic) {
+        sticky.remove(topic);
+    }
+
+    private void dispatch(Topic<?> topic, Object value) {
+        List<Subscription> subs = subscribers.get(topic);
+        if (subs == null) return;
+        for (Subscription sub : subs) {
+            deliver(sub, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void deliver(Subscription sub, Object value) {
+        if (!sub.active) return;
+        try {
+            ((Subscriber<Object>) sub.subscriber).onEvent(value);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Subscriber of " + sub.topic + " threw: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.myapplication;
+
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * BLE first, classic inquiry as the fallback for Shimmers that don't advertise over BLE: when the
+ * BLE scan reports nothing within BLE_GRACE_MS, the inquiry starts as well. Alongside a transfer
+ * only the BLE scan runs. This is the default backend.
+ */
+public class FallbackDiscoveryBackend implements DiscoveryBackend {
+    private static final String TAG = "FallbackDiscovery";
+    // A balanced BLE scan sees an advertiser within a couple of its 5 s scan periods
+    private static final long BLE_GRACE_MS = 10 * 1000;
+
+    private final DiscoveryBackend ble;
+    private final DiscoveryBackend classic;
+    private final Handler handler;
+    private Listener listener;
+    private boolean bleFound;
+    private boolean classicStarted;
+
+    public FallbackDiscoveryBackend(DiscoveryBackend ble, DiscoveryBackend classic, Handler handler) {
+        this.ble = ble;
+        this.classic = classic;
+        this.handler = handler;
+    }
+
+    private final Runnable fallback = () -> {
+        if (listener == null || bleFound) return;
+        Log.d(TAG, "Nothing over BLE after " + BLE_GRACE_MS + " ms; starting classic inquiry");
+        classicStarted = classic.start(false, listener);
+    };
+
+    @Override
+    public String name() {
+        return AUTO;
+    }
+
+    @Override
+    public boolean usesInquiry() {
+        return false;
+    }
+
+    @Override
+    public boolean start(boolean alongsideTransfer, Listener listener) {
+        stop();
+        this.listener = listener;
+        bleFound = false;
+        boolean bleStarted = ble.start(alongsideTransfer, (mac, name) -> {
+            bleFound = true;
+            listener.onShimmerFound(mac, name);
+        });
+        if (alongsideTransfer) {
+            if (!bleStarted) this.listener = null;
+            return bleStarted;
+        }
+        if (!bleStarted) {
+            classicStarted = classic.start(false, listener);
+            return classicStarted;
+        }
+        handler.postDelayed(fallback, BLE_GRACE_MS);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        handler.removeCallbacks(fallback);
+        listener = null;
+        ble.stop();
+        if (classicStarted) classic.stop();
+        classicStarted = false;
+    }
+}
@@ -1,28 +1,167 @@
 package com.example.myapplication;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.io.File;
+
 public class FileMetaDatabaseHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "filemeta.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 11;
+
+    private static FileMetaDatabaseHelper instance;
 
-    public FileMetaDatabaseHelper(Context context) {
+    // One helper per process; go through FileMetaRepository rather than opening the DB directly
+    static synchronized FileMetaDatabaseHelper getInstance(Context context) {
+        if (instance == null) instance = new FileMetaDatabaseHelper(context.getApplicationContext());
+        return instance;
+    }
+
+    private FileMetaDatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Transfers, the upload engine and the UI all hit this DB; WAL lets readers run alongside the writer
+        db.enableWriteAheadLogging();
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL("CREATE TABLE IF NOT EXISTS files (" +
+        createFilesTable(db, "files");
+        addTransferMetadataColumns(db);
+        addEvictionColumn(db);
+        createFilesIndexes(db);
+        UploadJobQueue.createTable(db);
+        SyncPlanner.createTables(db);
+        DeviceBackoffStore.createTable(db);
+        DockHistoryStore.createTable(db);
+        KnownDeviceStore.createTable(db);
+    }
+
+    private static void createFilesTable(SQLiteDatabase db, String name) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + name + " (" +
                 "ID INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "TIMESTAMP TEXT, " +
-                "FILE_PATH TEXT, " +
-                "SYNCED INTEGER DEFAULT 0)");
+                "RECEIVED_AT INTEGER NOT NULL DEFAULT 0, " +
+                "FILE_PATH TEXT NOT NULL, " +
+                "SYNCED INTEGER NOT NULL DEFAULT 0, " +
+                "CODEC TEXT, " +
+                "COMPRESSED_SIZE INTEGER, " +
+                "CONTENT_SHA256 TEXT, " +
+                "CONTENT_SIZE INTEGER, " +
+                "DUPLICATE_OF INTEGER)");
+    }
+
+    // v7 columns, filled in from TRANSFER_START_PACKET and the docking session at receive time
+    private static void addTransferMetadataColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE files ADD COLUMN ORIGINAL_NAME TEXT");
+        db.execSQL("ALTER TABLE files ADD COLUMN FILE_SIZE INTEGER");
+        db.execSQL("ALTER TABLE files ADD COLUMN CHUNK_SIZE INTEGER");
+        db.execSQL("ALTER TABLE files ADD COLUMN CHUNK_COUNT INTEGER");
+        db.execSQL("ALTER TABLE files ADD COLUMN PROTOCOL_VERSION INTEGER");
+        db.execSQL("ALTER TABLE files ADD COLUMN SOURCE_MAC TEXT");
+        db.execSQL("ALTER TABLE files ADD COLUMN SHIMMER_ID TEXT");
+        db.execSQL("ALTER TABLE files ADD COLUMN EXPERIMENT TEXT");
+        db.execSQL("ALTER TABLE files ADD COLUMN SHIMMER_RTC INTEGER");
+        db.execSQL("ALTER TABLE files ADD COLUMN ANDROID_RTC INTEGER");
+        db.execSQL("ALTER TABLE files ADD COLUMN TRANSFER_MS INTEGER");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_files_source ON files(SOURCE_MAC, RECEIVED_AT)");
+    }
+
+    // v8: set when StorageQuotaManager deletes the local copy of an uploaded file
+    private static void addEvictionColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE files ADD COLUMN EVICTED_AT INTEGER");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_files_evictable ON files(RECEIVED_AT) WHERE SYNCED=1 AND EVICTED_AT IS NULL");
+    }
+
+    private static void createFilesIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS idx_files_path ON files(FILE_PATH)");
+        // Partial index: the unsynced set stays small even after months of nightly files
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_files_unsynced ON files(ID) WHERE SYNCED=0");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_files_content ON files(CONTENT_SHA256, CONTENT_SIZE)");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Handle schema upgrades if needed
+        if (oldVersion < 2) {
+            // v2: persistent upload queue; seed it with everything that was still unsynced
+            UploadJobQueue.createTable(db);
+            db.execSQL("INSERT OR IGNORE INTO " + UploadJobQueue.TABLE + " (FILE_PATH, CREATED_AT) " +
+                    "SELECT FILE_PATH, " + System.currentTimeMillis() + " FROM files WHERE SYNCED=0");
+        }
+        if (oldVersion < 3) {
+            // v3: content-encoding used for the upload and the size actually sent
+            db.execSQL("ALTER TABLE files ADD COLUMN CODEC TEXT");
+            db.execSQL("ALTER TABLE files ADD COLUMN COMPRESSED_SIZE INTEGER");
+        }
+        if (oldVersion < 4) {
+            // v4: content identity (SHA-256 + size of the received payload) for dedupe
+            db.execSQL("ALTER TABLE files ADD COLUMN CONTENT_SHA256 TEXT");
+            db.execSQL("ALTER TABLE files ADD COLUMN CONTENT_SIZE INTEGER");
+            db.execSQL("ALTER TABLE files ADD COLUMN DUPLICATE_OF INTEGER");
+            db.execSQL("CREATE INDEX IF NOT EXISTS idx_files_content ON files(CONTENT_SHA256, CONTENT_SIZE)");
+        }
+        if (oldVersion < 5) {
+            // v5: cached server manifest + reconciliation watermark for incremental sync planning
+            SyncPlanner.createTables(db);
+        }
+        if (oldVersion < 6) {
+            // v6: rebuild files with RECEIVED_AT epoch millis instead of the yyyyMMdd_HHmmss TIMESTAMP
+            // text, one row per FILE_PATH (keeping the newest, synced if any copy was), then index it
+            // (onUpgrade already runs inside a transaction)
+            createFilesTable(db, "files_v6");
+            db.execSQL("INSERT INTO files_v6 (ID, RECEIVED_AT, FILE_PATH, SYNCED, CODEC, COMPRESSED_SIZE, " +
+                    "CONTENT_SHA256, CONTENT_SIZE, DUPLICATE_OF) " +
+                    "SELECT f.ID, " +
+                    "COALESCE(CAST(strftime('%s', substr(f.TIMESTAMP,1,4)||'-'||substr(f.TIMESTAMP,5,2)||'-'||substr(f.TIMESTAMP,7,2)||' '||" +
+                    "substr(f.TIMESTAMP,10,2)||':'||substr(f.TIMESTAMP,12,2)||':'||substr(f.TIMESTAMP,14,2), 'utc') AS INTEGER) * 1000, 0), " +
+                    "f.FILE_PATH, " +
+                    "(SELECT MAX(COALESCE(s.SYNCED, 0)) FROM files s WHERE s.FILE_PATH = f.FILE_PATH), " +
+                    "f.CODEC, f.COMPRESSED_SIZE, f.CONTENT_SHA256, f.CONTENT_SIZE, f.DUPLICATE_OF " +
+                    "FROM files f WHERE f.FILE_PATH IS NOT NULL " +
+                    "AND f.ID IN (SELECT MAX(ID) FROM files WHERE FILE_PATH IS NOT NULL GROUP BY FILE_PATH)");
+            db.execSQL("DROP TABLE files");
+            db.execSQL("ALTER TABLE files_v6 RENAME TO files");
+            createFilesIndexes(db);
+        }
+        if (oldVersion < 7) {
+            // v7: per-file transfer metadata. Older rows only get experiment/shimmer ID, recovered
+            // once from the <phone>__<time>__<experiment>__<shimmerID>__<name> output filename
+            addTransferMetadataColumns(db);
+            backfillTagsFromFilenames(db);
+        }
+        if (oldVersion < 8) {
+            addEvictionColumn(db);
+        }
+        if (oldVersion < 9) {
+            // v9: per-device silent-state history for the docking protocol's backoff
+            DeviceBackoffStore.createTable(db);
+        }
+        if (oldVersion < 10) {
+            // v10: per-device dock times for the docking protocol's dock-time model
+            DockHistoryStore.createTable(db);
+        }
+        if (oldVersion < 11) {
+            // v11: known Shimmer MACs for the docking protocol's presence probes
+            KnownDeviceStore.createTable(db);
+        }
+    }
+
+    private static void backfillTagsFromFilenames(SQLiteDatabase db) {
+        try (Cursor cursor = db.query("files", new String[]{"ID", "FILE_PATH"}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String[] parts = new File(cursor.getString(1)).getName().split("__");
+                if (parts.length < 5) continue;
+                ContentValues values = new ContentValues();
+                if (!parts[2].isEmpty()) values.put("EXPERIMENT", parts[2]);
+                if (!parts[3].isEmpty()) values.put("SHIMMER_ID", parts[3]);
+                if (values.size() == 0) continue;
+                db.update("files", values, "ID=?", new String[]{String.valueOf(cursor.getLong(0))});
+            }
+        }
     }
-}
\ No newline at end of file
+}
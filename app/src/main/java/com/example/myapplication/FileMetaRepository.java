@@ -0,0 +1,234 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Typed access to the files table over one process-wide connection. The database is opened once
+ * and kept open (SQLite keeps its page cache warm), and the hot statements are compiled once.
+ * Other tables in filemeta.db (upload_jobs, server_manifest) share the same connection via
+ * {@link #db()}.
+ */
+public final class FileMetaRepository {
+    private static final String TAG = "FileMetaRepository";
+
+    private static volatile FileMetaRepository instance;
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insertReceivedStmt;
+    private final SQLiteStatement markSyncedStmt;
+    private final SQLiteStatement deleteByPathStmt;
+    private final SQLiteStatement findByContentStmt;
+    private final SQLiteStatement uploadEncodingStmt;
+
+    private FileMetaRepository(Context ctx) {
+        db = FileMetaDatabaseHelper.getInstance(ctx).getWritableDatabase();
+        insertReceivedStmt = db.compileStatement(
+                "INSERT OR REPLACE INTO files (RECEIVED_AT, FILE_PATH, SYNCED, CONTENT_SHA256, CONTENT_SIZE, DUPLICATE_OF, " +
+                "ORIGINAL_NAME, FILE_SIZE, CHUNK_SIZE, CHUNK_COUNT, PROTOCOL_VERSION, SOURCE_MAC, SHIMMER_ID, EXPERIMENT, " +
+                "SHIMMER_RTC, ANDROID_RTC, TRANSFER_MS) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        markSyncedStmt = db.compileStatement("UPDATE files SET SYNCED=1 WHERE FILE_PATH=?");
+        deleteByPathStmt = db.compileStatement("DELETE FROM files WHERE FILE_PATH=?");
+        findByContentStmt = db.compileStatement(
+                "SELECT ID FROM files WHERE CONTENT_SHA256=? AND CONTENT_SIZE=? AND FILE_PATH<>? ORDER BY ID ASC LIMIT 1");
+        uploadEncodingStmt = db.compileStatement("UPDATE files SET CODEC=?, COMPRESSED_SIZE=? WHERE FILE_PATH=?");
+    }
+
+    public static FileMetaRepository get(Context ctx) {
+        if (instance == null) {
+            synchronized (FileMetaRepository.class) {
+                if (instance == null) instance = new FileMetaRepository(ctx.getApplicationContext());
+            }
+        }
+        return instance;
+    }
+
+    // Shared connection for the other tables in filemeta.db; never close it
+    SQLiteDatabase db() {
+        return db;
+    }
+
+    /**
+     * Records a received file with its transfer metadata. {@code r.duplicateOf > 0} stores it as
+     * already synced (the same content was received before). FILE_PATH is unique, so a re-received
+     * path replaces its row. Returns the new row ID.
+     */
+    public synchronized long insertReceived(FileRecord r) {
+        SQLiteStatement st = insertReceivedStmt;
+        st.clearBindings();
+        st.bindLong(1, r.receivedAt);
+        st.bindString(2, r.filePath);
+        st.bindLong(3, r.duplicateOf > 0 ? 1 : 0);
+        bindNullable(st, 4, r.contentSha256);
+        st.bindLong(5, r.contentSize);
+        if (r.duplicateOf > 0) st.bindLong(6, r.duplicateOf); else st.bindNull(6);
+        bindNullable(st, 7, r.originalName);
+        st.bindLong(8, r.fileSize);
+        st.bindLong(9, r.chunkSize);
+        st.bindLong(10, r.chunkCount);
+        st.bindLong(11, r.protocolVersion);
+        bindNullable(st, 12, r.sourceMac);
+        bindNullable(st, 13, r.shimmerId);
+        bindNullable(st, 14, r.experiment);
+        st.bindLong(15, r.shimmerRtc);
+        st.bindLong(16, r.androidRtc);
+        st.bindLong(17, r.transferMs);
+        r.id = st.executeInsert();
+        r.synced = r.duplicateOf > 0;
+        return r.id;
+    }
+
+    private static void bindNullable(SQLiteStatement st, int index, String value) {
+        if (value != null) st.bindString(index, value); else st.bindNull(index);
+    }
+
+    public FileRecord findByPath(String path) {
+        try (Cursor cursor = db.query("files", FileRecord.COLUMNS, "FILE_PATH=?", new String[]{path},
+                null, null, null)) {
+            return cursor.moveToFirst() ? FileRecord.fromCursor(cursor) : null;
+        }
+    }
+
+    // Most recent files received from one sensor, newest first
+    public List<FileRecord> listBySource(String sourceMac, int limit) {
+        return queryRecords("SOURCE_MAC=?", new String[]{sourceMac}, "RECEIVED_AT DESC", limit);
+    }
+
+    // Unsynced rows with their metadata, oldest first (no on-disk check)
+    public List<FileRecord> listUnsyncedRecords() {
+        return queryRecords("SYNCED=0", null, "ID ASC", 0);
+    }
+
+    // Keyset page of unsynced rows: the next {@code limit} rows with ID > afterId
+    public List<FileRecord> listUnsyncedPage(long afterId, int limit) {
+        return queryRecords("SYNCED=0 AND ID>?", new String[]{String.valueOf(afterId)}, "ID ASC", limit);
+    }
+
+    // Uploaded files still on disk, oldest first: what the storage quota may delete
+    public List<FileRecord> listEvictable(int limit) {
+        return queryRecords("SYNCED=1 AND EVICTED_AT IS NULL", null, "RECEIVED_AT ASC, ID ASC", limit);
+    }
+
+    // Records that the local copies were deleted by the storage quota; rows are kept for history
+    public synchronized void markEvicted(Collection<String> paths, long evictedAt) {
+        if (paths.isEmpty()) return;
+        SQLiteStatement st = db.compileStatement("UPDATE files SET EVICTED_AT=? WHERE FILE_PATH=?");
+        db.beginTransactionNonExclusive();
+        try {
+            for (String path : paths) {
+                st.clearBindings();
+                st.bindLong(1, evictedAt);
+                st.bindString(2, path);
+                st.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            st.close();
+        }
+    }
+
+    private List<FileRecord> queryRecords(String selection, String[] args, String orderBy, int limit) {
+        List<FileRecord> records = new ArrayList<>();
+        try (Cursor cursor = db.query("files", FileRecord.COLUMNS, selection, args, null, null, orderBy,
+                limit > 0 ? String.valueOf(limit) : null)) {
+            while (cursor.moveToNext()) records.add(FileRecord.fromCursor(cursor));
+        }
+        return records;
+    }
+
+    // ID of another file's row with the same content, or -1. The path's own row is skipped:
+    // insertReceived replaces it, so a re-received path must not become a duplicate of itself.
+    public synchronized long findByContent(String sha256, long size, String excludePath) {
+        findByContentStmt.clearBindings();
+        findByContentStmt.bindString(1, sha256);
+        findByContentStmt.bindLong(2, size);
+        findByContentStmt.bindString(3, excludePath);
+        try {
+            return findByContentStmt.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1L;
+        }
+    }
+
+    public synchronized void markSynced(File file) {
+        markSyncedStmt.clearBindings();
+        markSyncedStmt.bindString(1, file.getAbsolutePath());
+        markSyncedStmt.executeUpdateDelete();
+    }
+
+    // Marks every file synced in one transaction; returns the number of rows changed
+    public synchronized int markSynced(Collection<File> files) {
+        if (files.isEmpty()) return 0;
+        int changed = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (File file : files) {
+                markSyncedStmt.clearBindings();
+                markSyncedStmt.bindString(1, file.getAbsolutePath());
+                changed += markSyncedStmt.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changed;
+    }
+
+    // Deletes the rows for every path in one transaction; returns the number of rows removed
+    public synchronized int purge(Collection<String> paths) {
+        if (paths.isEmpty()) return 0;
+        int removed = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (String path : paths) {
+                deleteByPathStmt.clearBindings();
+                deleteByPathStmt.bindString(1, path);
+                removed += deleteByPathStmt.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    public synchronized void deleteByPath(String path) {
+        deleteByPathStmt.clearBindings();
+        deleteByPathStmt.bindString(1, path);
+        deleteByPathStmt.executeUpdateDelete();
+    }
+
+    public void deleteByPath(File file) {
+        deleteByPath(file.getAbsolutePath());
+    }
+
+    public synchronized void recordUploadEncoding(File file, String codec, long compressedSize) {
+        uploadEncodingStmt.clearBindings();
+        uploadEncodingStmt.bindString(1, codec);
+        uploadEncodingStmt.bindLong(2, compressedSize);
+        uploadEncodingStmt.bindString(3, file.getAbsolutePath());
+        uploadEncodingStmt.executeUpdateDelete();
+    }
+
+    // Unsynced files, oldest first. Rows whose file has vanished are cleaned up by DiskReconciler,
+    // not here, so this stays a pure index read on the sync path.
+    public List<File> listUnsynced() {
+        List<File> unsynced = new ArrayList<>();
+        try (Cursor cursor = db.query("files", new String[]{"FILE_PATH"}, "SYNCED=0", null, null, null, "ID ASC")) {
+            while (cursor.moveToNext()) {
+                unsynced.add(new File(cursor.getString(0)));
+            }
+        }
+        return unsynced;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.myapplication;
+
+import android.database.Cursor;
+
+import java.io.File;
+
+// One row of the files table: what was received, from which sensor, and how the transfer went
+public class FileRecord {
+    public long id;
+    public String filePath;
+    public long receivedAt;          // epoch millis
+    public boolean synced;
+
+    // Content identity (payload before the RTC header stamp)
+    public String contentSha256;
+    public long contentSize;
+    public long duplicateOf;         // ID of the first copy, 0 if none
+
+    // Announced in TRANSFER_START_PACKET
+    public String originalName;      // path on the sensor's SD card
+    public long fileSize;
+    public int chunkSize;
+    public int chunkCount;
+    public int protocolVersion;
+
+    // Source and session
+    public String sourceMac;
+    public String shimmerId;         // "Shimmer_XXXX" folder, may be null
+    public String experiment;        // "FullC_…"/"TEST…" folder, may be null
+    public long shimmerRtc;
+    public int androidRtc;
+    public long transferMs;
+
+    // Upload encoding (set once uploaded)
+    public String codec;
+    public long compressedSize;
+
+    public long evictedAt;           // local copy deleted by the storage quota, 0 if still on disk
+
+    public File file() {
+        return new File(filePath);
+    }
+
+    static final String[] COLUMNS = {
+            "ID", "FILE_PATH", "RECEIVED_AT", "SYNCED", "CONTENT_SHA256", "CONTENT_SIZE", "DUPLICATE_OF",
+            "ORIGINAL_NAME", "FILE_SIZE", "CHUNK_SIZE", "CHUNK_COUNT", "PROTOCOL_VERSION",
+            "SOURCE_MAC", "SHIMMER_ID", "EXPERIMENT", "SHIMMER_RTC", "ANDROID_RTC", "TRANSFER_MS",
+            "CODEC", "COMPRESSED_SIZE", "EVICTED_AT"
+    };
+
+    // Reads a row queried with COLUMNS
+    static FileRecord fromCursor(Cursor c) {
+        FileRecord r = new FileRecord();
+        r.id = c.getLong(0);
+        r.filePath = c.getString(1);
+        r.receivedAt = c.getLong(2);
+        r.synced = c.getInt(3) != 0;
+        r.contentSha256 = c.isNull(4) ? null : c.getString(4);
+        r.contentSize = c.getLong(5);
+        r.duplicateOf = c.getLong(6);
+        r.originalName = c.isNull(7) ? null : c.getString(7);
+        r.fileSize = c.getLong(8);
+        r.chunkSize = c.getInt(9);
+        r.chunkCount = c.getInt(10);
+        r.protocolVersion = c.getInt(11);
+        r.sourceMac = c.isNull(12) ? null : c.getString(12);
+        r.shimmerId = c.isNull(13) ? null : c.getString(13);
+        r.experiment = c.isNull(14) ? null : c.getString(14);
+        r.shimmerRtc = c.getLong(15);
+        r.androidRtc = c.getInt(16);
+        r.transferMs = c.getLong(17);
+        r.codec = c.isNull(18) ? null : c.getString(18);
+        r.compressedSize = c.getLong(19);
+        r.evictedAt = c.getLong(20);
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRecord{" +
+                "id=" + id +
+                ", file=" + new File(filePath).getName() +
+                ", synced=" + synced +
+                ", size=" + fileSize +
+                ", chunks=" + chunkCount + "x" + chunkSize +
+                ", mac=" + sourceMac +
+                ", shimmerId=" + shimmerId +
+                ", experiment=" + experiment +
+                ", transferMs=" + transferMs +
+                '}';
+    }
+}
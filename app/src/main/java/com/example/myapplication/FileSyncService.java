@@ -14,14 +14,14 @@ import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
+import java.util.concurrent.RejectedExecutionException;
+
 public class FileSyncService extends Service {
     private static final String TAG = "FileSyncService";
     private static final String CHANNEL_ID = "sync_channel";
     private static final int NOTIF_ID = 201;
 
     // Add public actions for UI/Activity listeners
-    public static final String ACTION_SYNC_START = "com.example.myapplication.ACTION_SYNC_START";
-    public static final String ACTION_SYNC_DONE = "com.example.myapplication.ACTION_SYNC_DONE";
 
     @Override
     public void onCreate() {
@@ -35,36 +35,45 @@ public class FileSyncService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         // Notify UI that sync started
+        EventBus.get().post(AppEvents.SYNC_RUNNING, true);
+
         try {
-            Intent start = new Intent(ACTION_SYNC_START);
-            start.setPackage(getPackageName());
-            sendBroadcast(start);
-        } catch (Exception ignored) {}
+            AppExecutors.get().io().submit("FileSyncWorker", this::drainUploads);
+        } catch (RejectedExecutionException e) {
+            // The queued jobs stay put; JobScheduler drains them instead
+            UploadJobQueue.schedule(this);
+            EventBus.get().post(AppEvents.SYNC_RUNNING, false);
+            stopSelf();
+        }
+        return START_STICKY;
+    }
 
-        new Thread(() -> {
-            try {
-                updateNotif("Syncing to cloud...");
-                if (!isNetworkConnected()) {
-                    updateNotif("No internet (Wi-Fi or mobile data). Will sync next cycle.");
-                    // No retries and no UI broadcasts; just stop
-                    stopSelf();
-                    return;
-                }
-                // ...existing upload logic...
+    private void drainUploads() {
+        try {
+            updateNotif("Syncing to cloud...");
+            UploadJobQueue queue = new UploadJobQueue(this);
+            if (!isNetworkConnected()) {
+                // Leave the jobs queued; JobScheduler drains them once a network is available
+                UploadJobQueue.schedule(this);
+                updateNotif("No internet (Wi-Fi or mobile data). Uploads queued until connected.");
+                return;
+            }
+            int uploaded = queue.drain(new ShimmerFileTransferClient(this), null);
+            int remaining = queue.pendingCount();
+            if (remaining > 0) {
+                UploadJobQueue.schedule(this);
+                updateNotif("Uploaded " + uploaded + " file(s); " + remaining + " queued for retry.");
+            } else {
                 updateNotif("Cloud sync complete.");
-            } catch (Exception e) {
-                updateNotif("Sync failed. Will sync next cycle.");
-            } finally {
-                // Always notify UI that sync ended
-                try {
-                    Intent done = new Intent(ACTION_SYNC_DONE);
-                    done.setPackage(getPackageName());
-                    sendBroadcast(done);
-                } catch (Exception ignored) {}
-                stopSelf();
             }
-        }, "FileSyncWorker").start();
-        return START_STICKY;
+        } catch (Exception e) {
+            UploadJobQueue.schedule(this);
+            updateNotif("Sync failed. Uploads will retry automatically.");
+        } finally {
+            // Always notify UI that sync ended
+            EventBus.get().post(AppEvents.SYNC_RUNNING, false);
+            stopSelf();
+        }
     }
 
     private boolean isNetworkConnected() {
@@ -0,0 +1,87 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shimmers this phone already knows by MAC, so the docking protocol can check for them with a
+ * short direct connect (a presence probe) instead of a full Bluetooth discovery. Devices are
+ * enrolled after a successful transfer, from the device-patient map and from the phone's paired
+ * Shimmers (KnownDeviceStore on the phone, {@link MemoryStore} in the simulator). A device not
+ * seen for STALE_MS drops out, so a replaced sensor stops costing probes.
+ *
+ * Discovery is still needed to enroll new sensors; the protocol falls back to it when the
+ * registry can't cover the devices still missing tonight.
+ *
+ * Pure Java, called only from the protocol thread.
+ */
+public class KnownDeviceRegistry {
+
+    public interface Store {
+        List<String> devices(long since);   // seen or enrolled since, most recently seen first
+        void enroll(String mac, String source, long at);  // no-op for a device already known
+        void markSeen(String mac, long at);
+    }
+
+    private static final long STALE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private final DockingProtocol.Config config;
+    private final Store store;
+
+    public KnownDeviceRegistry(DockingProtocol.Config config, Store store) {
+        this.config = config;
+        this.store = store;
+    }
+
+    // Known devices worth probing tonight, excluding those already done
+    public List<String> candidates(Collection<String> exclude, long now) {
+        List<String> result = new ArrayList<>();
+        if (!config.knownDeviceProbes) return result;
+        for (String mac : store.devices(now - STALE_MS)) {
+            if (!exclude.contains(mac)) result.add(mac);
+        }
+        return result;
+    }
+
+    public boolean isKnown(String mac, long now) {
+        return config.knownDeviceProbes && store.devices(now - STALE_MS).contains(mac);
+    }
+
+    public void onPresent(String mac, long now) {
+        store.markSeen(mac, now);
+    }
+
+    public void onTransferDone(String mac, long now) {
+        store.enroll(mac, "transfer", now);
+        store.markSeen(mac, now);
+    }
+
+    /** Store that lives as long as the object; enrollment across nights needs one instance for all. */
+    public static final class MemoryStore implements Store {
+        // mac -> last seen (or enrolled) time
+        private final Map<String, Long> lastSeen = new HashMap<>();
+
+        @Override
+        public List<String> devices(long since) {
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<String, Long> e : lastSeen.entrySet()) {
+                if (e.getValue() >= since) result.add(e.getKey());
+            }
+            result.sort((a, b) -> Long.compare(lastSeen.get(b), lastSeen.get(a)));
+            return result;
+        }
+
+        @Override
+        public void enroll(String mac, String source, long at) {
+            lastSeen.putIfAbsent(mac, at);
+        }
+
+        @Override
+        public void markSeen(String mac, long at) {
+            lastSeen.computeIfPresent(mac, (m, t) -> Math.max(t, at));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.myapplication;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Known Shimmer MACs for {@link KnownDeviceRegistry}, stored in filemeta.db. SOURCE records how a
+ * device was enrolled ("transfer", "patient-map", "bonded"); LAST_SEEN_AT starts at the enrollment
+ * time and moves forward on every presence probe hit or transfer.
+ */
+public class KnownDeviceStore implements KnownDeviceRegistry.Store {
+    static final String TABLE = "known_devices";
+
+    private final Context context;
+
+    public KnownDeviceStore(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                "MAC TEXT PRIMARY KEY, " +
+                "SOURCE TEXT NOT NULL, " +
+                "ADDED_AT INTEGER NOT NULL, " +
+                "LAST_SEEN_AT INTEGER NOT NULL)");
+    }
+
+    @Override
+    public List<String> devices(long since) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        List<String> macs = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE, new String[]{"MAC"}, "LAST_SEEN_AT>=?",
+                new String[]{String.valueOf(since)}, null, null, "LAST_SEEN_AT DESC")) {
+            while (cursor.moveToNext()) {
+                macs.add(cursor.getString(0));
+            }
+        }
+        return macs;
+    }
+
+    @Override
+    public void enroll(String mac, String source, long at) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("MAC", mac.toUpperCase(Locale.US));
+        values.put("SOURCE", source);
+        values.put("ADDED_AT", at);
+        values.put("LAST_SEEN_AT", at);
+        db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    @Override
+    public void markSeen(String mac, long at) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("LAST_SEEN_AT", at);
+        db.update(TABLE, values, "MAC=? AND LAST_SEEN_AT<?",
+                new String[]{mac.toUpperCase(Locale.US), String.valueOf(at)});
+    }
+}
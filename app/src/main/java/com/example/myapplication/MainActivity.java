@@ -5,19 +5,18 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.ActivityManager;
 import android.app.admin.DevicePolicyManager;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.StrictMode;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
@@ -41,11 +40,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 
 
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.analytics.FirebaseAnalytics;
-import com.google.firebase.crashlytics.FirebaseCrashlytics;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -58,6 +53,7 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -155,199 +151,134 @@ public class MainActivity extends AppCompatActivity {
     private LinearLayout progressSection;
     private com.google.android.material.card.MaterialCardView filesToSyncSection;
     private Button syncButton;
-    private ListView fileListView;
-    private ArrayAdapter<String> fileListAdapter;
-
-    // --- FIX: Initialize lists to prevent NullPointerException ---
-    private List<File> filesToUpload = new ArrayList<>();
-    private List<Boolean> uploadStatus = new ArrayList<>();
-    private List<Boolean> uploading = new ArrayList<>();
-    // --- END OF FIX ---
+    private SyncFileList syncFileList;
 
     private String selectedMac = null;
-    private FirebaseAnalytics firebaseAnalytics;
-    private Button transferButton;
-
-    // Receiver to reflect transfer/sync lifecycle in UI
 
+    // Background work for this screen (startup state, mapping calls); cancelled in onDestroy
+    private final AppExecutors.Scope uiWork = AppExecutors.get().ui().newScope("MainActivity");
+    private static boolean processStartReported = false;
+    private long createdAt;
+    private boolean interactiveReported = false;
+    private boolean firstLaunchChecked = false;
+    private Button transferButton;
 
-    private final BroadcastReceiver transferSyncReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent == null || intent.getAction() == null) return;
-            String action = intent.getAction();
-            if ("com.example.myapplication.ACTION_TRANSFER_START".equals(action)) {
-                showProgress("Transferring from sensor...");
-            } else if ("com.example.myapplication.TRANSFER_DONE".equals(action)) {
-                showProgress("Transfer complete. Syncing...");
-            } else if ("com.example.myapplication.TRANSFER_FAILED".equals(action)) {
-                showProgress("Transfer failed.");
-                hideProgressDelayed(2000);
-            } else if (FileSyncService.ACTION_SYNC_START.equals(action)) {
-                showProgress("Syncing to cloud...");
-            } else if (FileSyncService.ACTION_SYNC_DONE.equals(action)) {
-                hideProgress();
-            }
-        }
-    };
-
-    private void showProgress(String msg) {
-        if (progressSection != null) progressSection.setVisibility(View.VISIBLE);
-        if (progressText != null) progressText.setText(msg);
-        if (transferProgressBar != null) {
-            transferProgressBar.setIndeterminate(true);
-            transferProgressBar.setVisibility(View.VISIBLE);
-        }
-    }
+    // Event subscribers for Bluetooth scanning and transfer progress (all called on the main thread)
+    private final List<EventBus.Subscription> subscriptions = new ArrayList<>();
 
-    private void hideProgress() {
-        if (progressSection != null) progressSection.setVisibility(View.GONE);
-    }
+    private final EventBus.Subscriber<Long> timerSubscriber = remainingTime ->
+            timerText.setText("Remaining: " + (remainingTime / 1000) + " sec");
 
-    private void hideProgressDelayed(long ms) {
-        if (progressSection != null) progressSection.postDelayed(this::hideProgress, ms);
-    }
+    private final EventBus.Subscriber<List<String>> scanResultSubscriber = devices ->
+            updateDeviceList(new ArrayList<>(devices));
 
-    // Receivers for Bluetooth scanning and transfer progress
-    private final BroadcastReceiver timerReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            long remainingTime = intent.getLongExtra("remaining_time", 0);
-            runOnUiThread(() -> timerText.setText("Remaining: " + (remainingTime / 1000) + " sec"));
-        }
+    private final EventBus.Subscriber<String> statusSubscriber = status -> {
+        // Ignore scanning status updates while DockingService is running to prevent 15s vs 15m conflicts
+        if (isDockingServiceRunning()) return;
+        statusText.setText(status);
+        persistStatus(status);
     };
 
-    private final BroadcastReceiver scanResultReceiver = new BroadcastReceiver() {
+    // Bluetooth Transfer Progress
+    private final EventBus.Subscriber<AppEvents.TransferProgress> progressSubscriber = new EventBus.Subscriber<AppEvents.TransferProgress>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            ArrayList<String> devices = intent.getStringArrayListExtra("devices");
-            if (devices != null) {
-                runOnUiThread(() -> updateDeviceList(devices));
-            }
-        }
-    };
+        public void onEvent(AppEvents.TransferProgress event) {
+            int progress = event.progress;
+            int total = Math.max(event.total, 1);
+            String filename = event.filename;
 
-    private final BroadcastReceiver statusReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            // Ignore scanning status updates while DockingService is running to prevent 15s vs 15m conflicts
-            if (isDockingServiceRunning()) return;
-            String status = intent.getStringExtra("status");
-            if (status != null) {
-                runOnUiThread(() -> {
-                    statusText.setText(status);
-                    persistStatus(status);
-                });
-            }
-        }
-    };
-
-    // Bluetooth Transfer Progress Receiver
-    private final BroadcastReceiver progressReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            int progress = intent.getIntExtra("progress", -1);
-            int total = intent.getIntExtra("total", 1);
-            String filename = intent.getStringExtra("filename");
-
-            runOnUiThread(() -> {
-                progressSection.setVisibility(View.VISIBLE);
-                transferProgressBar.setVisibility(View.VISIBLE);
+            progressSection.setVisibility(View.VISIBLE);
+            transferProgressBar.setVisibility(View.VISIBLE);
 
-                // Disable buttons and hide stop scanning during transfer
-                // Disable sync button if neither WiFi nor cellular is connected
-                android.net.ConnectivityManager cm = (android.net.ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-                boolean networkConnected = false;
-                if (cm != null) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                        android.net.Network nw = cm.getActiveNetwork();
-                        if (nw != null) {
-                            android.net.NetworkCapabilities nc = cm.getNetworkCapabilities(nw);
-                            networkConnected = nc != null && (nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_WIFI)
-                                || nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_CELLULAR));
-                        }
-                    } else {
-                        android.net.NetworkInfo ni = cm.getActiveNetworkInfo();
-                        networkConnected = ni != null && ni.isConnected() && (ni.getType() == android.net.ConnectivityManager.TYPE_WIFI || ni.getType() == android.net.ConnectivityManager.TYPE_MOBILE);
+            // Disable buttons and hide stop scanning during transfer
+            // Disable sync button if neither WiFi nor cellular is connected
+            android.net.ConnectivityManager cm = (android.net.ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+            boolean networkConnected = false;
+            if (cm != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    android.net.Network nw = cm.getActiveNetwork();
+                    if (nw != null) {
+                        android.net.NetworkCapabilities nc = cm.getNetworkCapabilities(nw);
+                        networkConnected = nc != null && (nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_WIFI)
+                            || nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_CELLULAR));
                     }
+                } else {
+                    android.net.NetworkInfo ni = cm.getActiveNetworkInfo();
+                    networkConnected = ni != null && ni.isConnected() && (ni.getType() == android.net.ConnectivityManager.TYPE_WIFI || ni.getType() == android.net.ConnectivityManager.TYPE_MOBILE);
                 }
-                syncButton.setEnabled(networkConnected);
-                transferButton.setEnabled(false);
+            }
+            syncButton.setEnabled(networkConnected);
+            transferButton.setEnabled(false);
 
 
-                int percent = (int) ((progress * 100.0f) / total);
-                String display;
-                if (progress >= total) {
-                    display = "Transfer completed!";
-                    showTransferCompletedNotification();
-                    progressSection.setVisibility(View.GONE);
+            int percent = (int) ((progress * 100.0f) / total);
+            String display;
+            if (progress >= total) {
+                display = "Transfer completed!";
+                showTransferCompletedNotification();
+                progressSection.setVisibility(View.GONE);
 
-                    // Re-enable buttons and show stop scanning after transfer
-                    syncButton.setEnabled(true);
-                    transferButton.setEnabled(true);
+                // Re-enable buttons and show stop scanning after transfer
+                syncButton.setEnabled(true);
+                transferButton.setEnabled(true);
 
-                } else {
-                    display = "Transfer Progress: " + progress + "/" + total + " (" + percent + "%)";
-                    if (filename != null && !filename.isEmpty()) {
-                        display += "\nLast file: " + filename;
-                    }
+            } else {
+                display = "Transfer Progress: " + progress + "/" + total + " (" + percent + "%)";
+                if (filename != null && !filename.isEmpty()) {
+                    display += "\nLast file: " + filename;
                 }
-                progressText.setText(display);
-                transferProgressBar.setMax(total);
-                transferProgressBar.setProgress(progress);
-            });
+            }
+            progressText.setText(display);
+            transferProgressBar.setMax(total);
+            transferProgressBar.setProgress(progress);
 
             persistTransferProgress(progress, total, filename);
         }
     };
 
-    private final BroadcastReceiver transferErrorReceiver = new BroadcastReceiver() {
+    private final EventBus.Subscriber<AppEvents.TransferError> transferErrorSubscriber = new EventBus.Subscriber<AppEvents.TransferError>() {
         private android.os.CountDownTimer countDownTimer;
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String errorMessage = intent.getStringExtra("error_message");
-            int retrySeconds = intent.getIntExtra("retry_seconds", 0);
+        public void onEvent(AppEvents.TransferError event) {
+            String errorMessage = event.message;
+            int retrySeconds = event.retrySeconds;
 
             Log.d("MainActivity", "Received transfer error: " + errorMessage + ", retrySeconds=" + retrySeconds);
 
-            runOnUiThread(() -> {
+            progressSection.setVisibility(View.VISIBLE);
+            transferProgressBar.setVisibility(View.GONE);
+            if (countDownTimer != null) countDownTimer.cancel();
+
+            if (errorMessage != null && !errorMessage.isEmpty() && retrySeconds > 0) {
+                // Show error and timer
+                countDownTimer = new android.os.CountDownTimer(retrySeconds * 1000, 1000) {
+                    public void onTick(long millisUntilFinished) {
+                        int secs = (int) (millisUntilFinished / 1000);
+                        progressText.setText(errorMessage.replace("1:00", String.format("0:%02d", secs)));
+                    }
+                    public void onFinish() {
+                        progressText.setText("");
+                        progressSection.setVisibility(View.GONE);
+                        transferProgressBar.setVisibility(View.VISIBLE);
+                    }
+                }.start();
+            } else if (errorMessage != null && !errorMessage.isEmpty()) {
+                // Show error without timer
+                progressText.setText(errorMessage);
                 progressSection.setVisibility(View.VISIBLE);
                 transferProgressBar.setVisibility(View.GONE);
-                if (countDownTimer != null) countDownTimer.cancel();
-
-                if (errorMessage != null && !errorMessage.isEmpty() && retrySeconds > 0) {
-                    // Show error and timer
-                    countDownTimer = new android.os.CountDownTimer(retrySeconds * 1000, 1000) {
-                        public void onTick(long millisUntilFinished) {
-                            int secs = (int) (millisUntilFinished / 1000);
-                            progressText.setText(errorMessage.replace("1:00", String.format("0:%02d", secs)));
-                        }
-                        public void onFinish() {
-                            progressText.setText("");
-                            progressSection.setVisibility(View.GONE);
-                            transferProgressBar.setVisibility(View.VISIBLE);
-                        }
-                    }.start();
-                } else if (errorMessage != null && !errorMessage.isEmpty()) {
-                    // Show error without timer
-                    progressText.setText(errorMessage);
-                    progressSection.setVisibility(View.VISIBLE);
-                    transferProgressBar.setVisibility(View.GONE);
-                } else {
-                    // Hide error UI
-                    progressSection.setVisibility(View.GONE);
-                    transferProgressBar.setVisibility(View.VISIBLE);
-                }
-            });
+            } else {
+                // Hide error UI
+                progressSection.setVisibility(View.GONE);
+                transferProgressBar.setVisibility(View.VISIBLE);
+            }
         }
     };
 
-    private final BroadcastReceiver dockingStatusReceiver = new BroadcastReceiver() {
+    private final EventBus.Subscriber<String> dockingStatusSubscriber = new EventBus.Subscriber<String>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String status = intent.getStringExtra("status");
-            if (status == null) return;
+        public void onEvent(String status) {
             try {
                 TextView statusView = findViewById(R.id.statusText);
                 if (statusView != null) {
@@ -374,7 +305,9 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdAt = SystemClock.uptimeMillis();
         setContentView(R.layout.activity_main);
+        watchFirstFrame();
 
          DevicePolicyManager dpm = (DevicePolicyManager) getSystemService(Context.DEVICE_POLICY_SERVICE);
          ComponentName adminName = new ComponentName(this, ShimmerDeviceAdminReceiver.class);
@@ -402,10 +335,6 @@ public class MainActivity extends AppCompatActivity {
 
 
 
-        FirebaseApp.initializeApp(this);
-        firebaseAnalytics = FirebaseAnalytics.getInstance(this);
-        FirebaseCrashlytics.getInstance().setCrashlyticsCollectionEnabled(true);
-
         StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
                 .detectAll().penaltyLog().build());
         StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
@@ -441,7 +370,11 @@ public class MainActivity extends AppCompatActivity {
         });
 
         syncButton = findViewById(R.id.syncButton);
-        fileListView = findViewById(R.id.fileListRecyclerView);
+        syncFileList = new SyncFileList(this, findViewById(R.id.fileListRecyclerView));
+        // Shown whenever there are rows, including pending ones loaded from the DB at launch
+        syncFileList.setOnSizeChanged(size -> filesToSyncSection.setVisibility(size > 0 ? View.VISIBLE : View.GONE));
+        syncFileList.reload();
+        SyncEngine.get(this).addListener(syncListener);
 
         syncButton.setOnClickListener(v -> {
             // Minimal network connectivity check (WiFi or mobile data)
@@ -466,33 +399,17 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
             syncFilesWithCloud();
-            runOnUiThread(() -> filesToSyncSection.setVisibility(View.VISIBLE));
         });
 
-        // Register receivers
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            registerReceiver(timerReceiver, new IntentFilter(ScanningService.ACTION_TIMER_UPDATE),
-                    Context.RECEIVER_NOT_EXPORTED);
-            registerReceiver(scanResultReceiver, new IntentFilter(ScanningService.ACTION_SCAN_RESULTS),
-                    Context.RECEIVER_NOT_EXPORTED);
-            registerReceiver(statusReceiver, new IntentFilter(ScanningService.ACTION_STATUS_UPDATE),
-                    Context.RECEIVER_NOT_EXPORTED);
-            registerReceiver(progressReceiver, new IntentFilter("com.example.myapplication.TRANSFER_PROGRESS"),
-                    Context.RECEIVER_NOT_EXPORTED);
-            registerReceiver(transferErrorReceiver, new IntentFilter("com.example.myapplication.TRANSFER_ERROR"),
-                    Context.RECEIVER_NOT_EXPORTED);
-            // Register Docking status updates for UI
-            registerReceiver(dockingStatusReceiver, new IntentFilter("com.example.myapplication.DOCKING_STATUS"),
-                    Context.RECEIVER_NOT_EXPORTED);
-        } else {
-            registerReceiver(timerReceiver, new IntentFilter(ScanningService.ACTION_TIMER_UPDATE));
-            registerReceiver(scanResultReceiver, new IntentFilter(ScanningService.ACTION_SCAN_RESULTS));
-            registerReceiver(statusReceiver, new IntentFilter(ScanningService.ACTION_STATUS_UPDATE));
-            registerReceiver(progressReceiver, new IntentFilter("com.example.myapplication.TRANSFER_PROGRESS"));
-            registerReceiver(transferErrorReceiver, new IntentFilter("com.example.myapplication.TRANSFER_ERROR"));
-            // Register Docking status updates for UI
-            registerReceiver(dockingStatusReceiver, new IntentFilter("com.example.myapplication.DOCKING_STATUS"));
-        }
+        // Subscribe to in-process events; state topics replay their latest value right away
+        EventBus bus = EventBus.get();
+        subscriptions.add(bus.subscribe(AppEvents.SCAN_TIMER, timerSubscriber));
+        subscriptions.add(bus.subscribe(AppEvents.SCAN_RESULTS, scanResultSubscriber));
+        subscriptions.add(bus.subscribe(AppEvents.SCAN_STATUS, statusSubscriber));
+        subscriptions.add(bus.subscribe(AppEvents.TRANSFER_PROGRESS, progressSubscriber));
+        subscriptions.add(bus.subscribe(AppEvents.TRANSFER_ERROR, transferErrorSubscriber));
+        // Docking status updates for UI
+        subscriptions.add(bus.subscribe(AppEvents.DOCKING_STATUS, dockingStatusSubscriber));
 
         // Request only missing runtime permissions first
         List<String> missingAtLaunch = getMissingRuntimePermissions();
@@ -541,7 +458,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
 
-        restoreUIState();
+        // Persisted status/devices are restored asynchronously from onResume()
 
         // For demo/testing, start protocol on button click:
         Button dockingButton = findViewById(R.id.dockingButton);
@@ -585,14 +502,6 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, "Android version: " + Build.VERSION.RELEASE + "\nDevice ID: " + phoneMac, Toast.LENGTH_LONG).show();
         }
 
-        // Show the About dialog on first launch
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        boolean isFirstLaunch = prefs.getBoolean("is_first_launch", true);
-        if (isFirstLaunch) {
-            showAboutDialog();
-            prefs.edit().putBoolean("is_first_launch", false).apply();
-        }
-
         // Wire About and Map buttons
         MaterialButton aboutButton = findViewById(R.id.aboutButton);
         aboutButton.setOnClickListener(v -> showAboutDialog());
@@ -605,41 +514,80 @@ public class MainActivity extends AppCompatActivity {
         findViewById(R.id.changeDockingHoursButton).setOnClickListener(v -> showDockingHoursPopup());
     }
 
-    // Restore on app start/reopen
+    // Restore on app start/reopen; the store is loaded off the main thread
     private void restoreUIState() {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
+        submitUiWork("RestoreUiState", () -> {
+            AppStateStore.UiState state = AppStateStore.get(this).readUiState();
+            runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed()) return;
+                applyUiState(state);
+            });
+        });
+    }
 
-        // Restore status text
-        String lastStatus = prefs.getString("status_text", "");
-        if (lastStatus != null && !lastStatus.isEmpty()) {
-            statusText.setText(lastStatus);
+    private void applyUiState(AppStateStore.UiState state) {
+        if (!state.statusText.isEmpty()) {
+            statusText.setText(state.statusText);
         }
-
-        // Restore scanned devices (prefer JSON, fallback to newline format)
-        ArrayList<String> devices = new ArrayList<>();
-        String devicesJson = prefs.getString("scanned_devices_json", null);
-        if (devicesJson != null && !devicesJson.isEmpty()) {
-            try {
-                org.json.JSONArray arr = new org.json.JSONArray(devicesJson);
-                for (int i = 0; i < arr.length(); i++) devices.add(arr.getString(i));
-            } catch (Exception ignored) {}
+        updateDeviceList(new ArrayList<>(state.devices));
+        if (!state.selectedMac.isEmpty()) {
+            selectedMac = state.selectedMac;
         }
-        if (devices.isEmpty()) {
-            String saved = prefs.getString("scanned_devices", "");
-            if (saved != null && !saved.isEmpty()) {
-                String[] lines = saved.split("\n");
-                for (String line : lines) {
-                    if (line != null && !line.trim().isEmpty()) devices.add(line.trim());
-                }
+
+        // Show the About dialog on first launch
+        if (!firstLaunchChecked) {
+            firstLaunchChecked = true;
+            if (state.firstLaunch) {
+                showAboutDialog();
+                AppStateStore.get(this).edit().putBoolean(AppStateStore.IS_FIRST_LAUNCH, false).apply();
             }
         }
-        updateDeviceList(devices);
+        reportInteractive();
+    }
 
-        // Restore selected MAC
-        String mac = prefs.getString("selected_mac", "");
-        if (mac != null && !mac.isEmpty()) {
-            selectedMac = mac;
-        }
+    // Time to first frame; non-critical init (Firebase, job scheduling) starts only after it
+    private void watchFirstFrame() {
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                long now = SystemClock.uptimeMillis();
+                Log.i("Startup", "First frame after " + (now - createdAt) + " ms" + sinceProcessStart(now));
+                content.post(() -> {
+                    if (isDestroyed()) return;
+                    Telemetry.warmUpAsync(MainActivity.this);
+                    submitBackground("ScheduleReconcile", () -> ReconcileJobService.schedule(MainActivity.this));
+                });
+                return true;
+            }
+        });
+    }
+
+    // Time to interactive: persisted state is on screen
+    private void reportInteractive() {
+        if (interactiveReported) return;
+        interactiveReported = true;
+        reportFullyDrawn();
+        long now = SystemClock.uptimeMillis();
+        long sinceCreate = now - createdAt;
+        Log.i("Startup", "Interactive after " + sinceCreate + " ms" + sinceProcessStart(now));
+        final boolean cold = !processStartReported;
+        final long sinceProcess = now - android.os.Process.getStartUptimeMillis();
+        processStartReported = true;
+        submitBackground("StartupEvent", () -> {
+            Bundle b = new Bundle();
+            b.putLong("tti_ms", sinceCreate);
+            b.putBoolean("cold", cold);
+            if (cold) b.putLong("tti_process_ms", sinceProcess);
+            Telemetry.logEvent(MainActivity.this, "app_startup", b);
+        });
+    }
+
+    // Only the first activity of a process is a cold start
+    private String sinceProcessStart(long now) {
+        if (processStartReported) return "";
+        return " (" + (now - android.os.Process.getStartUptimeMillis()) + " ms since process start)";
     }
 
     // Ensure we persist selection when user taps a device
@@ -657,22 +605,12 @@ public class MainActivity extends AppCompatActivity {
 
     // Call this whenever you update the device list
     private void persistDeviceListCompat(ArrayList<String> devices) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        // JSON format
-        prefs.edit().putString("scanned_devices_json", new JSONArray(devices).toString()).apply();
-        // Newline format for backward compatibility
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < devices.size(); i++) {
-            if (i > 0) sb.append('\n');
-            sb.append(devices.get(i));
-        }
-        prefs.edit().putString("scanned_devices", sb.toString()).apply();
+        AppStateStore.get(this).edit().putStringList(AppStateStore.SCANNED_DEVICES, devices).apply();
     }
 
     // Call this whenever you select a device
     private void persistSelectedMacCompat(String mac) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        prefs.edit().putString("selected_mac", mac).apply();
+        AppStateStore.get(this).edit().putString(AppStateStore.SELECTED_MAC, mac).apply();
     }
 
     private void updateDeviceList(ArrayList<String> devices) {
@@ -730,102 +668,31 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    // Persist incoming UI state from broadcasts
-    private final BroadcastReceiver appReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (ScanningService.ACTION_STATUS_UPDATE.equals(action)) {
-                String status = intent.getStringExtra("status");
-                if (status != null) {
-                    statusText.setText(status);
-                    persistStatus(status); // replaced persistStatusText
-                }
-            } else if ("com.example.myapplication.DOCKING_STATUS".equals(action)) {
-                String status = intent.getStringExtra("status");
-                if (status != null) {
-                    statusText.setText(status);
-                    persistStatus(status); // replaced persistStatusText
-                }
-            } else if (ScanningService.ACTION_SCAN_RESULTS.equals(action)) {
-                ArrayList<String> devices = intent.getStringArrayListExtra("devices");
-                if (devices == null) devices = new ArrayList<>();
-                updateDeviceList(devices);
-                persistDeviceListCompat(devices);
-            } else if (ScanningService.ACTION_TIMER_UPDATE.equals(action)) {
-                if (intent.hasExtra("remaining_time")) {
-                    long remaining = intent.getLongExtra("remaining_time", 0);
-                    SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-                    prefs.edit().putLong("remaining_time", remaining).apply();
-                }
-            } else if (ScanningService.ACTION_SLEEP_TIMER_UPDATE.equals(action)) {
-                if (intent.hasExtra("remaining_sleep")) {
-                    long remaining = intent.getLongExtra("remaining_sleep", 0);
-                    SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-                    prefs.edit().putLong("remaining_sleep", remaining).apply();
-                }
-            }
-        }
-    };
-
     // Call this whenever you update the device list
     private void persistDeviceList(ArrayList<String> devices) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        // JSON format
-        prefs.edit().putString("scanned_devices_json", new JSONArray(devices).toString()).apply();
-        // Newline format for backward compatibility
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < devices.size(); i++) {
-            if (i > 0) sb.append('\n');
-            sb.append(devices.get(i));
-        }
-        prefs.edit().putString("scanned_devices", sb.toString()).apply();
+        AppStateStore.get(this).edit().putStringList(AppStateStore.SCANNED_DEVICES, devices).apply();
     }
 
     // Call this whenever you update timer/status
     private void persistStatus (String status) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        prefs.edit()
-                .putString("scanning_status", status)
+        AppStateStore.get(this).edit()
+                .putString(AppStateStore.SCANNING_STATUS, status)
                 .apply();
     }
 
     // Call this whenever you update transfer progress
     private void persistTransferProgress(int progress, int total, String filename) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        prefs.edit()
-                .putInt("transfer_progress", progress)
-                .putInt("transfer_total", total)
-                .putString("transfer_filename", filename)
-                .putInt("progress_visibility", progressSection.getVisibility())
+        AppStateStore.get(this).edit()
+                .putInt(AppStateStore.TRANSFER_PROGRESS, progress)
+                .putInt(AppStateStore.TRANSFER_TOTAL, total)
+                .putString(AppStateStore.TRANSFER_FILENAME, filename)
+                .putInt(AppStateStore.PROGRESS_VISIBILITY, progressSection.getVisibility())
                 .apply();
     }
 
     // Call this whenever you select a device
     private void persistSelectedMac(String mac) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        prefs.edit().putString("selected_mac", mac).apply();
-    }
-
-    // Call this whenever you sync files
-    private void persistSyncState(List<File> files, List<Boolean> status, List<Boolean> uploading) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        for (int i = 0; i < files.size(); i++) {
-            editor.putBoolean("file_" + i + "_status", status.get(i));
-            editor.putBoolean("file_" + i + "_uploading", uploading.get(i));
-        }
-        editor.putInt("files_to_upload_size", files.size());
-        editor.apply();
-    }
-
-    private void persistSyncDisplayList(ArrayAdapter<String> adapter) {
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        JSONArray arr = new JSONArray();
-        for (int i = 0; i < adapter.getCount(); i++) {
-            arr.put(adapter.getItem(i));
-        }
-        prefs.edit().putString("sync_display_list", arr.toString()).apply();
+        AppStateStore.get(this).edit().putString(AppStateStore.SELECTED_MAC, mac).apply();
     }
 
     private boolean hasPermissions() { return hasAllRuntimePermissions(); }
@@ -855,109 +722,67 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void syncFilesWithCloud() {
-        ShimmerFileTransferClient client = new ShimmerFileTransferClient(this);
-
-        new Thread(() -> {
-            // Layer 1: Get all files marked as unsynced in the local DB.
-            List<File> localUnsynced = client.getLocalUnsyncedFiles();
-            if (localUnsynced.isEmpty()) {
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "No new files to sync.", Toast.LENGTH_SHORT).show());
-                return;
+        SyncEngine engine = SyncEngine.get(this);
+        if (engine.isRunning()) {
+            Toast.makeText(this, "Sync already in progress.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // Progress arrives through syncListener; the engine refuses to start a second concurrent run.
+        // Not tied to this screen: the sync carries on if the activity goes away.
+        submitBackground("ManualSync", () -> {
+            if (engine.syncAll(null) == null) {
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Sync already in progress.", Toast.LENGTH_SHORT).show());
             }
+        });
+    }
 
-            // Layer 2: Ask the server which of those files are actually missing.
-            List<String> missingOnS3 = client.getMissingFilesOnS3(localUnsynced);
-
-            filesToUpload.clear();
-            uploadStatus.clear();
-            uploading.clear();
+    // Work the screen is waiting on; false (and a log line) when the ui pool is saturated
+    private boolean submitUiWork(String taskName, Runnable task) {
+        try {
+            uiWork.submit(taskName, task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w("MainActivity", taskName + " not started: " + e.getMessage());
+            return false;
+        }
+    }
 
-            // --- MODIFIED LOGIC: UPLOAD OR CORRECT ---
-            for (File f : localUnsynced) {
-                if (missingOnS3.contains(f.getName())) {
-                    // This file is genuinely missing on the server. Add it to the upload queue.
-                    filesToUpload.add(f);
-                    uploadStatus.add(false);
-                    uploading.add(false);
-                } else {
-                    // The server already has this file, but our DB says SYNCED=0.
-                    // Correct the local database entry.
-                    Log.d("FileSync", "Correcting DB: Server has '" + f.getName() + "', marking as SYNCED=1.");
-                    client.markFileAsSynced(f);
-                }
-            }
-            // --- END OF MODIFIED LOGIC --- DockingScheduler
+    // Work that should finish even if the activity is destroyed
+    private void submitBackground(String taskName, Runnable task) {
+        try {
+            AppExecutors.get().io().submit(taskName, task);
+        } catch (RejectedExecutionException e) {
+            Log.w("MainActivity", taskName + " not started: " + e.getMessage());
+        }
+    }
 
-            // This check now correctly handles the case where all unsynced files
-            // were corrected, leaving nothing to upload.
-            if (filesToUpload.isEmpty()) {
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "All local files are already on the server.", Toast.LENGTH_SHORT).show());
-                return;
-            }
+    // Mirrors SyncEngine snapshots into the "files to sync" list, whoever started the sync
+    private final SyncEngine.Listener syncListener = progress -> runOnUiThread(() -> renderSyncProgress(progress));
 
-            runOnUiThread(() -> {
-                fileListAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1) {
-                    @Override
-                    public int getCount() { return filesToUpload != null ? filesToUpload.size() : 0; }
-                    @Override
-                    public String getItem(int position) {
-                        File file = filesToUpload.get(position);
-                        if (uploadStatus.get(position)) {
-                            return "✅ " + file.getName();
-                        } else if (uploading.get(position)) {
-                            return "⏳ " + file.getName();
-                        } else {
-                            return "❌ " + file.getName();
-                        }
-                    }
-                };
-                fileListView.setAdapter(fileListAdapter);
-                filesToSyncSection.setVisibility(View.VISIBLE);
+    private boolean syncObserved = false; // only toast for runs this activity actually watched
 
-                persistSyncDisplayList(fileListAdapter); // <-- Add this line
-            });
+    private void renderSyncProgress(SyncEngine.Progress progress) {
+        if (progress.state == SyncEngine.State.IDLE) return;
+        if (progress.isRunning()) syncObserved = true;
+        boolean announce = syncObserved && !progress.isRunning();
 
-            for (int i = 0; i < filesToUpload.size(); i++) {
-                final int pos = i;
-                runOnUiThread(() -> {
-                    uploading.set(pos, true);
-                    fileListAdapter.notifyDataSetChanged();
-                });
+        if (announce && (progress.items.isEmpty() || progress.state == SyncEngine.State.FAILED || progress.failed > 0)) {
+            Toast.makeText(this, progress.message, Toast.LENGTH_SHORT).show();
+        }
+        if (announce) syncObserved = false;
 
-                boolean uploaded = client.uploadFileToS3(filesToUpload.get(pos));
-                if (uploaded) {
-                    client.markFileAsSynced(filesToUpload.get(pos));
-                    runOnUiThread(() -> {
-                        uploading.set(pos, false);
-                        uploadStatus.set(pos, true);
-                        fileListAdapter.notifyDataSetChanged();
-                        persistSyncDisplayList(fileListAdapter); // <-- Add this line
-                    });
-                } else {
-                    runOnUiThread(() -> {
-                        uploading.set(pos, false);
-                        fileListAdapter.notifyDataSetChanged();
-                        persistSyncState(filesToUpload, uploadStatus, uploading);
-                        Toast.makeText(this, "Failed to upload: " + filesToUpload.get(pos).getName(), Toast.LENGTH_SHORT).show();
-                    });
-                }
-            }
-        }).start();
+        syncFileList.onProgress(progress);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        try {
-            unregisterReceiver(timerReceiver);
-            unregisterReceiver(scanResultReceiver);
-            unregisterReceiver(statusReceiver);
-            unregisterReceiver(progressReceiver);
-            unregisterReceiver(transferErrorReceiver);
-            unregisterReceiver(dockingStatusReceiver);
-        } catch (Exception e) {
-            Log.w("MainActivity", "Receiver unregistration error: " + e.getMessage());
-        }
+        AppStateStore.get(this).flushNow();
+        uiWork.cancel();
+        SyncEngine.get(this).removeListener(syncListener);
+        syncFileList.shutdown();
+        for (EventBus.Subscription sub : subscriptions) sub.unsubscribe();
+        subscriptions.clear();
     }
 
     @Override
@@ -1266,7 +1091,7 @@ public class MainActivity extends AppCompatActivity {
         // Do GET first
         String finalMac = mac;
         Log.d("MapButton", "Sending GET for MAC: " + finalMac);
-        new Thread(() -> {
+        if (!submitUiWork("MappingLookup", () -> {
             try {
                 String urlStr = "https://odb777ddnc.execute-api.us-east-2.amazonaws.com/ddb/device-patient-map/"
                         + URLEncoder.encode(finalMac, "UTF-8");
@@ -1304,7 +1129,9 @@ public class MainActivity extends AppCompatActivity {
                     showDevicePatientMapDialog(finalMac, null, false);
                 });
             }
-        }).start();
+        })) {
+            Toast.makeText(this, "Busy, please try again.", Toast.LENGTH_SHORT).show();
+        }
     }
 
 private void showDevicePatientMapDialog(String mac, String existingName, boolean mappingFound) {
@@ -1395,7 +1222,7 @@ private void showDevicePatientMapDialog(String mac, String existingName, boolean
 }
 
 private void getMapping(String mac, EditText patientInput, EditText shimmer1Input, EditText shimmer2Input, TextView updatedAtView, boolean readOnly) {
-    new Thread(() -> {
+    if (!submitUiWork("MappingGet", () -> {
         try {
             String urlStr = "https://odb777ddnc.execute-api.us-east-2.amazonaws.com/ddb/device-patient-map/"
                     + URLEncoder.encode(mac, "UTF-8");
@@ -1411,6 +1238,7 @@ private void getMapping(String mac, EditText patientInput, EditText shimmer1Inpu
                 String line;
                 while ((line = br.readLine()) != null) sb.append(line);
                 String resp = sb.toString();
+                enrollMappedShimmers(resp);
 
                 runOnUiThread(() -> {
                     try {
@@ -1434,13 +1262,15 @@ private void getMapping(String mac, EditText patientInput, EditText shimmer1Inpu
         } catch (Exception e) {
             runOnUiThread(() -> Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show());
         }
-    }).start();
+    })) {
+        Toast.makeText(this, "Busy, please try again.", Toast.LENGTH_SHORT).show();
+    }
 }
 
 
 
 private void putMapping(String mac, String patient, String shimmer1, String shimmer2, AlertDialog dialog) {
-        new Thread(() -> {
+        if (!submitUiWork("MappingPut", () -> {
             try {
                 String urlStr = "https://odb777ddnc.execute-api.us-east-2.amazonaws.com/ddb/device-patient-map/" + java.net.URLEncoder.encode(mac, "UTF-8");
                 java.net.HttpURLConnection conn = (java.net.HttpURLConnection) new java.net.URL(urlStr).openConnection();
@@ -1457,6 +1287,7 @@ private void putMapping(String mac, String patient, String shimmer1, String shim
                 byte[] out = body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
                 try (java.io.OutputStream os = conn.getOutputStream()) { os.write(out); }
                 int code = conn.getResponseCode();
+                if (code >= 200 && code < 300) enrollMappedShimmers(body.toString());
                 runOnUiThread(() -> {
                     if (code >= 200 && code < 300) {
                         Toast.makeText(this, "Mapping saved", Toast.LENGTH_SHORT).show();
@@ -1468,7 +1299,25 @@ private void putMapping(String mac, String patient, String shimmer1, String shim
             } catch (Exception e) {
                 runOnUiThread(() -> Toast.makeText(this, "Error saving: " + e.getMessage(), Toast.LENGTH_SHORT).show());
             }
-        }).start();
+        })) {
+            Toast.makeText(this, "Busy, please try again.", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // Shimmer MACs in the device-patient map become known devices for the docking protocol's probes
+    private void enrollMappedShimmers(String mappingJson) {
+        try {
+            JSONObject obj = new JSONObject(mappingJson);
+            KnownDeviceStore store = new KnownDeviceStore(this);
+            for (String key : new String[]{"shimmer1", "shimmer2"}) {
+                String mac = obj.optString(key, "").trim().toUpperCase(java.util.Locale.US);
+                if (android.bluetooth.BluetoothAdapter.checkBluetoothAddress(mac)) {
+                    store.enroll(mac, "patient-map", System.currentTimeMillis());
+                }
+            }
+        } catch (JSONException e) {
+            Log.w("MapButton", "Mapping not JSON, no Shimmers enrolled: " + e.getMessage());
+        }
     }
 
     private String parseNameFromResponse(String resp, String mac) {
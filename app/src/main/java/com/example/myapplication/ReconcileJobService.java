@@ -0,0 +1,70 @@
+package com.example.myapplication;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.RejectedExecutionException;
+
+// Daily disk/DB reconciliation (see DiskReconciler), run while the device is idle
+public class ReconcileJobService extends JobService {
+    private static final String TAG = "ReconcileJobService";
+
+    static final int JOB_ID = 3002;
+    private static final long PERIOD_MS = 24 * 60 * 60 * 1000L;
+
+    // Last report, for support/debug screens
+    public static final String KEY_LAST_REPORT = "reconcile_last_report";
+    public static final String KEY_LAST_RUN_AT = "reconcile_last_run_at";
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        try {
+            AppExecutors.get().io().submit("ReconcileWorker", () -> reconcile(params));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "I/O pool busy; skipping reconciliation until the next period.");
+            return false;
+        }
+        return true;
+    }
+
+    private void reconcile(JobParameters params) {
+        try {
+            DiskReconciler.Report report = new DiskReconciler(this).run();
+            getSharedPreferences(UploadJobQueue.PREFS_SYNC, MODE_PRIVATE).edit()
+                    .putString(KEY_LAST_REPORT, report.toString())
+                    .putLong(KEY_LAST_RUN_AT, System.currentTimeMillis())
+                    .apply();
+            if (report.changedAnything()) {
+                Telemetry.crashlytics().log("Reconciliation: " + report);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Reconciliation failed: " + e.getMessage(), e);
+        } finally {
+            jobFinished(params, false);
+        }
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false; // next period will run it again
+    }
+
+    // Schedules the periodic job once; a no-op if it is already pending
+    public static void schedule(Context context) {
+        JobScheduler js = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (js == null || js.getPendingJob(JOB_ID) != null) return;
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, ReconcileJobService.class))
+                .setPeriodic(PERIOD_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .setPersisted(true)
+                .build();
+        js.schedule(job);
+        Log.d(TAG, "Scheduled daily reconciliation.");
+    }
+}
@@ -3,7 +3,6 @@ package com.example.myapplication;
 import android.Manifest;
 import android.app.*;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.content.*;
 import android.content.pm.PackageManager;
 import android.os.*;
@@ -21,10 +20,6 @@ public class ScanningService extends Service {
     private static final String CHANNEL_ID = "ShimmerScanChannel";
     private static final int NOTIFICATION_ID = 1;
 
-    public static final String ACTION_TIMER_UPDATE = "com.example.myapplication.ACTION_TIMER_UPDATE";
-    public static final String ACTION_SCAN_RESULTS = "com.example.myapplication.ACTION_SCAN_RESULTS";
-    public static final String ACTION_SLEEP_TIMER_UPDATE = "com.example.myapplication.ACTION_SLEEP_TIMER_UPDATE";
-    public static final String ACTION_STATUS_UPDATE = "com.example.myapplication.ACTION_STATUS_UPDATE";
     public static final String EXTRA_RESET_PROTOCOL = "com.example.myapplication.EXTRA_RESET_PROTOCOL";
 
     private BluetoothAdapter bluetoothAdapter;
@@ -42,6 +37,10 @@ public class ScanningService extends Service {
     private static final long EXTENDED_SEARCH_TOTAL_MS = 60 * 60 * 1000;     // total extended search period = 1 hour
     private static final long SLEEP_30_MIN_MS = 30 * 60 * 1000;              // sleep 30 minutes if ≥2 devices found
     private static final long SLEEP_20_MIN_MS = 20 * 60 * 1000;              // sleep 20 minutes if <2 devices found after 1 hour
+    private static final long NON_INQUIRY_SCAN_MS = 30 * 1000;               // BLE/simulated scans: one 30 sec advertising phase
+
+    // Scan backend of the current cycle (see DiscoveryBackend); picked again at every scan start
+    private DiscoveryBackend discovery;
 
     private long scanStartTime = 0;
     private final Handler timerHandler = new Handler(Looper.getMainLooper());
@@ -64,11 +63,8 @@ public class ScanningService extends Service {
         public void run() {
             long elapsed = System.currentTimeMillis() - scanStartTime;
             long remaining = SCAN_DURATION_MS - elapsed;
-            Intent intent = new Intent(ACTION_TIMER_UPDATE);
-            intent.putExtra("remaining_time", Math.max(remaining, 0));
-            intent.setPackage(getApplicationContext().getPackageName());
-            Log.d(TAG, "Broadcasting scan timer: " + Math.max(remaining, 0) + " ms");
-            sendBroadcast(intent);
+            Log.d(TAG, "Posting scan timer: " + Math.max(remaining, 0) + " ms");
+            EventBus.get().post(AppEvents.SCAN_TIMER, Math.max(remaining, 0));
 
             if (remaining > 0) {
                 timerHandler.postDelayed(this, 1000);
@@ -89,11 +85,8 @@ public class ScanningService extends Service {
         @Override
         public void run() {
             remainingSleep -= 1000;
-            Intent intent = new Intent(ACTION_SLEEP_TIMER_UPDATE);
-            intent.putExtra("remaining_sleep", Math.max(remainingSleep, 0));
-            intent.setPackage(getApplicationContext().getPackageName());
-            Log.d(TAG, "Broadcasting sleep timer: " + Math.max(remainingSleep, 0) + " ms");
-            sendBroadcast(intent);
+            Log.d(TAG, "Posting sleep timer: " + Math.max(remainingSleep, 0) + " ms");
+            EventBus.get().post(AppEvents.SLEEP_TIMER, Math.max(remainingSleep, 0));
 
             sendStatusUpdate("Sleeping: " + (remainingSleep / 60000) + " min " +
                     ((remainingSleep % 60000) / 1000) + " sec left");
@@ -104,7 +97,7 @@ public class ScanningService extends Service {
                 Log.d(TAG, "Sleep timer ended.");
                 isSleeping = false;
                 // Clear persisted sleep state
-                try { getSharedPreferences("app_state", MODE_PRIVATE).edit().remove("sleep_until").apply(); } catch (Exception ignored) {}
+                AppStateStore.get(this).edit().remove(AppStateStore.SLEEP_UNTIL).apply();
                 // After sleep, always start with an initial scan.
                 startInitialScan();
             }
@@ -136,7 +129,7 @@ public class ScanningService extends Service {
                     if (isSleeping) {
                         try { if (currentSleepTimer != null) handler.removeCallbacks(currentSleepTimer); } catch (Exception ignored) {}
                         isSleeping = false;
-                        try { getSharedPreferences("app_state", MODE_PRIVATE).edit().remove("sleep_until").apply(); } catch (Exception ignored) {}
+                        AppStateStore.get(this).edit().remove(AppStateStore.SLEEP_UNTIL).apply();
                         updateNotification("Bluetooth turned off. Sleep cancelled.");
                         sendStatusUpdate("Bluetooth turned off. Sleep cancelled.");
                         // Do not schedule retries here; restart when BT turns ON
@@ -145,6 +138,11 @@ public class ScanningService extends Service {
                     // Not sleeping: stop timers and clear list; do not schedule retries
                     timerHandler.removeCallbacksAndMessages(null);
                     handler.removeCallbacksAndMessages(null);
+                    // An inquiry ends with DISCOVERY_FINISHED; other backends lost their end-of-scan timer just now
+                    if (discovery != null && !discovery.usesInquiry()) {
+                        stopBackend();
+                        isScanning = false;
+                    }
                     foundDevices.clear();
                     broadcastEmptyScanResults();
                     updateNotification("Bluetooth is off. Waiting for it to turn on...");
@@ -186,8 +184,7 @@ public class ScanningService extends Service {
 
         // If we were sleeping before process restart, resume sleeping and do NOT start scanning
         try {
-            android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-            long until = prefs.getLong("sleep_until", 0L);
+            long until = AppStateStore.get(this).getLong(AppStateStore.SLEEP_UNTIL, 0L);
             long now = System.currentTimeMillis();
             if (until > now) {
                 long remaining = until - now;
@@ -206,44 +203,26 @@ public class ScanningService extends Service {
     }
 
     private void saveStatusToPrefs(String status) {
-        android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        prefs.edit().putString("status_text", status == null ? "" : status).apply();
+        AppStateStore.get(this).edit().putString(AppStateStore.STATUS_TEXT, status == null ? "" : status).apply();
     }
 
     private void persistDevices(java.util.List<String> devices) {
-        android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        StringBuilder sb = new StringBuilder();
-        if (devices != null) {
-            for (int i = 0; i < devices.size(); i++) {
-                if (i > 0) sb.append('\n');
-                sb.append(devices.get(i));
-            }
-        }
-        // Newline format (existing readers)
-        prefs.edit().putString("scanned_devices", sb.toString()).apply();
-        // JSON format (backward/forward compatible restore)
-        try {
-            org.json.JSONArray arr = new org.json.JSONArray();
-            if (devices != null) for (String d : devices) arr.put(d);
-            prefs.edit().putString("scanned_devices_json", arr.toString()).apply();
-        } catch (Throwable ignored) {}
+        AppStateStore.get(this).edit()
+                .putStringList(AppStateStore.SCANNED_DEVICES, devices != null ? devices : new ArrayList<>())
+                .apply();
     }
 
     private void broadcastEmptyScanResults() {
-        Intent updateIntent = new Intent(ACTION_SCAN_RESULTS);
-        updateIntent.putStringArrayListExtra("devices", new ArrayList<>());
-        updateIntent.setPackage(getApplicationContext().getPackageName());
-        sendBroadcast(updateIntent);
+        EventBus.get().post(AppEvents.SCAN_RESULTS, AppEvents.snapshot(new ArrayList<>()));
         // Persist empty list
         persistDevices(new ArrayList<>());
     }
 
-    // Create intent filter for Bluetooth discovery events.
+    // Create intent filter for Bluetooth discovery events; found devices come from the DiscoveryBackend
     private IntentFilter createBluetoothIntentFilter() {
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
         filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-        filter.addAction(BluetoothDevice.ACTION_FOUND);
         return filter;
     }
 
@@ -309,22 +288,14 @@ public class ScanningService extends Service {
                 return;
             }
             onScanFinished();
-        } else if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-            if (device != null)
-                processFoundDevice(device);
         }
     }
 
-    // Process a discovered Bluetooth device.
-    private void processFoundDevice(BluetoothDevice device) {
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT)
-                != PackageManager.PERMISSION_GRANTED) {
-            return;
-        }
-        String name = device.getName();
+    // Process a Shimmer reported by the discovery backend.
+    private void processFoundDevice(String mac, String name) {
+        if (isSleeping || !isScanning) return;
         if (name != null && name.startsWith("Shimmer")) {
-            String deviceInfo = name + " - " + device.getAddress();
+            String deviceInfo = name + " - " + mac;
             if (!foundDevices.contains(deviceInfo)) {
                 foundDevices.add(deviceInfo);
                 Log.d(TAG, "Found device: " + deviceInfo);
@@ -334,24 +305,16 @@ public class ScanningService extends Service {
                 persistDevices(foundDevices);
 
                 // Immediately update the UI list so user can select without waiting
-                Intent listIntent = new Intent(ACTION_SCAN_RESULTS);
-                listIntent.putStringArrayListExtra("devices", foundDevices);
-                listIntent.setPackage(getApplicationContext().getPackageName());
-                sendBroadcast(listIntent);
+                EventBus.get().post(AppEvents.SCAN_RESULTS, AppEvents.snapshot(foundDevices));
 
                 // Only stop scanning after two unique Shimmer devices are found
                 if (foundDevices.size() >= 2) {
-                    if (bluetoothAdapter.isDiscovering()) {
-                        bluetoothAdapter.cancelDiscovery();
-                        Log.d(TAG, "Bluetooth discovery cancelled after two Shimmer devices found.");
-                    }
+                    stopBackend();
+                    Log.d(TAG, "Bluetooth discovery cancelled after two Shimmer devices found.");
                     // Stop the scanning timer immediately.
                     timerHandler.removeCallbacksAndMessages(null);
-                    // Broadcast device info via ACTION_TIMER_UPDATE.
-                    Intent infoIntent = new Intent(ACTION_TIMER_UPDATE);
-                    infoIntent.putExtra("device_info", deviceInfo);
-                    infoIntent.setPackage(getApplicationContext().getPackageName());
-                    sendBroadcast(infoIntent);
+                    // Scan is over early; zero the countdown shown in the UI
+                    EventBus.get().post(AppEvents.SCAN_TIMER, 0L);
                     // Proceed to finish the scan process.
                     onScanFinished();
                 }
@@ -374,11 +337,8 @@ public class ScanningService extends Service {
         updateNotification("Scan finished. " + count + " device(s) found");
         sendStatusUpdate("Scan finished. " + count + " device(s) found");
 
-        // Broadcast scan results.
-        Intent updateIntent = new Intent(ACTION_SCAN_RESULTS);
-        updateIntent.putStringArrayListExtra("devices", foundDevices);
-        updateIntent.setPackage(getApplicationContext().getPackageName());
-        sendBroadcast(updateIntent);
+        // Publish scan results.
+        EventBus.get().post(AppEvents.SCAN_RESULTS, AppEvents.snapshot(foundDevices));
         // Persist final list
         persistDevices(foundDevices);
 
@@ -433,21 +393,15 @@ public class ScanningService extends Service {
 
         // Persist sleep end time so we can resume if the process restarts
         try {
-            android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-            prefs.edit().putLong("sleep_until", System.currentTimeMillis() + sleepMs).apply();
+            AppStateStore.get(this).edit().putLong(AppStateStore.SLEEP_UNTIL, System.currentTimeMillis() + sleepMs).apply();
+            // Sleep must survive a process restart; don't wait for the debounce
+            AppStateStore.get(this).flushNow();
         } catch (Exception ignored) {}
 
         // Fully stop any ongoing/queued scan work before scheduling sleep
         try { timerHandler.removeCallbacksAndMessages(null); } catch (Exception ignored) {}
         try { handler.removeCallbacksAndMessages(null); } catch (Exception ignored) {}
-        try {
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-                return;
-            }
-            if (bluetoothAdapter != null && bluetoothAdapter.isDiscovering()) {
-                bluetoothAdapter.cancelDiscovery();
-            }
-        } catch (Exception ignored) {}
+        stopBackend();
 
         // Remove any pending sleep timer callbacks from the previous instance.
         if (currentSleepTimer != null) {
@@ -469,8 +423,7 @@ public class ScanningService extends Service {
         }
         // Extra guard: if persisted sleep_until is still in future, restore sleep state and do not start
         try {
-            android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-            long until = prefs.getLong("sleep_until", 0L);
+            long until = AppStateStore.get(this).getLong(AppStateStore.SLEEP_UNTIL, 0L);
             if (until > System.currentTimeMillis()) {
                 isSleeping = true;
                 Log.d(TAG, "startInitialScan: persisted sleep active; ignoring");
@@ -513,27 +466,44 @@ public class ScanningService extends Service {
                 != PackageManager.PERMISSION_GRANTED) {
             return;
         }
-        if (bluetoothAdapter.isDiscovering()) {
-            bluetoothAdapter.cancelDiscovery();
-        }
+        stopBackend();
         // Reset state for a fresh scan cycle so results broadcast correctly
         scanFinishedHandled = false;
         foundDevices.clear();
-        bluetoothAdapter.startDiscovery();
+        discovery = DiscoveryBackend.create(this, bluetoothAdapter, handler);
         isScanning = true;
-        Log.d(TAG, "Bluetooth discovery started");
+        if (!discovery.start(false, this::processFoundDevice)) {
+            Log.w(TAG, "Could not start " + discovery.name() + " discovery");
+            isScanning = false;
+            discovery = null;
+            return;
+        }
+        Log.d(TAG, "Bluetooth discovery started (" + discovery.name() + ")");
 
         scanStartTime = System.currentTimeMillis();
         timerHandler.post(timerRunnable);
 
+        if (!discovery.usesInquiry()) {
+            // Nothing ends these scans by itself; close the window the way DISCOVERY_FINISHED would
+            handler.postDelayed(() -> {
+                if (!isScanning) return;
+                stopBackend();
+                onScanFinished();
+            }, NON_INQUIRY_SCAN_MS);
+        }
         handler.postDelayed(() -> {
-            if (bluetoothAdapter.isDiscovering()) {
-                bluetoothAdapter.cancelDiscovery();
+            if (isScanning) {
+                stopBackend();
                 Log.d(TAG, "Discovery cancelled after duration expired");
             }
         }, SCAN_DURATION_MS);
     }
 
+    private void stopBackend() {
+        if (discovery != null) discovery.stop();
+        discovery = null;
+    }
+
     // Enable Bluetooth if it’s not enabled, then run onEnabled action.
     private void enableBluetoothIfNeeded(Runnable onEnabled) {
         // Do not try to enable/start scanning while sleeping
@@ -581,23 +551,19 @@ public class ScanningService extends Service {
         }
     }
 
-    // Broadcast a status update.
+    // Publish a status update.
     private void sendStatusUpdate(String status) {
         // Persist status for UI restoration
         saveStatusToPrefs(status);
-        Intent intent = new Intent(ACTION_STATUS_UPDATE);
-        intent.putExtra("status", status);
-        intent.setPackage(getApplicationContext().getPackageName());
-        Log.d(TAG, "Broadcasting status update: " + status);
-        sendBroadcast(intent);
+        Log.d(TAG, "Posting status update: " + status);
+        if (status != null) EventBus.get().post(AppEvents.SCAN_STATUS, status);
     }
 
     private void clearScanStatusState() {
-        android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
         // Keep scanned_devices and status_text so UI can persist across app restarts; only clear volatile timers
-        prefs.edit()
-                .remove("remaining_time")
-                .remove("remaining_sleep")
+        AppStateStore.get(this).edit()
+                .remove(AppStateStore.REMAINING_TIME)
+                .remove(AppStateStore.REMAINING_SLEEP)
                 .apply();
     }
 
@@ -622,7 +588,7 @@ public class ScanningService extends Service {
         if (reset) {
             try { if (currentSleepTimer != null) handler.removeCallbacks(currentSleepTimer); } catch (Exception ignored) {}
             isSleeping = false;
-            try { getSharedPreferences("app_state", MODE_PRIVATE).edit().remove("sleep_until").apply(); } catch (Exception ignored) {}
+            AppStateStore.get(this).edit().remove(AppStateStore.SLEEP_UNTIL).apply();
             hasEverStartedScan = false;
             if (!isScanning) startInitialScan();
             Log.d(TAG, "onStartCommand called (reset)");
@@ -630,8 +596,7 @@ public class ScanningService extends Service {
         }
         // Persisted sleep guard: if still within sleep window, do not start scanning on app reopen
         try {
-            android.content.SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-            long until = prefs.getLong("sleep_until", 0L);
+            long until = AppStateStore.get(this).getLong(AppStateStore.SLEEP_UNTIL, 0L);
             long now = System.currentTimeMillis();
             if (until > now) {
                 isSleeping = true;
@@ -664,17 +629,12 @@ public class ScanningService extends Service {
     public void onDestroy() {
         Log.d(TAG, "Service onDestroy: Cleaning up timers and receivers");
         isServiceActive = false;
+        AppStateStore.get(this).flushNow();
         timerHandler.removeCallbacksAndMessages(null);
         handler.removeCallbacksAndMessages(null);
         try { unregisterReceiver(discoveryReceiver); } catch (Exception ignored) {}
         try { unregisterReceiver(btStateReceiver); } catch (Exception ignored) {}
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN)
-                != PackageManager.PERMISSION_GRANTED) {
-            return;
-        }
-        if (bluetoothAdapter != null && bluetoothAdapter.isDiscovering()) {
-            bluetoothAdapter.cancelDiscovery();
-        }
+        stopBackend();
         //clearScanStatusState();
         super.onDestroy();
     }
@@ -692,13 +652,10 @@ public class ScanningService extends Service {
         long remainingTime = scanDuration;
 
         // Persist remaining time
-        SharedPreferences prefs = getSharedPreferences("app_state", MODE_PRIVATE);
-        prefs.edit().putLong("remaining_time", remainingTime).apply();
+        AppStateStore.get(this).edit().putLong(AppStateStore.REMAINING_TIME, remainingTime).apply();
 
-        // Broadcast remaining time
-        Intent timerIntent = new Intent(ACTION_TIMER_UPDATE);
-        timerIntent.putExtra("remaining_time", remainingTime);
-        sendBroadcast(timerIntent);
+        // Publish remaining time
+        EventBus.get().post(AppEvents.SCAN_TIMER, remainingTime);
 
         // Start the actual scanning process
         enableBluetoothIfNeeded(this::startDiscovery);
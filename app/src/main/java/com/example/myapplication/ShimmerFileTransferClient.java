@@ -5,8 +5,6 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Build;
@@ -31,7 +29,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Handler;
-import java.util.stream.Collectors;
 
 // Import DockingTimestampModel for timestamp support
 import com.example.myapplication.DockingTimestampModel;
@@ -50,8 +47,6 @@ public class ShimmerFileTransferClient {
     private static final String TAG = "ShimmerTransfer";
     private static final String FIREBASE_TAG = "FirebaseLogs";
     private static final String SYNC_TAG = "FileSync";
-    private FirebaseAnalytics firebaseAnalytics;
-    private FirebaseCrashlytics crashlytics;
 
     private final Context context;
     private BluetoothSocket socket = null;
@@ -59,8 +54,15 @@ public class ShimmerFileTransferClient {
     // Constructor
     public ShimmerFileTransferClient(Context ctx) {
         this.context = ctx.getApplicationContext();
-        firebaseAnalytics = FirebaseAnalytics.getInstance(context.getApplicationContext());
-        crashlytics = FirebaseCrashlytics.getInstance();
+    }
+
+    // Firebase is created on first use (see Telemetry), not per client
+    private FirebaseAnalytics analytics() {
+        return Telemetry.analytics(context);
+    }
+
+    private FirebaseCrashlytics crashlytics() {
+        return Telemetry.crashlytics();
     }
 
     // Command identifiers
@@ -83,14 +85,14 @@ public class ShimmerFileTransferClient {
         Log.d(TAG, "Starting file transfer for MAC address: " + macAddress);
         Log.d("DockingManager", "Starting file transfer for MAC address: " + macAddress);
         Log.d(FIREBASE_TAG, "Logging file transfer start to Firebase for MAC address: " + macAddress);
-        crashlytics.log("File transfer started for MAC address: " + macAddress);
+        crashlytics().log("File transfer started for MAC address: " + macAddress);
         if (timestampModel != null) {
             Log.d(TAG, "Using DockingTimestampModel: shimmerRtc=" + timestampModel.shimmerRtc + ", androidRtc=" + timestampModel.androidRtc);
         }
 
         Bundle startBundle = new Bundle();
         startBundle.putString("mac_address", macAddress);
-        firebaseAnalytics.logEvent("file_transfer_started", startBundle);
+        analytics().logEvent("file_transfer_started", startBundle);
 
         boolean allFilesTransferred = false; // track overall success
 
@@ -102,7 +104,7 @@ public class ShimmerFileTransferClient {
                     Log.d(TAG, "Previous socket closed before starting new transfer");
                 } catch (IOException e) {
                     Log.e(TAG, "Error closing previous socket", e);
-                    crashlytics.recordException(e);
+                    crashlytics().recordException(e);
                 }
                 socket = null;
             }
@@ -112,13 +114,8 @@ public class ShimmerFileTransferClient {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S &&
                     context.checkSelfPermission(Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
                 Log.e(TAG, "Missing BLUETOOTH_CONNECT permission. Aborting file transfer.");
-                crashlytics.log("Missing BLUETOOTH_CONNECT permission. Aborting file transfer.");
-                try {
-                    Intent fail = new Intent("com.example.myapplication.TRANSFER_FAILED");
-                    fail.setPackage(context.getPackageName());
-                    fail.putExtra("reason", "missing_bluetooth_connect_permission");
-                    context.sendBroadcast(fail);
-                } catch (Exception ignored) {}
+                crashlytics().log("Missing BLUETOOTH_CONNECT permission. Aborting file transfer.");
+                EventBus.get().post(AppEvents.TRANSFER_FAILED, "missing_bluetooth_connect_permission");
                 return;
             }
 
@@ -135,22 +132,22 @@ public class ShimmerFileTransferClient {
                     connected = true;
                 } catch (IOException e) {
                     Log.e(TAG, "Socket connect attempt " + attempts + " failed.", e);
-                    crashlytics.log("Socket connect attempt " + attempts + " failed");
-                    crashlytics.recordException(e);
+                    crashlytics().log("Socket connect attempt " + attempts + " failed");
+                    crashlytics().recordException(e);
                     if (attempts < 3) Thread.sleep(1000);
                 }
             }
 
             if (!connected) {
                 Log.e(TAG, "Unable to connect to sensor after 3 retries");
-                crashlytics.log("Unable to connect to sensor after 3 retries");
+                crashlytics().log("Unable to connect to sensor after 3 retries");
                 // Centralized UI + retry handling
                 // Update timer
                 uiErrorAndRetry("Failed to connect to sensor. Retrying after 15:00", 60, "connect", macAddress);
                 return;
             }
             Log.d(TAG, "Connected to Shimmer: " + macAddress);
-            crashlytics.log("Connected to Shimmer");
+            crashlytics().log("Connected to Shimmer");
 
             InputStream in = socket.getInputStream();
             OutputStream out = socket.getOutputStream();
@@ -159,7 +156,7 @@ public class ShimmerFileTransferClient {
             out.write(new byte[]{LIST_FILES_COMMAND});
             out.flush();
             Log.d(TAG, "Sent LIST_FILES_COMMAND (D0)");
-            crashlytics.log("Sent LIST_FILES_COMMAND (D0)");
+            crashlytics().log("Sent LIST_FILES_COMMAND (D0)");
 
             int responseId = in.read();
             while (responseId == 0xFF) {
@@ -167,50 +164,43 @@ public class ShimmerFileTransferClient {
             }
             if (responseId != (FILE_LIST_RESPONSE & 0xFF)) {
                 Log.e(TAG, "Expected FILE_LIST_RESPONSE (D3) but got: " + String.format("%02X", responseId));
-                crashlytics.log("Expected FILE_LIST_RESPONSE (D3) but got: " + String.format("%02X", responseId));
+                crashlytics().log("Expected FILE_LIST_RESPONSE (D3) but got: " + String.format("%02X", responseId));
 
                 uiErrorAndRetry("Unexpected header, restarting after 1:00", 60, "unexpected_header", macAddress);
                 return;
             }
             int fileCount = in.read() & 0xFF;
             Log.d(TAG, "FILE_LIST_RESPONSE: File count = " + fileCount);
-            crashlytics.log("FILE_LIST_RESPONSE: File count = " + fileCount);
+            crashlytics().log("FILE_LIST_RESPONSE: File count = " + fileCount);
 
             // Log file count to Firebase Analytics
             Bundle fileCountBundle = new Bundle();
             fileCountBundle.putString("mac_address", macAddress);
             fileCountBundle.putInt("file_count", fileCount);
-            firebaseAnalytics.logEvent("file_count_received", fileCountBundle);
+            analytics().logEvent("file_count_received", fileCountBundle);
 
             if (fileCount <= 0) {
                 Log.e(TAG, "No files available for transfer");
-                crashlytics.log("No files available for transfer");
-                // Send TRANSFER_DONE broadcast even if no files
-                Intent doneIntent = new Intent("com.example.myapplication.TRANSFER_DONE");
-                doneIntent.setPackage(context.getPackageName());
-                context.sendBroadcast(doneIntent);
+                crashlytics().log("No files available for transfer");
+                // Report TRANSFER_DONE even if no files
+                EventBus.get().post(AppEvents.TRANSFER_DONE, macAddress);
                 return;
             }
 
             // --- STEP 3: Transfer Each File ---
             // Before starting the file transfer loop
-            Intent progressIntent = new Intent("com.example.myapplication.TRANSFER_PROGRESS");
-            progressIntent.setPackage(context.getPackageName());
-            progressIntent.putExtra("progress", 0);
-            progressIntent.putExtra("total", fileCount);
-            progressIntent.putExtra("filename", "");
-            context.getApplicationContext().sendBroadcast(progressIntent);
+            EventBus.get().post(AppEvents.TRANSFER_PROGRESS, new AppEvents.TransferProgress(0, fileCount, ""));
 
             for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
                 Log.d(TAG, "Processing file index: " + fileIndex);
                 Log.d(FIREBASE_TAG, "Logging file processing start to Firebase for file index: " + fileIndex);
-                crashlytics.log("Processing file index: " + fileIndex);
+                crashlytics().log("Processing file index: " + fileIndex);
 
                 // Log file processing start to Firebase Analytics
                 Bundle fileStartBundle = new Bundle();
                 fileStartBundle.putString("mac_address", macAddress);
                 fileStartBundle.putInt("file_index", fileIndex);
-                firebaseAnalytics.logEvent("file_processing_started", fileStartBundle);
+                analytics().logEvent("file_processing_started", fileStartBundle);
 
                 // Send TRANSFER_FILE_COMMAND
                 out.write(new byte[]{TRANSFER_FILE_COMMAND});
@@ -267,15 +257,27 @@ public class ShimmerFileTransferClient {
                 fileMetadataBundle.putInt("file_size", totalFileSize);
                 fileMetadataBundle.putInt("chunk_size", chunkSize);
                 fileMetadataBundle.putInt("total_chunks", totalChunks);
-                firebaseAnalytics.logEvent("file_metadata_received", fileMetadataBundle);
+                analytics().logEvent("file_metadata_received", fileMetadataBundle);
 
                 // Log metadata to Crashlytics
-                crashlytics.setCustomKey("file_name", relativeFilename);
-                crashlytics.setCustomKey("file_size", totalFileSize);
-                crashlytics.setCustomKey("chunk_size", chunkSize);
-                crashlytics.setCustomKey("total_chunks", totalChunks);
+                crashlytics().setCustomKey("file_name", relativeFilename);
+                crashlytics().setCustomKey("file_size", totalFileSize);
+                crashlytics().setCustomKey("chunk_size", chunkSize);
+                crashlytics().setCustomKey("total_chunks", totalChunks);
+
+                // Make room (evicting uploaded recordings if needed) before the sensor starts streaming
+                if (!new StorageQuotaManager(context).ensureSpaceForTransfer(totalFileSize & 0xFFFFFFFFL, totalChunks)) {
+                    Log.e(TAG, "Not enough storage for " + relativeFilename + " (" + totalFileSize + " bytes); deferring transfer.");
+                    Bundle storageBundle = new Bundle();
+                    storageBundle.putString("mac_address", macAddress);
+                    storageBundle.putInt("file_size", totalFileSize);
+                    analytics().logEvent("transfer_deferred_storage", storageBundle);
+                    uiErrorAndRetry("Phone storage full. Transfer deferred until files are uploaded.", 60, "storage", macAddress);
+                    return;
+                }
 
                 // Send READY_FOR_CHUNKS_COMMAND
+                long transferStartedAt = android.os.SystemClock.elapsedRealtime();
                 out.write(new byte[]{READY_FOR_CHUNKS_COMMAND});
                 out.flush();
                 Log.d(TAG, "Sent READY_FOR_CHUNKS_COMMAND (0xD2)");
@@ -284,7 +286,8 @@ public class ShimmerFileTransferClient {
                 // Get username and timestamp ONCE per file
                 String phoneMac = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
                 if (phoneMac == null || phoneMac.isEmpty()) phoneMac = "user";
-                String timestamp = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", java.util.Locale.US).format(new java.util.Date());
+                long receivedAt = System.currentTimeMillis();
+                String timestamp = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", java.util.Locale.US).format(new java.util.Date(receivedAt));
                 String baseName = new File(relativeFilename).getName();
                 // Output filename: <phoneMac>__<timestamp>__<experimentName>__<shimmerID>__<baseName>.txt
                 String experimentName = experimentTag != null ? experimentTag : "";
@@ -309,8 +312,12 @@ public class ShimmerFileTransferClient {
                 File outputFile = new File(dataDir, newFilename);
 
                 // Create the file
-                File debugFile = new File(context.getFilesDir(), "debug_log.txt");
+                File debugFile = new File(context.getFilesDir(), StorageQuotaManager.DEBUG_LOG_NAME);
                 boolean transferSuccess = false; // Track transfer status
+                // Content hash of the sensor payload, computed incrementally as chunks arrive
+                // (before the RTC header stamp, so re-received copies of a file hash the same)
+                java.security.MessageDigest contentDigest = newContentDigest();
+                long contentSize = 0L;
 
                 // Write timestamp header if available
                 try (java.io.FileOutputStream binaryWriter = new java.io.FileOutputStream(outputFile);
@@ -343,10 +350,7 @@ public class ShimmerFileTransferClient {
                                 Log.w(TAG, "Unexpected header packet received: " + String.format("%02X", packetId));
                                 // Delete incomplete file and DB entry
                                 if (outputFile.exists()) outputFile.delete();
-                                FileMetaDatabaseHelper dbHelper = new FileMetaDatabaseHelper(context);
-                                SQLiteDatabase db = dbHelper.getWritableDatabase();
-                                db.delete("files", "FILE_PATH=?", new String[]{outputFile.getAbsolutePath()});
-                                db.close();
+                                FileMetaRepository.get(context).deleteByPath(outputFile);
 
                                 uiErrorAndRetry("Unexpected header, restarting after 1:00", 60, "unexpected_header", macAddress);
                                 return;
@@ -365,6 +369,8 @@ public class ShimmerFileTransferClient {
 
                             // Write raw binary data to the output file
                             binaryWriter.write(chunkData);
+                            contentDigest.update(chunkData);
+                            contentSize += chunkData.length;
 
                             // Write raw hexadecimal data to the debug file with header
                             StringBuilder hexLine = new StringBuilder();
@@ -423,10 +429,7 @@ public class ShimmerFileTransferClient {
                             Log.e(TAG, "No response after 2 ACK retries. Scheduling transfer restart in 1 minute.");
                             // Delete incomplete file and DB entry
                             if (outputFile.exists()) outputFile.delete();
-                            FileMetaDatabaseHelper dbHelper = new FileMetaDatabaseHelper(context);
-                            SQLiteDatabase db = dbHelper.getWritableDatabase();
-                            db.delete("files", "FILE_PATH=?", new String[]{outputFile.getAbsolutePath()});
-                            db.close();
+                            FileMetaRepository.get(context).deleteByPath(outputFile);
 
                             uiErrorAndRetry("No response from sensor, restarting after 1:00", 60, "ack_timeout", macAddress);
                             return; // Exit the transfer method
@@ -438,7 +441,7 @@ public class ShimmerFileTransferClient {
                         progressBundle.putString("mac_address", macAddress);
                         progressBundle.putInt("chunks_processed", chunksProcessed);
                         progressBundle.putInt("total_chunks", totalChunks);
-                        firebaseAnalytics.logEvent("file_transfer_progress", progressBundle);
+                        analytics().logEvent("file_transfer_progress", progressBundle);
 
                         // Restart transfer if chunks are invalid
                         if (!chunksAreValid) {
@@ -474,7 +477,7 @@ public class ShimmerFileTransferClient {
                 } catch (IOException e) {
                     Log.e(TAG, "!!! CHUNK-LEVEL IOException. Hard failure during active file writing.");
                     Log.e(TAG, "Error during file transfer: " + e.getMessage(), e);
-                    crashlytics.recordException(e);
+                    crashlytics().recordException(e);
 
                     uiErrorAndRetry("Bluetooth disconnected. Restarting after 1:00", 60, "io", macAddress);
 
@@ -533,22 +536,41 @@ public class ShimmerFileTransferClient {
                     }
                     Log.d(TAG,"Added file to DB: " + outputFile.getAbsolutePath());
 
-                    FileMetaDatabaseHelper dbHelper = new FileMetaDatabaseHelper(context);
-                    SQLiteDatabase db = dbHelper.getWritableDatabase();
-                    android.content.ContentValues values = new android.content.ContentValues();
-                    values.put("TIMESTAMP", timestamp);
-                    values.put("FILE_PATH", outputFile.getAbsolutePath());
-                    values.put("SYNCED", 0);
-                    db.insert("files", null, values);
-                    db.close();
+                    String contentHash = toHex(contentDigest.digest());
+                    FileMetaRepository repo = FileMetaRepository.get(context);
+                    long duplicateOf = repo.findByContent(contentHash, contentSize, outputFile.getAbsolutePath());
+                    FileRecord record = new FileRecord();
+                    record.filePath = outputFile.getAbsolutePath();
+                    record.receivedAt = receivedAt;
+                    record.contentSha256 = contentHash;
+                    record.contentSize = contentSize;
+                    // Same sensor file received again: keep the record (as synced), never upload it twice
+                    record.duplicateOf = Math.max(duplicateOf, 0L);
+                    record.originalName = relativeFilename;
+                    record.fileSize = totalFileSize & 0xFFFFFFFFL;
+                    record.chunkSize = chunkSize;
+                    record.chunkCount = totalChunks;
+                    record.protocolVersion = protocolVersion;
+                    record.sourceMac = macAddress;
+                    record.shimmerId = shimmerIDTag;
+                    record.experiment = experimentTag;
+                    if (timestampModel != null) {
+                        record.shimmerRtc = timestampModel.shimmerRtc;
+                        record.androidRtc = timestampModel.androidRtc;
+                    }
+                    record.transferMs = android.os.SystemClock.elapsedRealtime() - transferStartedAt;
+                    repo.insertReceived(record);
+
+                    if (duplicateOf > 0) {
+                        Log.d(SYNC_TAG, "Duplicate of file #" + duplicateOf + " (sha256=" + contentHash + ", size=" + contentSize + "); not queued for upload: " + newFilename);
+                    } else {
+                        // Queue the upload durably; the job drains whenever connectivity allows
+                        new UploadJobQueue(context).enqueue(outputFile);
+                    }
                 }
 
-                progressIntent = new Intent("com.example.myapplication.TRANSFER_PROGRESS");
-                progressIntent.setPackage(context.getPackageName());
-                progressIntent.putExtra("progress", fileIndex + 1);
-                progressIntent.putExtra("total", fileCount);
-                progressIntent.putExtra("filename", newFilename);
-                context.getApplicationContext().sendBroadcast(progressIntent);
+                EventBus.get().post(AppEvents.TRANSFER_PROGRESS,
+                        new AppEvents.TransferProgress(fileIndex + 1, fileCount, newFilename));
             }
             // If we completed the loop without returning, mark overall success
             allFilesTransferred = true;
@@ -556,13 +578,13 @@ public class ShimmerFileTransferClient {
         } catch (IOException | InterruptedException e) {
             Log.e(TAG, "!!! TOP-LEVEL IOException. Hard failure outside the file writing loop.");
             Log.e(TAG, "Error during file transfer: " + e.getMessage(), e);
-            crashlytics.log("Error during file transfer: " + e.getMessage());
-            crashlytics.recordException(e);
+            crashlytics().log("Error during file transfer: " + e.getMessage());
+            crashlytics().recordException(e);
 
             Bundle transferErrorBundle = new Bundle();
             transferErrorBundle.putString("mac_address", macAddress);
             transferErrorBundle.putString("error_message", e.getMessage());
-            firebaseAnalytics.logEvent("file_transfer_error", transferErrorBundle);
+            analytics().logEvent("file_transfer_error", transferErrorBundle);
 
             uiErrorAndRetry(e.getMessage(), 5, "top_level", macAddress);
         } finally {
@@ -572,20 +594,36 @@ public class ShimmerFileTransferClient {
                     socket.close();
                     Log.d(TAG, "Socket closed after file transfer operation");
                 } catch (IOException ignored) {
-                    crashlytics.log("Error closing socket after file transfer");
+                    crashlytics().log("Error closing socket after file transfer");
                 }
                 socket = null;
             }
 
-            // Only broadcast TRANSFER_DONE and upload to S3 if everything actually succeeded
+            // Only report TRANSFER_DONE and upload to S3 if everything actually succeeded
             if (allFilesTransferred) {
-                Intent doneIntent = new Intent("com.example.myapplication.TRANSFER_DONE");
-                doneIntent.setPackage(context.getPackageName());
-                context.sendBroadcast(doneIntent);
+                UploadJobQueue.schedule(context);
+                // The final progress post is still delivered; new subscribers shouldn't replay it
+                EventBus.get().clear(AppEvents.TRANSFER_PROGRESS);
+                EventBus.get().post(AppEvents.TRANSFER_DONE, macAddress);
             }
         }
     }
 
+    private static java.security.MessageDigest newContentDigest() {
+        try {
+            return java.security.MessageDigest.getInstance("SHA-256");
+        } catch (java.security.NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory on every Android release
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
     private byte[] readExact(InputStream in, int len) throws IOException {
         byte[] buffer = new byte[len];
         int totalRead = 0;
@@ -618,32 +656,115 @@ public class ShimmerFileTransferClient {
 
     public List<File> getLocalUnsyncedFiles() {
         Log.d(SYNC_TAG, "Querying local DB for unsynced files...");
-        FileMetaDatabaseHelper dbHelper = new FileMetaDatabaseHelper(context);
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        List<File> unsyncedFiles = new ArrayList<>();
-        try (android.database.Cursor cursor = db.query("files", new String[]{"FILE_PATH"}, "SYNCED=0", null, null, null, null)) {
-            while (cursor.moveToNext()) {
-                String path = cursor.getString(0);
-                File file = new File(path);
-                if (file.exists()) {
-                    unsyncedFiles.add(file);
-                    Log.d(SYNC_TAG, " Unsynced file: " + file.getName());
-                }
-                else {
-                    Log.w(SYNC_TAG, "File listed in DB but does not exist on disk: " + path);
-                    db.delete("files", "FILE_PATH=?", new String[]{path});
-                }
-            }
+        List<File> unsyncedFiles = FileMetaRepository.get(context).listUnsynced();
+        for (File file : unsyncedFiles) {
+            Log.d(SYNC_TAG, " Unsynced file: " + file.getName());
         }
-        db.close();
         return unsyncedFiles;
     }
 
+    /**
+     * Returns the names of the given files that the server does not have yet. Files with a stored
+     * content hash are checked by (sha256, size), so renamed or re-received copies are recognised;
+     * files from before hashing was introduced fall back to the name-based check. Returns null
+     * when the server could not answer, so the caller can tell "all missing" from "unknown".
+     */
     public List<String> getMissingFilesOnS3(List<File> localFiles) {
         Log.d(SYNC_TAG, "Checking which of " + localFiles.size() + " local files are missing on S3...");
         List<String> missing = new ArrayList<>();
         if (localFiles.isEmpty()) return missing;
 
+        java.util.Map<String, String[]> contentKeys = loadContentKeys(localFiles);
+        List<File> byHash = new ArrayList<>();
+        List<File> byName = new ArrayList<>();
+        for (File file : localFiles) {
+            if (contentKeys.containsKey(file.getAbsolutePath())) byHash.add(file); else byName.add(file);
+        }
+
+        if (!byHash.isEmpty()) {
+            List<String> missingByHash = getMissingByContentOnS3(byHash, contentKeys);
+            if (missingByHash != null) {
+                missing.addAll(missingByHash);
+            } else {
+                // Hash endpoint unavailable: fall back to names for everything
+                byName.addAll(byHash);
+            }
+        }
+        if (!byName.isEmpty()) {
+            List<String> missingByName = getMissingByNameOnS3(byName);
+            if (missingByName == null) return null;
+            missing.addAll(missingByName);
+        }
+        Log.d(SYNC_TAG, "Found " + missing.size() + " files missing on S3.");
+        return missing;
+    }
+
+    // FILE_PATH -> {sha256, size} for the given files that have a content hash recorded
+    private java.util.Map<String, String[]> loadContentKeys(List<File> files) {
+        java.util.Set<String> wanted = new java.util.HashSet<>();
+        for (File f : files) wanted.add(f.getAbsolutePath());
+        java.util.Map<String, String[]> keys = new java.util.HashMap<>();
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        try (android.database.Cursor cursor = db.query("files",
+                new String[]{"FILE_PATH", "CONTENT_SHA256", "CONTENT_SIZE"},
+                "SYNCED=0 AND CONTENT_SHA256 IS NOT NULL", null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(0);
+                if (wanted.contains(path)) {
+                    keys.put(path, new String[]{cursor.getString(1), String.valueOf(cursor.getLong(2))});
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Returns null if the content-keyed endpoint could not answer, so the caller can fall back
+    private List<String> getMissingByContentOnS3(List<File> files, java.util.Map<String, String[]> contentKeys) {
+        try {
+            OkHttpClient client = new OkHttpClient();
+            JSONArray entries = new JSONArray();
+            java.util.Map<String, List<String>> namesByKey = new java.util.HashMap<>();
+            for (File file : files) {
+                String[] key = contentKeys.get(file.getAbsolutePath());
+                JSONObject entry = new JSONObject();
+                entry.put("sha256", key[0]);
+                entry.put("size", Long.parseLong(key[1]));
+                entry.put("filename", file.getName());
+                entries.put(entry);
+                namesByKey.computeIfAbsent(key[0] + ":" + key[1], k -> new ArrayList<>()).add(file.getName());
+            }
+
+            RequestBody body = RequestBody.create(entries.toString(), MediaType.parse("application/json"));
+            Request request = new Request.Builder()
+                    .url("https://odb777ddnc.execute-api.us-east-2.amazonaws.com/missing-hashes/")
+                    .post(body)
+                    .build();
+
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful() || response.body() == null) {
+                    Log.w(SYNC_TAG, "Hash-based missing check unavailable, server responded with: " + response.code());
+                    return null;
+                }
+                JSONObject result = new JSONObject(response.body().string());
+                JSONArray missingArr = result.getJSONArray("missing");
+                List<String> missing = new ArrayList<>();
+                for (int i = 0; i < missingArr.length(); i++) {
+                    JSONObject m = missingArr.getJSONObject(i);
+                    List<String> names = namesByKey.get(m.getString("sha256") + ":" + m.getLong("size"));
+                    // Every local copy of missing content is missing; SyncPlanner decides which one uploads
+                    if (names != null) missing.addAll(names);
+                }
+                return missing;
+            }
+        } catch (Exception e) {
+            Log.e(SYNC_TAG, "Error in hash-based missing check: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Returns null if the server could not answer
+    private List<String> getMissingByNameOnS3(List<File> localFiles) {
+        List<String> missing = new ArrayList<>();
         try {
             OkHttpClient client = new OkHttpClient();
             JSONArray filenames = new JSONArray();
@@ -658,28 +779,35 @@ public class ShimmerFileTransferClient {
             Response response = client.newCall(request).execute();
             if (!response.isSuccessful() || response.body() == null) {
                 Log.e(SYNC_TAG, "Error checking missing files, server responded with: " + response.code());
-                return localFiles.stream().map(File::getName).collect(Collectors.toList());
+                return null;
             }
             JSONObject result = new JSONObject(response.body().string());
               JSONArray missingArr = result.getJSONArray("missing_files");
             for (int i = 0; i < missingArr.length(); i++) {
                 missing.add(missingArr.getString(i));
             }
-            Log.d(SYNC_TAG, "Found " + missing.size() + " files missing on S3.");
         } catch (Exception e) {
             Log.e(SYNC_TAG, "Error checking missing files: " + e.getMessage());
-            // Do not Toast from background; signal by returning all files as missing
-            // This prevents them from being incorrectly marked as synced.
-            return localFiles.stream().map(File::getName).collect(Collectors.toList());
+            // Do not Toast from background; the caller treats an unanswered check as all missing
+            return null;
         }
         return missing;
     }
 
-    private void notifyBackendDecodeAndStore(String fileName) {
+    private void notifyBackendDecodeAndStore(String fileName, String contentEncoding, FileRecord record) {
         OkHttpClient client = new OkHttpClient();
         try {
             JSONObject body = new JSONObject();
             body.put("full_file_name", fileName);
+            // Content key for /missing-hashes/, so later checks recognise this object
+            if (record != null && record.contentSha256 != null) {
+                body.put("sha256", record.contentSha256);
+                body.put("size", record.contentSize);
+            }
+            // Only sent for opted-in compression, so an unchanged backend sees the old request
+            if (!UploadCompressor.CODEC_IDENTITY.equals(contentEncoding)) {
+                body.put("content_encoding", contentEncoding);
+            }
             RequestBody reqBody = RequestBody.create(body.toString(), MediaType.parse("application/json"));
             Request request = new Request.Builder()
                     .url("https://odb777ddnc.execute-api.us-east-2.amazonaws.com/decode-and-store/")
@@ -702,9 +830,18 @@ public class ShimmerFileTransferClient {
         Log.d(SYNC_TAG, "Starting S3 upload for: " + file.getName());
         Log.d(SYNC_TAG, "File sync TRIGGERED from uploadFileToS3 for: " + file.getAbsolutePath());
         OkHttpClient client = new OkHttpClient();
+        UploadCompressor.Result encoded = null;
         try {
+            // The content hash covers the sensor payload as received, not the RTC fields stamped into
+            // the stored file afterwards, so it travels alongside the object instead of being derived
+            // from it on the server
+            FileRecord record = FileMetaRepository.get(context).findByPath(file.getAbsolutePath());
+            String urlStr = "https://odb777ddnc.execute-api.us-east-2.amazonaws.com/generate-upload-url/?filename=" + file.getName();
+            if (record != null && record.contentSha256 != null) {
+                urlStr += "&sha256=" + record.contentSha256 + "&size=" + record.contentSize;
+            }
             Request getUrlRequest = new Request.Builder()
-                    .url("https://odb777ddnc.execute-api.us-east-2.amazonaws.com/generate-upload-url/?filename=" + file.getName())
+                    .url(urlStr)
                     .get()
                     .build();
 
@@ -717,14 +854,24 @@ public class ShimmerFileTransferClient {
                 uploadUrl = new JSONObject(getUrlResponse.body().string()).getString("upload_url");
             }
 
-            RequestBody fileBody = RequestBody.create(file, MediaType.parse("text/plain"));
-            Request uploadRequest = new Request.Builder().url(uploadUrl).put(fileBody).build();
+            // Optional single-pass compression; the object keeps its name, the encoding travels in the header
+            encoded = UploadCompressor.encode(file, new File(context.getCacheDir(), "upload"),
+                    UploadCompressor.configuredCodec(context), UploadCompressor.configuredLevel(context));
+
+            RequestBody fileBody = RequestBody.create(encoded.file, MediaType.parse("text/plain"));
+            Request.Builder uploadBuilder = new Request.Builder().url(uploadUrl).put(fileBody);
+            if (encoded.isCompressed()) {
+                uploadBuilder.header("Content-Encoding", encoded.codec);
+            }
+            Request uploadRequest = uploadBuilder.build();
 
             try (Response uploadResponse = client.newCall(uploadRequest).execute()) {
                 if (uploadResponse.isSuccessful()) {
-                    Log.d(SYNC_TAG, "S3 upload successful for: " + file.getName());
+                    Log.d(SYNC_TAG, "S3 upload successful for: " + file.getName() + " (" + encoded.codec + ", " + encoded.encodedSize + "/" + encoded.originalSize + " bytes)");
+                    // Recorded only once the object is actually stored that way
+                    recordUploadEncoding(file, encoded.codec, encoded.encodedSize);
                     // NEW: Notify backend to decode and store metadata
-                    notifyBackendDecodeAndStore(file.getName());
+                    notifyBackendDecodeAndStore(file.getName(), encoded.codec, record);
                     return true;
                 } else {
                     Log.e(SYNC_TAG, "S3 upload failed with code: " + uploadResponse.code());
@@ -733,64 +880,65 @@ public class ShimmerFileTransferClient {
             }
         } catch (Exception e) {
             Log.e(SYNC_TAG, "Exception during S3 upload: " + e.getMessage(), e);
-            crashlytics.recordException(e);
+            crashlytics().recordException(e);
             // Do not Toast from background thread
             return false;
+        } finally {
+            if (encoded != null) encoded.cleanup();
         }
     }
 
+    private void recordUploadEncoding(File file, String codec, long compressedSize) {
+        FileMetaRepository.get(context).recordUploadEncoding(file, codec, compressedSize);
+    }
+
     public void markFileAsSynced(File file) {
         Log.d(SYNC_TAG, "Marking file as synced in DB: " + file.getName());
-        FileMetaDatabaseHelper dbHelper = new FileMetaDatabaseHelper(context);
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        android.content.ContentValues values = new android.content.ContentValues();
-        values.put("SYNCED", 1);
-        db.update("files", values, "FILE_PATH=?", new String[]{file.getAbsolutePath()});
-        db.close();
+        FileMetaRepository.get(context).markSynced(file);
+        // Whichever path synced it, the queued upload job is no longer needed
+        new UploadJobQueue(context).markSucceeded(file);
+    }
+
+    // Batch form of markFileAsSynced: one transaction for the rows and one for the queued jobs
+    public void markFilesAsSynced(List<File> files) {
+        if (files.isEmpty()) return;
+        Log.d(SYNC_TAG, "Marking " + files.size() + " file(s) as synced in DB.");
+        FileMetaRepository.get(context).markSynced(files);
+        new UploadJobQueue(context).markSucceeded(files);
     }
 
     /**
-     * Clears transfer progress from SharedPreferences and sends a broadcast to update the UI.
+     * Clears transfer progress from the app state store and posts a TRANSFER_ERROR event to update the UI.
      * @param message The error message to display.
      * @param retrySeconds The number of seconds until a retry will be attempted.
      */
     private void clearTransferProgressStateAndNotifyUI(String message, int retrySeconds) {
         Log.d(TAG, "[CLEAR_STATE] Clearing transfer progress state (reason: " + message + ")");
-        SharedPreferences prefs = context.getSharedPreferences("app_state", Context.MODE_PRIVATE);
-        prefs.edit()
-            .remove("transfer_progress")
-            .remove("transfer_total")
-            .remove("transfer_filename")
-            .remove("progress_visibility")
+        AppStateStore.get(context).edit()
+            .remove(AppStateStore.TRANSFER_PROGRESS)
+            .remove(AppStateStore.TRANSFER_TOTAL)
+            .remove(AppStateStore.TRANSFER_FILENAME)
+            .remove(AppStateStore.PROGRESS_VISIBILITY)
             .apply();
 
-        Intent intent = new Intent("com.example.myapplication.TRANSFER_ERROR");
-        intent.setPackage(context.getPackageName());
-        intent.putExtra("error_message", message);
-        intent.putExtra("retry_seconds", retrySeconds);
-        context.getApplicationContext().sendBroadcast(intent);
+        EventBus.get().clear(AppEvents.TRANSFER_PROGRESS);
+        EventBus.get().post(AppEvents.TRANSFER_ERROR, new AppEvents.TransferError(message, retrySeconds));
     }
 
-    // Central helper: reflect UI error, schedule retry, and broadcast failure reason
+    // Central helper: reflect UI error, schedule retry, and report failure reason
     private void uiErrorAndRetry(String message, int retrySeconds, String reason, String macAddress) {
     clearTransferProgressStateAndNotifyUI(message, retrySeconds);
-        try {
-            Intent fail = new Intent("com.example.myapplication.TRANSFER_FAILED");
-            fail.setPackage(context.getPackageName());
-            if (reason != null) fail.putExtra("reason", reason);
-            context.sendBroadcast(fail);
-        } catch (Exception ignored) {}
+        EventBus.get().post(AppEvents.TRANSFER_FAILED, reason != null ? reason : "unknown");
     }
 
     // Persist transfer state so UI can restore after app reopen
     private void persistTransferState(String status, String error, int retrySeconds, String mac) {
         try {
-            android.content.SharedPreferences prefs = context.getSharedPreferences("app_state", android.content.Context.MODE_PRIVATE);
-            android.content.SharedPreferences.Editor ed = prefs.edit();
-            if (status != null) ed.putString("transfer_status", status); // running | failed | success | idle
-            if (error != null) ed.putString("transfer_error", error); else ed.remove("transfer_error");
-            ed.putInt("transfer_retry_sec", Math.max(0, retrySeconds));
-            if (mac != null) ed.putString("transfer_mac", mac);
+            AppStateStore.Editor ed = AppStateStore.get(context).edit();
+            if (status != null) ed.putString(AppStateStore.TRANSFER_STATUS, status); // running | failed | success | idle
+            if (error != null) ed.putString(AppStateStore.TRANSFER_ERROR, error); else ed.remove(AppStateStore.TRANSFER_ERROR);
+            ed.putInt(AppStateStore.TRANSFER_RETRY_SEC, Math.max(0, retrySeconds));
+            if (mac != null) ed.putString(AppStateStore.TRANSFER_MAC, mac);
             ed.apply();
         } catch (Throwable ignored) {}
     }
@@ -825,11 +973,8 @@ public class ShimmerFileTransferClient {
     }
 
     private void broadcastFailure(String reason) {
-        Log.e(TAG,  "Broadcasting failure: " + reason);
-        Intent i = new Intent(DockingService.ACTION_TRANSFER_FAILED);
-        i.setPackage(context.getPackageName());
-        i.putExtra("reason", reason);
-        context.sendBroadcast(i);
+        Log.e(TAG,  "Reporting failure: " + reason);
+        EventBus.get().post(AppEvents.TRANSFER_FAILED, reason != null ? reason : "unknown");
     }
 
     public void forceStop() {
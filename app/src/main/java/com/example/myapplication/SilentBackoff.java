@@ -0,0 +1,154 @@
+package com.example.myapplication;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How long the docking protocol stays silent after a failure, and how many silent cycles a device
+ * gets before the protocol rotates to the next one. Both depend on why the cycle failed and on the
+ * device's recent history: a missed ACK is usually transient and worth a quick retry, while a
+ * sensor that keeps answering "undocked" is probably still on someone's wrist.
+ *
+ * History is a per device, per reason count of consecutive failures, kept in a {@link Store} so it
+ * carries over to the next night (DeviceBackoffStore on the phone, {@link MemoryStore} in the
+ * simulator). A transfer success clears the device's counts; a docked answer clears its
+ * undocked/not-seen counts. Counts older than HISTORY_HALF_LIFE_MS are halved before use.
+ *
+ * Pure Java, called only from the protocol thread.
+ */
+public class SilentBackoff {
+
+    public enum Reason {
+        // Per-device failures: wait = min(cap, base * 2^(consecutive - 1))
+        ACK_TIMEOUT(10 * 1000L, 60 * 1000L, 4),
+        CONNECT_FAILED(15 * 1000L, 2 * 60 * 1000L, 4),
+        TRANSFER_FAILED(30 * 1000L, 5 * 60 * 1000L, 3),
+        NOT_SEEN(60 * 1000L, 3 * 60 * 1000L, 2),
+        UNDOCKED(60 * 1000L, 3 * 60 * 1000L, 1),
+        // Not about a device: always Config.silentStateDurationMs
+        BLUETOOTH_OFF,
+        NO_PERMISSION,
+        NOTHING_FOUND,
+        WAITING_FOR_DEVICES,
+        FORCED;
+
+        final long baseMs;
+        final long capMs;
+        final int retriesBeforeRotate;
+
+        Reason() {
+            this(0L, 0L, 0);
+        }
+
+        Reason(long baseMs, long capMs, int retriesBeforeRotate) {
+            this.baseMs = baseMs;
+            this.capMs = capMs;
+            this.retriesBeforeRotate = retriesBeforeRotate;
+        }
+
+        public boolean perDevice() {
+            return baseMs > 0;
+        }
+
+        // Maps the reason strings ShimmerFileTransferClient posts on TRANSFER_FAILED
+        public static Reason fromTransferFailure(String reason) {
+            if ("ack_timeout".equals(reason)) return ACK_TIMEOUT;
+            if ("connect".equals(reason)) return CONNECT_FAILED;
+            return TRANSFER_FAILED;
+        }
+    }
+
+    public static final class Record {
+        public final int consecutive;
+        public final int total;
+        public final long lastAt;
+
+        public Record(int consecutive, int total, long lastAt) {
+            this.consecutive = consecutive;
+            this.total = total;
+            this.lastAt = lastAt;
+        }
+    }
+
+    public interface Store {
+        Record get(String mac, Reason reason);      // null if never seen
+        void put(String mac, Reason reason, Record record);
+        void clearConsecutive(String mac, Reason... reasons); // all reasons when empty
+    }
+
+    private static final long HISTORY_HALF_LIFE_MS = 12 * 60 * 60 * 1000L;
+
+    private final DockingProtocol.Config config;
+    private final Store store;
+
+    public SilentBackoff(DockingProtocol.Config config, Store store) {
+        this.config = config;
+        this.store = store;
+    }
+
+    /** Records the failure and returns how long to stay silent. */
+    public long onFailure(String mac, Reason reason, long now) {
+        if (mac == null || !reason.perDevice()) return config.silentStateDurationMs;
+        Record prev = store.get(mac, reason);
+        int consecutive = 1;
+        int total = 1;
+        if (prev != null) {
+            int carried = now - prev.lastAt > HISTORY_HALF_LIFE_MS ? prev.consecutive / 2 : prev.consecutive;
+            consecutive = carried + 1;
+            total = prev.total + 1;
+        }
+        store.put(mac, reason, new Record(consecutive, total, now));
+        return waitFor(reason, consecutive);
+    }
+
+    // Silent cycles the device gets for this reason before the protocol moves on to the next one
+    public int retriesBeforeRotate(Reason reason) {
+        return reason != null && reason.perDevice() ? reason.retriesBeforeRotate : 2;
+    }
+
+    public void onDocked(String mac) {
+        store.clearConsecutive(mac, Reason.UNDOCKED, Reason.NOT_SEEN);
+    }
+
+    public void onTransferDone(String mac) {
+        store.clearConsecutive(mac);
+    }
+
+    static long waitFor(Reason reason, int consecutive) {
+        int doublings = Math.min(Math.max(consecutive - 1, 0), 16);
+        return Math.min(reason.capMs, reason.baseMs << doublings);
+    }
+
+    /** Store that lives as long as the object; history across nights needs one instance for all. */
+    public static final class MemoryStore implements Store {
+        private final Map<String, Map<Reason, Record>> records = new HashMap<>();
+
+        @Override
+        public Record get(String mac, Reason reason) {
+            Map<Reason, Record> byReason = records.get(mac);
+            return byReason == null ? null : byReason.get(reason);
+        }
+
+        @Override
+        public void put(String mac, Reason reason, Record record) {
+            records.computeIfAbsent(mac, m -> new EnumMap<>(Reason.class)).put(reason, record);
+        }
+
+        @Override
+        public void clearConsecutive(String mac, Reason... reasons) {
+            Map<Reason, Record> byReason = records.get(mac);
+            if (byReason == null) return;
+            for (Map.Entry<Reason, Record> e : byReason.entrySet()) {
+                if (reasons.length > 0 && !contains(reasons, e.getKey())) continue;
+                Record r = e.getValue();
+                e.setValue(new Record(0, r.total, r.lastAt));
+            }
+        }
+
+        private static boolean contains(Reason[] reasons, Reason reason) {
+            for (Reason r : reasons) if (r == reason) return true;
+            return false;
+        }
+    }
+}
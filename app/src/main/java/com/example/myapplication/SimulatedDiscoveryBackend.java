@@ -0,0 +1,56 @@
+package com.example.myapplication;
+
+import android.os.Handler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fake Shimmers for running the scan and docking flows without hardware (emulator, UI tests):
+ * every scan reports each MAC with HIT_PROBABILITY, a few seconds after it starts, like an
+ * inquiry would. Dock queries and transfers still go to the real adapter. For protocol timing
+ * use the DockingSimulator unit test helper instead.
+ */
+public class SimulatedDiscoveryBackend implements DiscoveryBackend {
+    static final List<String> MACS = Arrays.asList("00:06:66:00:00:01", "00:06:66:00:00:02");
+    private static final double HIT_PROBABILITY = 0.8;
+
+    private final Handler handler;
+    private final Random random = new Random();
+    // Bumped on every start/stop so reports from an earlier scan are dropped
+    private int session = 0;
+
+    public SimulatedDiscoveryBackend(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public String name() {
+        return SIMULATED;
+    }
+
+    @Override
+    public boolean usesInquiry() {
+        return false;
+    }
+
+    @Override
+    public boolean start(boolean alongsideTransfer, Listener listener) {
+        final int s = ++session;
+        for (int i = 0; i < MACS.size(); i++) {
+            if (random.nextDouble() >= HIT_PROBABILITY) continue;
+            String mac = MACS.get(i);
+            String name = "Shimmer3-sim" + (i + 1);
+            handler.postDelayed(() -> {
+                if (s == session) listener.onShimmerFound(mac, name);
+            }, 2000 + random.nextInt(10_000));
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        session++;
+    }
+}
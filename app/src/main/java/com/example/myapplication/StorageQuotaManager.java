@@ -0,0 +1,212 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps recordings and logs inside a storage budget. Files DiskReconciler quarantined go first,
+ * oldest first; after them only recordings already uploaded (SYNCED=1) are ever evicted, oldest
+ * first, and each such eviction is recorded in the files table (EVICTED_AT).
+ * Transfers call {@link #ensureSpaceForTransfer} before asking the sensor for chunks so a full
+ * phone defers the transfer instead of failing mid-write.
+ */
+public class StorageQuotaManager {
+    private static final String TAG = "StorageQuotaManager";
+
+    // Stored in UploadJobQueue.PREFS_SYNC
+    public static final String KEY_BUDGET_BYTES = "storage_budget_bytes";
+    public static final String KEY_MIN_FREE_BYTES = "storage_min_free_bytes";
+
+    private static final long DEFAULT_BUDGET_BYTES = 1024L * 1024 * 1024;     // 1 GiB of recordings + logs
+    private static final long DEFAULT_MIN_FREE_BYTES = 100L * 1024 * 1024;    // never fill the last 100 MiB
+    private static final long MAX_DEBUG_LOG_BYTES = 5L * 1024 * 1024;         // debug_log.txt rotates past this
+    private static final int EVICT_BATCH = 50;
+    // Same order as FileMetaRepository.listEvictable
+    private static final Comparator<FileRecord> OLDEST_FIRST = (a, b) -> a.receivedAt != b.receivedAt
+            ? Long.compare(a.receivedAt, b.receivedAt) : Long.compare(a.id, b.id);
+    // debug_log.txt gets every received byte as "XX " plus a 5-byte chunk header per chunk
+    private static final int DEBUG_LOG_BYTES_PER_BYTE = 3;
+    private static final int DEBUG_LOG_HEADER_BYTES = 5;
+
+    public static final String DEBUG_LOG_NAME = "debug_log.txt";
+    private static final String DEBUG_LOG_ROTATED = "debug_log.1.txt";
+
+    private final Context context;
+
+    public StorageQuotaManager(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    private File dataDir() {
+        return new File(context.getFilesDir(), "data");
+    }
+
+    private File quarantineDir() {
+        return new File(context.getFilesDir(), DiskReconciler.QUARANTINE_DIR);
+    }
+
+    public long budgetBytes() {
+        SharedPreferences prefs = context.getSharedPreferences(UploadJobQueue.PREFS_SYNC, Context.MODE_PRIVATE);
+        return Math.max(0L, prefs.getLong(KEY_BUDGET_BYTES, DEFAULT_BUDGET_BYTES));
+    }
+
+    private long minFreeBytes() {
+        SharedPreferences prefs = context.getSharedPreferences(UploadJobQueue.PREFS_SYNC, Context.MODE_PRIVATE);
+        return Math.max(0L, prefs.getLong(KEY_MIN_FREE_BYTES, DEFAULT_MIN_FREE_BYTES));
+    }
+
+    // Bytes used by recordings (files/data), quarantined leftovers and the debug logs
+    public long bytesUsed() {
+        long total = filesBytes(dataDir()) + filesBytes(quarantineDir());
+        total += new File(context.getFilesDir(), DEBUG_LOG_NAME).length();
+        total += new File(context.getFilesDir(), DEBUG_LOG_ROTATED).length();
+        return total;
+    }
+
+    // Keeps at most one rotated copy of debug_log.txt
+    public void rotateDebugLog() {
+        File log = new File(context.getFilesDir(), DEBUG_LOG_NAME);
+        if (log.length() <= MAX_DEBUG_LOG_BYTES) return;
+        File rotated = new File(context.getFilesDir(), DEBUG_LOG_ROTATED);
+        if (rotated.exists() && !rotated.delete()) {
+            Log.w(TAG, "Could not delete old rotated debug log");
+        }
+        if (!log.renameTo(rotated)) {
+            // Fall back to truncating in place
+            try (java.io.FileOutputStream ignored = new java.io.FileOutputStream(log, false)) {
+                Log.d(TAG, "Truncated " + DEBUG_LOG_NAME);
+            } catch (java.io.IOException e) {
+                Log.w(TAG, "Could not truncate debug log: " + e.getMessage());
+            }
+        } else {
+            Log.d(TAG, "Rotated " + DEBUG_LOG_NAME + " (" + rotated.length() + " bytes)");
+        }
+    }
+
+    // Evicts quarantine, then synced recordings, oldest-first until usage is within the budget; returns bytes freed
+    public long enforceBudget() {
+        rotateDebugLog();
+        long excess = bytesUsed() - budgetBytes();
+        return excess > 0 ? evict(excess) : 0L;
+    }
+
+    // Bytes a transfer appends to debug_log.txt; it isn't rotated mid-transfer, so it needs room too
+    static long debugLogBytesFor(long payloadBytes, int chunkCount) {
+        return DEBUG_LOG_BYTES_PER_BYTE * (payloadBytes + (long) DEBUG_LOG_HEADER_BYTES * Math.max(0, chunkCount));
+    }
+
+    // ensureSpaceFor the received file plus the hex dump the transfer writes alongside it
+    public boolean ensureSpaceForTransfer(long payloadBytes, int chunkCount) {
+        return ensureSpaceFor(payloadBytes + debugLogBytesFor(payloadBytes, chunkCount));
+    }
+
+    /**
+     * Makes room for an incoming file of {@code incomingBytes}: rotates logs, evicts synced
+     * recordings to stay within the budget and above the free-space reserve. Returns false if
+     * there still is not enough room (only unsynced data left), in which case the caller should
+     * defer the transfer.
+     */
+    public boolean ensureSpaceFor(long incomingBytes) {
+        rotateDebugLog();
+        File dir = dataDir();
+        if (!dir.exists()) dir.mkdirs();
+
+        long overBudget = bytesUsed() + incomingBytes - budgetBytes();
+        long shortOnDisk = incomingBytes + minFreeBytes() - dir.getUsableSpace();
+        long needed = Math.max(overBudget, shortOnDisk);
+        if (needed > 0) evict(needed);
+
+        long usable = dir.getUsableSpace();
+        boolean ok = usable >= incomingBytes + minFreeBytes();
+        if (!ok) {
+            Log.w(TAG, "Not enough space for " + incomingBytes + " bytes (usable=" + usable
+                    + ", reserve=" + minFreeBytes() + ", used=" + bytesUsed() + ")");
+        }
+        return ok;
+    }
+
+    private long evict(long bytesToFree) {
+        long freed = deleteOldestFirst(quarantineDir(), bytesToFree);
+        if (freed > 0) Log.d(TAG, "Deleted quarantined files, freed " + freed + " bytes");
+        return freed < bytesToFree ? freed + evictSynced(bytesToFree - freed) : freed;
+    }
+
+    private long evictSynced(long bytesToFree) {
+        FileMetaRepository repo = FileMetaRepository.get(context);
+        long freed = 0L;
+        int evicted = 0;
+        while (freed < bytesToFree) {
+            List<FileRecord> candidates = repo.listEvictable(EVICT_BATCH);
+            if (candidates.isEmpty()) break;
+            List<String> paths = new ArrayList<>();
+            freed += evictOldestFirst(candidates, bytesToFree - freed, paths);
+            if (paths.isEmpty()) break;
+            evicted += paths.size();
+            repo.markEvicted(paths, System.currentTimeMillis());
+        }
+        if (evicted > 0) {
+            Log.d(TAG, "Evicted " + evicted + " synced file(s), freed " + freed + " bytes");
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes candidates oldest first (by receivedAt, then id) until {@code bytesToFree} are freed,
+     * adding each evicted path to {@code evicted}. A file already gone counts as evicted; one that
+     * can't be deleted is skipped. Returns the bytes freed.
+     */
+    static long evictOldestFirst(List<FileRecord> candidates, long bytesToFree, List<String> evicted) {
+        List<FileRecord> ordered = new ArrayList<>(candidates);
+        Collections.sort(ordered, OLDEST_FIRST);
+        long freed = 0L;
+        for (FileRecord r : ordered) {
+            if (freed >= bytesToFree) break;
+            File f = r.file();
+            long len = f.length();
+            if (!f.exists() || f.delete()) {
+                freed += len;
+                evicted.add(r.filePath);
+            } else {
+                Log.w(TAG, "Could not evict " + f.getName());
+            }
+        }
+        return freed;
+    }
+
+    // Deletes regular files in dir, least recently modified first, until bytesToFree are freed
+    static long deleteOldestFirst(File dir, long bytesToFree) {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null || bytesToFree <= 0) return 0L;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long freed = 0L;
+        for (File f : files) {
+            if (freed >= bytesToFree) break;
+            long len = f.length();
+            if (f.delete()) {
+                freed += len;
+            } else {
+                Log.w(TAG, "Could not delete " + f.getName());
+            }
+        }
+        return freed;
+    }
+
+    private static long filesBytes(File dir) {
+        long total = 0L;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile()) total += f.length();
+            }
+        }
+        return total;
+    }
+}
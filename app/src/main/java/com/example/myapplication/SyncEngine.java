@@ -0,0 +1,238 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The one place uploads happen. SyncService, MainActivity, FileSyncService and the upload job
+ * drain all hand their candidates to this engine; a single-flight guard ensures only one upload
+ * loop runs per process, so the same file can no longer be uploaded twice concurrently.
+ *
+ * Progress is published as immutable {@link Progress} snapshots. Listeners are called on the
+ * sync thread and get the latest snapshot immediately when they subscribe.
+ */
+public final class SyncEngine {
+    private static final String TAG = "SyncEngine";
+
+    private static volatile SyncEngine instance;
+
+    public enum State { IDLE, PLANNING, UPLOADING, DONE, FAILED }
+    public enum ItemStatus { PENDING, UPLOADING, UPLOADED, FAILED }
+
+    public interface Listener {
+        void onProgress(Progress progress);
+    }
+
+    public static final class Item {
+        public final File file;
+        public final ItemStatus status;
+
+        Item(File file, ItemStatus status) {
+            this.file = file;
+            this.status = status;
+        }
+    }
+
+    public static final class Progress {
+        public final State state;
+        public final List<Item> items;
+        public final int alreadyOnServer;
+        public final int uploaded;
+        public final int failed;
+        public final String message;
+
+        Progress(State state, List<Item> items, int alreadyOnServer, int uploaded, int failed, String message) {
+            this.state = state;
+            this.items = Collections.unmodifiableList(new ArrayList<>(items));
+            this.alreadyOnServer = alreadyOnServer;
+            this.uploaded = uploaded;
+            this.failed = failed;
+            this.message = message;
+        }
+
+        public boolean isRunning() {
+            return state == State.PLANNING || state == State.UPLOADING;
+        }
+    }
+
+    private final Context context;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    // whenIdle() actions waiting for the run in flight to end
+    private final ConcurrentLinkedQueue<Runnable> idleActions = new ConcurrentLinkedQueue<>();
+    private volatile Progress last = new Progress(State.IDLE, new ArrayList<>(), 0, 0, 0, "");
+
+    private SyncEngine(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    public static SyncEngine get(Context ctx) {
+        if (instance == null) {
+            synchronized (SyncEngine.class) {
+                if (instance == null) instance = new SyncEngine(ctx);
+            }
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+        listener.onProgress(last);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Progress lastProgress() {
+        return last;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Runs {@code action} once no sync is in flight: right away on the calling thread when idle,
+     * otherwise on the sync thread just after the current run has released the engine. Lets a
+     * caller turned away by the single-flight guard come back without holding a thread to wait.
+     */
+    public void whenIdle(Runnable action) {
+        idleActions.add(action);
+        if (!running.get()) runIdleActions();
+    }
+
+    private void runIdleActions() {
+        Runnable action;
+        while (!running.get() && (action = idleActions.poll()) != null) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Idle action failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Sync everything the DB still marks unsynced
+    public Progress syncAll(BooleanSupplier stopRequested) {
+        ShimmerFileTransferClient client = new ShimmerFileTransferClient(context);
+        return run(client, null, stopRequested);
+    }
+
+    /**
+     * Plans and uploads {@code candidates} (or all unsynced files when null). Returns the final
+     * snapshot, or null without doing anything when another sync is already in flight.
+     */
+    public Progress run(ShimmerFileTransferClient client, List<File> candidates, BooleanSupplier stopRequested) {
+        if (!running.compareAndSet(false, true)) {
+            Log.d(TAG, "Sync already in progress; request ignored.");
+            return null;
+        }
+        try {
+            return runLocked(client, candidates, stopRequested);
+        } catch (Exception e) {
+            Log.e(TAG, "Sync failed: " + e.getMessage(), e);
+            Progress p = last;
+            publish(new Progress(State.FAILED, p.items, p.alreadyOnServer, p.uploaded, p.failed, "Sync failed: " + e.getMessage()));
+            return last;
+        } finally {
+            // Every run, including ones that upload nothing or fail: newly synced recordings become
+            // evictable, and the budget must hold even when there was nothing new to upload
+            try {
+                new StorageQuotaManager(context).enforceBudget();
+            } catch (Exception e) {
+                Log.w(TAG, "Storage budget check failed: " + e.getMessage());
+            }
+            running.set(false);
+            runIdleActions();
+        }
+    }
+
+    private Progress runLocked(ShimmerFileTransferClient client, List<File> candidates, BooleanSupplier stopRequested) {
+        List<Item> items = new ArrayList<>();
+        publish(new Progress(State.PLANNING, items, 0, 0, 0, "Checking which files need uploading..."));
+
+        List<File> local = onDisk(candidates != null ? candidates : client.getLocalUnsyncedFiles());
+        if (local.isEmpty()) {
+            return publish(new Progress(State.DONE, items, 0, 0, 0, "No new files to sync."));
+        }
+
+        SyncPlanner planner = new SyncPlanner(context, client);
+        SyncPlanner.Plan plan = planner.plan(local);
+        for (File f : plan.alreadyOnServer) {
+            Log.d(TAG, "Server already has " + f.getName() + ", marking synced.");
+        }
+        client.markFilesAsSynced(plan.alreadyOnServer);
+        int onServer = plan.alreadyOnServer.size();
+        if (plan.toUpload.isEmpty()) {
+            return publish(new Progress(State.DONE, items, onServer, 0, 0, "All local files are already on the server."));
+        }
+
+        for (File f : plan.toUpload) items.add(new Item(f, ItemStatus.PENDING));
+        UploadJobQueue queue = new UploadJobQueue(context);
+        int uploaded = 0;
+        int failed = 0;
+        int total = items.size();
+        for (int i = 0; i < total; i++) {
+            if (stopRequested != null && stopRequested.getAsBoolean()) {
+                Log.d(TAG, "Sync stopped early; remaining files stay queued.");
+                break;
+            }
+            File f = items.get(i).file;
+            items.set(i, new Item(f, ItemStatus.UPLOADING));
+            publish(new Progress(State.UPLOADING, items, onServer, uploaded, failed,
+                    "Uploading " + (i + 1) + " of " + total + ": " + f.getName()));
+
+            if (client.uploadFileToS3(f)) {
+                planner.markUploaded(f);
+                items.set(i, new Item(f, ItemStatus.UPLOADED));
+                uploaded++;
+            } else {
+                queue.markFailed(f, "upload_failed");
+                items.set(i, new Item(f, ItemStatus.FAILED));
+                failed++;
+            }
+        }
+
+        List<File> copies = planner.uploadedCopies(plan);
+        client.markFilesAsSynced(copies);
+        onServer += copies.size();
+
+        String summary = failed == 0
+                ? "Uploaded " + uploaded + " file(s)."
+                : "Uploaded " + uploaded + " file(s); " + failed + " failed and will retry.";
+        Log.d(TAG, "Sync finished: " + summary);
+        return publish(new Progress(State.DONE, items, onServer, uploaded, failed, summary));
+    }
+
+    // listUnsynced is an index-only read; rows whose file vanished are left for DiskReconciler
+    private static List<File> onDisk(List<File> files) {
+        List<File> present = new ArrayList<>(files.size());
+        for (File f : files) {
+            if (f.exists()) present.add(f);
+            else Log.w(TAG, "Skipping " + f.getName() + ": not on disk (DiskReconciler purges its row)");
+        }
+        return present;
+    }
+
+    private Progress publish(Progress progress) {
+        last = progress;
+        for (Listener l : listeners) {
+            try {
+                l.onProgress(progress);
+            } catch (Exception e) {
+                Log.w(TAG, "Sync listener error: " + e.getMessage());
+            }
+        }
+        return progress;
+    }
+}
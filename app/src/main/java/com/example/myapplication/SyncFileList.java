@@ -0,0 +1,131 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Drives the "files to sync" RecyclerView. Unsynced rows are read from {@link FileMetaRepository}
+ * a page at a time (keyset on files.ID, so each page is an index range read) as the user scrolls,
+ * and the live {@link SyncEngine} progress is overlaid as per-row status. Nothing is kept in prefs:
+ * the DB is the source of truth and the list is rebuilt from it whenever a new sync starts.
+ * All methods must be called on the main thread.
+ */
+public class SyncFileList {
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private final Context context;
+    private final SyncFileListAdapter adapter = new SyncFileListAdapter();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AppExecutors.Scope pageLoads = AppExecutors.get().ui().newScope("SyncFileList");
+
+    private final List<FileRecord> loaded = new ArrayList<>();
+    private final Map<String, SyncEngine.ItemStatus> overlay = new HashMap<>();
+    private long lastLoadedId = 0L;
+    private boolean loading = false;
+    private boolean exhausted = false;
+    private int generation = 0;
+    private SyncEngine.State lastState = SyncEngine.State.IDLE;
+    private IntConsumer sizeListener;
+
+    public SyncFileList(Context ctx, RecyclerView recyclerView) {
+        this.context = ctx.getApplicationContext();
+        LinearLayoutManager layoutManager = new LinearLayoutManager(ctx);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+    }
+
+    // Called with the row count after every publish, e.g. to show or hide the list's section
+    public void setOnSizeChanged(IntConsumer listener) {
+        this.sizeListener = listener;
+    }
+
+    public int size() {
+        return adapter.getItemCount();
+    }
+
+    // Drop what is loaded and start again from the first page
+    public void reload() {
+        generation++;
+        loaded.clear();
+        lastLoadedId = 0L;
+        exhausted = false;
+        loading = false;
+        loadNextPage();
+    }
+
+    public void onProgress(SyncEngine.Progress progress) {
+        overlay.clear();
+        for (SyncEngine.Item item : progress.items) {
+            overlay.put(item.file.getAbsolutePath(), item.status);
+        }
+        boolean uploadStarted = progress.state == SyncEngine.State.UPLOADING && lastState != SyncEngine.State.UPLOADING;
+        boolean nothingToUpload = !progress.isRunning() && progress.items.isEmpty();
+        lastState = progress.state;
+        if (uploadStarted || nothingToUpload) {
+            // Files already on the server were just marked synced; re-read so they drop out.
+            // Uploaded rows stay (shown as done) until the next sync starts.
+            reload();
+        } else {
+            publish();
+        }
+    }
+
+    public void shutdown() {
+        pageLoads.cancel();
+    }
+
+    private void loadNextPage() {
+        if (loading || exhausted) return;
+        loading = true;
+        final int gen = generation;
+        final long after = lastLoadedId;
+        try {
+            pageLoads.submit("SyncListPage", () -> {
+                List<FileRecord> page = FileMetaRepository.get(context).listUnsyncedPage(after, PAGE_SIZE);
+                mainHandler.post(() -> {
+                    if (gen != generation) return;
+                    loaded.addAll(page);
+                    if (!page.isEmpty()) lastLoadedId = page.get(page.size() - 1).id;
+                    exhausted = page.size() < PAGE_SIZE;
+                    loading = false;
+                    publish();
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            // Busy or shut down; the next scroll or progress update tries again
+            loading = false;
+        }
+    }
+
+    private void publish() {
+        List<SyncFileListAdapter.Row> rows = new ArrayList<>(loaded.size());
+        for (FileRecord r : loaded) {
+            SyncEngine.ItemStatus status = overlay.get(r.filePath);
+            rows.add(new SyncFileListAdapter.Row(r.id, r.file().getName(),
+                    status != null ? status : SyncEngine.ItemStatus.PENDING));
+        }
+        adapter.submitList(rows);
+        if (sizeListener != null) sizeListener.accept(rows.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.myapplication;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Objects;
+
+// Rows of the "files to sync" card; DiffUtil rebinds only rows whose status actually changed
+public class SyncFileListAdapter extends ListAdapter<SyncFileListAdapter.Row, SyncFileListAdapter.ViewHolder> {
+
+    public static final class Row {
+        final long id;
+        final String name;
+        final SyncEngine.ItemStatus status;
+
+        Row(long id, String name, SyncEngine.ItemStatus status) {
+            this.id = id;
+            this.name = name;
+            this.status = status;
+        }
+
+        String label() {
+            switch (status) {
+                case UPLOADED: return "✅ " + name;
+                case UPLOADING: return "⏳ " + name;
+                default: return "❌ " + name;
+            }
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Row> DIFF = new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row a, @NonNull Row b) {
+            return a.id == b.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Row a, @NonNull Row b) {
+            return a.status == b.status && Objects.equals(a.name, b.name);
+        }
+    };
+
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            text = itemView.findViewById(android.R.id.text1);
+        }
+    }
+
+    public SyncFileListAdapter() {
+        super(DIFF);
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_1, parent, false);
+        return new ViewHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.text.setText(getItem(position).label());
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.myapplication;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which local files need uploading without re-asking the server about every file on
+ * every sync. Objects the server has confirmed are cached in a local manifest, and a watermark
+ * (highest files.ID already checked) limits the /missing-* request to rows added since the last
+ * plan. All lookups are hash-based, so planning stays linear in the number of unsynced files.
+ */
+public class SyncPlanner {
+    private static final String TAG = "SyncPlanner";
+
+    static final String TABLE_MANIFEST = "server_manifest";
+    static final String TABLE_STATE = "sync_state";
+    private static final String KEY_WATERMARK = "manifest_watermark";
+
+    public static final class Plan {
+        public final List<File> toUpload = new ArrayList<>();
+        public final List<File> alreadyOnServer = new ArrayList<>();
+        // Further copies of content being uploaded in this plan; the next plan finds them in the manifest
+        public final List<File> heldBack = new ArrayList<>();
+        int checkedWithServer = 0;
+
+        public boolean isEmpty() {
+            return toUpload.isEmpty() && alreadyOnServer.isEmpty();
+        }
+    }
+
+    private static final class Row {
+        final long id;
+        final String contentKey;
+
+        Row(long id, String contentKey) {
+            this.id = id;
+            this.contentKey = contentKey;
+        }
+    }
+
+    private final Context context;
+    private final ShimmerFileTransferClient client;
+
+    public SyncPlanner(Context ctx, ShimmerFileTransferClient client) {
+        this.context = ctx.getApplicationContext();
+        this.client = client;
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_MANIFEST + " (" +
+                "CONTENT_KEY TEXT PRIMARY KEY, " +
+                "FILE_NAME TEXT, " +
+                "CONFIRMED_AT INTEGER)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_STATE + " (" +
+                "KEY TEXT PRIMARY KEY, " +
+                "VALUE INTEGER)");
+    }
+
+    // sha256:size when the content hash is known, otherwise the legacy name key
+    static String contentKey(String sha256, long size, String fileName) {
+        return sha256 != null ? sha256 + ":" + size : "name:" + fileName;
+    }
+
+    public Plan plan(List<File> localUnsynced) {
+        Plan plan = new Plan();
+        if (localUnsynced.isEmpty()) return plan;
+
+        Map<String, Row> rows = loadRows();
+        Set<String> manifest = loadManifestKeys();
+        long watermark = loadWatermark();
+
+        List<File> delta = new ArrayList<>();
+        long maxDeltaId = watermark;
+        for (File f : localUnsynced) {
+            Row row = rows.get(f.getAbsolutePath());
+            String key = keyOf(f, rows);
+            if (manifest.contains(key)) {
+                plan.alreadyOnServer.add(f);
+            } else if (row != null && row.id <= watermark) {
+                // Already reported missing by an earlier check and not uploaded since
+                plan.toUpload.add(f);
+            } else {
+                delta.add(f);
+                if (row != null) maxDeltaId = Math.max(maxDeltaId, row.id);
+            }
+        }
+
+        if (!delta.isEmpty()) {
+            List<String> reported = client.getMissingFilesOnS3(delta);
+            if (reported == null) {
+                // No answer: upload the delta but neither confirm nor advance the watermark, so the
+                // next plan asks about these rows again instead of trusting a guess
+                plan.toUpload.addAll(delta);
+                maxDeltaId = watermark;
+            } else {
+                Set<String> missing = new HashSet<>(reported);
+                List<File> notMissing = new ArrayList<>();
+                for (File f : delta) {
+                    if (missing.contains(f.getName())) {
+                        plan.toUpload.add(f);
+                    } else {
+                        notMissing.add(f);
+                    }
+                }
+                // The manifest only gets keys the server confirmed: a key that is also being uploaded
+                // in this plan (a copy checked by name) isn't confirmed until that upload completes
+                Set<String> uploadKeys = keysOf(plan.toUpload, rows);
+                List<File> confirmed = new ArrayList<>();
+                for (File f : notMissing) {
+                    if (uploadKeys.contains(keyOf(f, rows))) {
+                        plan.toUpload.add(f);
+                    } else {
+                        plan.alreadyOnServer.add(f);
+                        confirmed.add(f);
+                    }
+                }
+                plan.checkedWithServer = delta.size();
+                recordConfirmed(confirmed, rows);
+                saveWatermark(maxDeltaId);
+            }
+        }
+
+        // One upload per content key; markUploaded() puts the key in the manifest for the rest
+        Set<String> seen = new HashSet<>();
+        for (Iterator<File> it = plan.toUpload.iterator(); it.hasNext(); ) {
+            File f = it.next();
+            if (!seen.add(keyOf(f, rows))) {
+                it.remove();
+                plan.heldBack.add(f);
+            }
+        }
+
+        Log.d(TAG, "Plan: " + plan.toUpload.size() + " to upload, " + plan.alreadyOnServer.size()
+                + " already on server, " + plan.heldBack.size() + " held back (" + plan.checkedWithServer + " checked with server, watermark=" + maxDeltaId + ")");
+        return plan;
+    }
+
+    // Record a successful upload in the manifest so later plans never ask about it again, then mark it synced
+    public void markUploaded(File file) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        String key = contentKey(null, 0, file.getName());
+        try (Cursor cursor = db.query("files", new String[]{"CONTENT_SHA256", "CONTENT_SIZE"}, "FILE_PATH=?",
+                new String[]{file.getAbsolutePath()}, null, null, null)) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) key = contentKey(cursor.getString(0), cursor.getLong(1), file.getName());
+        }
+
+        Map<String, Row> rows = new HashMap<>();
+        rows.put(file.getAbsolutePath(), new Row(0, key));
+        List<File> one = new ArrayList<>();
+        one.add(file);
+        recordConfirmed(one, rows);
+        client.markFileAsSynced(file);
+    }
+
+    // Held-back copies whose content reached the server during this sync; they can be marked synced
+    public List<File> uploadedCopies(Plan plan) {
+        List<File> copies = new ArrayList<>();
+        if (plan.heldBack.isEmpty()) return copies;
+        Map<String, Row> rows = loadRows();
+        Set<String> manifest = loadManifestKeys();
+        for (File f : plan.heldBack) {
+            if (manifest.contains(keyOf(f, rows))) copies.add(f);
+        }
+        return copies;
+    }
+
+    private static String keyOf(File f, Map<String, Row> rows) {
+        Row row = rows.get(f.getAbsolutePath());
+        return row != null ? row.contentKey : contentKey(null, 0, f.getName());
+    }
+
+    private static Set<String> keysOf(List<File> files, Map<String, Row> rows) {
+        Set<String> keys = new HashSet<>();
+        for (File f : files) keys.add(keyOf(f, rows));
+        return keys;
+    }
+
+    private Map<String, Row> loadRows() {
+        Map<String, Row> rows = new HashMap<>();
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        try (Cursor cursor = db.query("files", new String[]{"ID", "FILE_PATH", "CONTENT_SHA256", "CONTENT_SIZE"},
+                "SYNCED=0", null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(1);
+                String sha = cursor.isNull(2) ? null : cursor.getString(2);
+                rows.put(path, new Row(cursor.getLong(0), contentKey(sha, cursor.getLong(3), new File(path).getName())));
+            }
+        }
+        return rows;
+    }
+
+    private Set<String> loadManifestKeys() {
+        Set<String> keys = new HashSet<>();
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        try (Cursor cursor = db.query(TABLE_MANIFEST, new String[]{"CONTENT_KEY"}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) keys.add(cursor.getString(0));
+        }
+        return keys;
+    }
+
+    private void recordConfirmed(List<File> files, Map<String, Row> rows) {
+        if (files.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        db.beginTransactionNonExclusive();
+        try {
+            for (File f : files) {
+                ContentValues values = new ContentValues();
+                values.put("CONTENT_KEY", keyOf(f, rows));
+                values.put("FILE_NAME", f.getName());
+                values.put("CONFIRMED_AT", now);
+                db.insertWithOnConflict(TABLE_MANIFEST, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private long loadWatermark() {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        long watermark = 0L;
+        try (Cursor cursor = db.query(TABLE_STATE, new String[]{"VALUE"}, "KEY=?",
+                new String[]{KEY_WATERMARK}, null, null, null)) {
+            if (cursor.moveToFirst()) watermark = cursor.getLong(0);
+        }
+        return watermark;
+    }
+
+    private void saveWatermark(long watermark) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("KEY", KEY_WATERMARK);
+        values.put("VALUE", watermark);
+        db.insertWithOnConflict(TABLE_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -12,12 +12,13 @@ import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
-import java.io.File;
-import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 public class SyncService extends Service {
     private static final String TAG = "SyncService";
     public static final String CHANNEL_ID = "SyncServiceChannel";
+    // Times a request goes again after finding another sync in flight before giving up
+    private static final int MAX_BUSY_RETRIES = 3;
 
     @Override
     public void onCreate() {
@@ -35,52 +36,69 @@ public class SyncService extends Service {
 
         startForeground(2, notification);
 
-        new Thread(() -> {
-            Log.d(TAG, "Sync service started.");
-            performSync();
-            stopSelf(); // Stop the service when the work is done
-        }).start();
+        submitSync(startId, 0);
 
         return START_NOT_STICKY;
     }
 
-    private void performSync() {
-        NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        ShimmerFileTransferClient client = new ShimmerFileTransferClient(this);
-
-        List<File> localFiles = client.getLocalUnsyncedFiles();
-        if (localFiles.isEmpty()) {
-            Log.d(TAG, "No files to sync.");
-            updateNotification(notificationManager, "Sync Complete", "No new files to upload.");
-            return;
+    private void runSync(int startId, int busyRetries) {
+        Log.d(TAG, "Sync service started.");
+        EventBus.get().post(AppEvents.SYNC_RUNNING, true);
+        SyncEngine.Progress result = null;
+        boolean retrying = false;
+        try {
+            result = performSync();
+            // A sync started before our files arrived won't include them: run again once it ends
+            if (result == null && busyRetries < MAX_BUSY_RETRIES) {
+                retrying = true;
+                SyncEngine.get(this).whenIdle(() -> submitSync(startId, busyRetries + 1));
+            }
+        } finally {
+            if (!retrying) {
+                if (result == null) Log.w(TAG, "Sync engine stayed busy; giving up on this request.");
+                EventBus.get().post(AppEvents.SYNC_RUNNING, false);
+                EventBus.get().post(AppEvents.SYNC_DONE, result != null && result.state == SyncEngine.State.DONE);
+                // Only the latest request stops the service; earlier runs may still be retrying
+                stopSelf(startId);
+            }
         }
+    }
 
-        List<String> missingFileNames = client.getMissingFilesOnS3(localFiles);
-        if (missingFileNames.isEmpty()) {
-            Log.d(TAG, "All local files are already on the server.");
-            updateNotification(notificationManager, "Sync Complete", "All files are up to date.");
-            return;
+    private void submitSync(int startId, int busyRetries) {
+        try {
+            AppExecutors.get().io().submit("SyncWorker", () -> runSync(startId, busyRetries));
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Sync rejected: I/O pool busy");
+            EventBus.get().post(AppEvents.SYNC_RUNNING, false);
+            EventBus.get().post(AppEvents.SYNC_DONE, false);
+            stopSelf(startId);
         }
+    }
 
-        int totalToUpload = missingFileNames.size();
-        for (int i = 0; i < totalToUpload; i++) {
-            String filename = missingFileNames.get(i);
-            File fileToUpload = findFileByName(localFiles, filename);
-
-            if (fileToUpload != null) {
-                String progressText = "Uploading " + (i + 1) + " of " + totalToUpload + ": " + filename;
-                Log.d(TAG, progressText);
-                updateNotification(notificationManager, "Syncing Files...", progressText);
-
-                boolean success = client.uploadFileToS3(fileToUpload);
-                if (success) {
-                    client.markFileAsSynced(fileToUpload);
-                }
+    // The finished run's snapshot, or null when another sync was in flight
+    private SyncEngine.Progress performSync() {
+        NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        SyncEngine engine = SyncEngine.get(this);
+        SyncEngine.Listener listener = progress -> {
+            if (progress.state == SyncEngine.State.UPLOADING) {
+                updateNotification(notificationManager, "Syncing Files...", progress.message);
+            }
+        };
+
+        engine.addListener(listener);
+        try {
+            SyncEngine.Progress result = engine.syncAll(null);
+            if (result == null) {
+                Log.d(TAG, "Sync already running elsewhere; running again when it ends.");
+                updateNotification(notificationManager, "Sync In Progress", "Another sync is already running.");
+                return null;
             }
+            Log.d(TAG, "Sync process finished.");
+            updateNotification(notificationManager, "Sync Complete", result.message);
+            return result;
+        } finally {
+            engine.removeListener(listener);
         }
-
-        Log.d(TAG, "Sync process finished.");
-        updateNotification(notificationManager, "Sync Complete", "File synchronization finished.");
     }
 
     private void updateNotification(NotificationManager manager, String title, String text) {
@@ -92,15 +110,6 @@ public class SyncService extends Service {
         manager.notify(2, notification);
     }
 
-    private File findFileByName(List<File> files, String name) {
-        for (File file : files) {
-            if (file.getName().equals(name)) {
-                return file;
-            }
-        }
-        return null;
-    }
-
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel serviceChannel = new NotificationChannel(
@@ -0,0 +1,80 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.analytics.FirebaseAnalytics;
+import com.google.firebase.crashlytics.FirebaseCrashlytics;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Lazy access to Firebase Analytics/Crashlytics. Nothing is created until the first event is
+ * logged, so neither activity startup nor constructing a ShimmerFileTransferClient pays for
+ * Firebase. {@link #warmUpAsync} lets MainActivity initialize it off the main thread after the
+ * first frame.
+ */
+public final class Telemetry {
+    private static final String TAG = "Telemetry";
+
+    private static volatile FirebaseAnalytics analytics;
+    private static volatile FirebaseCrashlytics crashlytics;
+
+    private Telemetry() {}
+
+    public static FirebaseAnalytics analytics(Context ctx) {
+        if (analytics == null) {
+            synchronized (Telemetry.class) {
+                if (analytics == null) {
+                    ensureApp(ctx);
+                    analytics = FirebaseAnalytics.getInstance(ctx.getApplicationContext());
+                }
+            }
+        }
+        return analytics;
+    }
+
+    public static FirebaseCrashlytics crashlytics() {
+        if (crashlytics == null) {
+            synchronized (Telemetry.class) {
+                if (crashlytics == null) {
+                    FirebaseCrashlytics c = FirebaseCrashlytics.getInstance();
+                    c.setCrashlyticsCollectionEnabled(true);
+                    crashlytics = c;
+                }
+            }
+        }
+        return crashlytics;
+    }
+
+    public static void logEvent(Context ctx, String name, Bundle params) {
+        analytics(ctx).logEvent(name, params);
+    }
+
+    // Initializes both SDKs on a background thread so the first real event doesn't pay for it
+    public static void warmUpAsync(Context ctx) {
+        final Context app = ctx.getApplicationContext();
+        try {
+            AppExecutors.get().io().submit("TelemetryInit", () -> {
+                try {
+                    analytics(app);
+                    crashlytics();
+                } catch (Exception e) {
+                    Log.w(TAG, "Firebase warm-up failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Not needed for correctness; the first event initializes Firebase instead
+            Log.w(TAG, "Firebase warm-up skipped: I/O pool busy");
+        }
+    }
+
+    // FirebaseInitProvider normally does this; guard against processes where it didn't run
+    private static void ensureApp(Context ctx) {
+        if (FirebaseApp.getApps(ctx).isEmpty()) {
+            FirebaseApp.initializeApp(ctx.getApplicationContext());
+        }
+    }
+}
@@ -10,6 +10,8 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
+import java.util.concurrent.RejectedExecutionException;
+
 public class TransferService extends Service {
 
     public static final String EXTRA_MAC_ADDRESS = "mac_address";
@@ -41,27 +43,32 @@ public class TransferService extends Service {
 
         startForeground(NOTIFICATION_ID, notification);
 
-        new Thread(() -> {
-            try {
-                Log.d(TAG, "Starting transfer for MAC: " + macAddress);
-                ShimmerFileTransferClient client = new ShimmerFileTransferClient(this);
-                client.transfer(macAddress);
-                Log.d(TAG, "Finished transfer for MAC: " + macAddress);
+        try {
+            AppExecutors.get().bluetooth().submit("ManualTransfer", () -> transfer(macAddress));
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Transfer rejected for " + macAddress + ": bluetooth pool busy");
+            EventBus.get().post(AppEvents.TRANSFER_FAILED, "rejected");
+            stopForeground(true);
+            stopSelf();
+        }
 
-                // Notify UI that transfer is done
-                Intent doneIntent = new Intent("com.example.myapplication.TRANSFER_DONE");
-                doneIntent.putExtra("mac", macAddress);
-                sendBroadcast(doneIntent);
+        return START_NOT_STICKY;
+    }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Transfer failed", e);
-            } finally {
-                stopForeground(true);
-                stopSelf();
-            }
-        }).start();
+    private void transfer(String macAddress) {
+        try {
+            Log.d(TAG, "Starting transfer for MAC: " + macAddress);
+            ShimmerFileTransferClient client = new ShimmerFileTransferClient(this);
+            client.transfer(macAddress);
+            // The client itself reports TRANSFER_DONE / TRANSFER_FAILED
+            Log.d(TAG, "Finished transfer for MAC: " + macAddress);
 
-        return START_NOT_STICKY;
+        } catch (Exception e) {
+            Log.e(TAG, "Transfer failed", e);
+        } finally {
+            stopForeground(true);
+            stopSelf();
+        }
     }
 
     private void createNotificationChannel() {
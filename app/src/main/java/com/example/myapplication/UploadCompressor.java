@@ -0,0 +1,125 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Optional compression stage in front of the S3 upload. Recordings are streamed once through a
+ * {@link Deflater} into a temporary file in the cache dir; the codec name doubles as the HTTP
+ * Content-Encoding value so the backend decoder knows how to inflate the object.
+ *
+ * Off by default: uploads stay identity until {@link #KEY_CODEC} is set to gzip or deflate, which
+ * should only be done against a decode-and-store backend that handles content_encoding.
+ */
+public final class UploadCompressor {
+    private static final String TAG = "UploadCompressor";
+
+    public static final String CODEC_IDENTITY = "identity";
+    public static final String CODEC_GZIP = "gzip";
+    public static final String CODEC_DEFLATE = "deflate";
+
+    // Stored in UploadJobQueue.PREFS_SYNC
+    public static final String KEY_CODEC = "upload_codec";
+    public static final String KEY_LEVEL = "upload_compression_level";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private UploadCompressor() {}
+
+    public static final class Result {
+        public final File file;           // what to upload (temp file, or the source for identity)
+        public final String codec;        // identity | gzip | deflate
+        public final long originalSize;
+        public final long encodedSize;
+
+        Result(File file, String codec, long originalSize, long encodedSize) {
+            this.file = file;
+            this.codec = codec;
+            this.originalSize = originalSize;
+            this.encodedSize = encodedSize;
+        }
+
+        public boolean isCompressed() {
+            return !CODEC_IDENTITY.equals(codec);
+        }
+
+        // Remove the temporary compressed copy (never the source recording)
+        public void cleanup() {
+            if (isCompressed() && file.exists() && !file.delete()) {
+                Log.w(TAG, "Could not delete temp upload file: " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    public static String configuredCodec(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(UploadJobQueue.PREFS_SYNC, Context.MODE_PRIVATE);
+        String codec = prefs.getString(KEY_CODEC, CODEC_IDENTITY);
+        if (CODEC_GZIP.equals(codec) || CODEC_DEFLATE.equals(codec)) return codec;
+        return CODEC_IDENTITY;
+    }
+
+    public static int configuredLevel(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(UploadJobQueue.PREFS_SYNC, Context.MODE_PRIVATE);
+        int level = prefs.getInt(KEY_LEVEL, Deflater.DEFAULT_COMPRESSION);
+        return (level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION) ? level : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Compresses {@code source} in a single streaming pass. Falls back to identity when the codec
+     * is identity or when compression does not make the payload smaller.
+     */
+    public static Result encode(File source, File tempDir, String codec, int level) throws IOException {
+        long originalSize = source.length();
+        if (CODEC_IDENTITY.equals(codec)) {
+            return new Result(source, CODEC_IDENTITY, originalSize, originalSize);
+        }
+
+        if (!tempDir.exists()) tempDir.mkdirs();
+        File out = new File(tempDir, source.getName() + (CODEC_GZIP.equals(codec) ? ".gz" : ".zz"));
+        // gzip brings its own raw Deflater; plain deflate (zlib framing) uses ours
+        Deflater deflater = CODEC_DEFLATE.equals(codec) ? new Deflater(level) : null;
+        try (InputStream in = new FileInputStream(source);
+             OutputStream encoded = openEncoder(new BufferedOutputStream(new FileOutputStream(out), BUFFER_SIZE), deflater, level)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                encoded.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            out.delete();
+            throw e;
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+
+        long encodedSize = out.length();
+        if (encodedSize >= originalSize) {
+            Log.d(TAG, "Compression did not help for " + source.getName() + " (" + originalSize + " -> " + encodedSize + "); sending raw.");
+            out.delete();
+            return new Result(source, CODEC_IDENTITY, originalSize, originalSize);
+        }
+        Log.d(TAG, "Compressed " + source.getName() + " with " + codec + ": " + originalSize + " -> " + encodedSize + " bytes");
+        return new Result(out, codec, originalSize, encodedSize);
+    }
+
+    private static OutputStream openEncoder(OutputStream sink, Deflater deflater, int level) throws IOException {
+        if (deflater != null) {
+            return new DeflaterOutputStream(sink, deflater, BUFFER_SIZE);
+        }
+        return new GZIPOutputStream(sink, BUFFER_SIZE) {
+            { def.setLevel(level); }
+        };
+    }
+}
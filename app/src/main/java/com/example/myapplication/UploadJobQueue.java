@@ -0,0 +1,246 @@
+package com.example.myapplication;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Durable queue of pending S3 uploads, stored next to the file metadata in filemeta.db.
+ * Every received file gets a job; {@link UploadJobService} drains the queue whenever the
+ * JobScheduler constraints (network, charging, idle) are met, so uploads no longer depend on
+ * connectivity being present at the exact moment a transfer finishes.
+ */
+public class UploadJobQueue {
+    private static final String TAG = "UploadJobQueue";
+
+    static final String TABLE = "upload_jobs";
+    static final int JOB_ID = 3001;
+
+    // Per-file exponential backoff: 30 s, 1 min, 2 min, ... capped at 6 h
+    private static final long BASE_BACKOFF_MS = 30 * 1000L;
+    private static final long MAX_BACKOFF_MS = 6 * 60 * 60 * 1000L;
+    // Ready jobs wait this long when another sync holds the engine (no attempt is counted)
+    private static final long BUSY_DEFER_MS = 2 * 60 * 1000L;
+
+    // Scheduling constraints (user/deployment configurable)
+    public static final String PREFS_SYNC = "sync_prefs";
+    public static final String KEY_REQUIRE_UNMETERED = "upload_requires_unmetered";
+    public static final String KEY_REQUIRE_CHARGING = "upload_requires_charging";
+    public static final String KEY_REQUIRE_IDLE = "upload_requires_idle";
+
+    private final Context context;
+
+    public UploadJobQueue(Context ctx) {
+        this.context = ctx.getApplicationContext();
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                "ID INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "FILE_PATH TEXT NOT NULL UNIQUE, " +
+                "ATTEMPTS INTEGER DEFAULT 0, " +
+                "NEXT_RUN_AT INTEGER DEFAULT 0, " +
+                "LAST_ERROR TEXT, " +
+                "CREATED_AT INTEGER)");
+    }
+
+    // Add a file to the queue; no-op if it is already queued
+    public void enqueue(File file) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        ContentValues values = new ContentValues();
+        values.put("FILE_PATH", file.getAbsolutePath());
+        values.put("ATTEMPTS", 0);
+        values.put("NEXT_RUN_AT", 0);
+        values.put("CREATED_AT", System.currentTimeMillis());
+        db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        Log.d(TAG, "Queued upload job: " + file.getName());
+    }
+
+    // Files whose backoff has expired, oldest first
+    public List<File> readyFiles(long nowMs) {
+        List<File> ready = new ArrayList<>();
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        try (Cursor cursor = db.query(TABLE, new String[]{"FILE_PATH"}, "NEXT_RUN_AT<=?",
+                new String[]{String.valueOf(nowMs)}, null, null, "NEXT_RUN_AT ASC, ID ASC")) {
+            while (cursor.moveToNext()) {
+                ready.add(new File(cursor.getString(0)));
+            }
+        }
+        return ready;
+    }
+
+    // Job is done (uploaded, already on server, or file gone); drop it from the queue
+    public void markSucceeded(File file) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        db.delete(TABLE, "FILE_PATH=?", new String[]{file.getAbsolutePath()});
+    }
+
+    // Batch form of markSucceeded: one transaction, one compiled statement
+    public void markSucceeded(Collection<File> files) {
+        if (files.isEmpty()) return;
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE + " WHERE FILE_PATH=?");
+        db.beginTransactionNonExclusive();
+        try {
+            for (File file : files) {
+                delete.clearBindings();
+                delete.bindString(1, file.getAbsolutePath());
+                delete.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            delete.close();
+        }
+    }
+
+    // Record a failed attempt and push the job back by an exponentially growing delay
+    public void markFailed(File file, String error) {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        int attempts = 0;
+        try (Cursor cursor = db.query(TABLE, new String[]{"ATTEMPTS"}, "FILE_PATH=?",
+                new String[]{file.getAbsolutePath()}, null, null, null)) {
+            if (cursor.moveToFirst()) attempts = cursor.getInt(0);
+        }
+        attempts++;
+        long delay = backoffFor(attempts);
+        ContentValues values = new ContentValues();
+        values.put("ATTEMPTS", attempts);
+        values.put("NEXT_RUN_AT", System.currentTimeMillis() + delay);
+        values.put("LAST_ERROR", error);
+        db.update(TABLE, values, "FILE_PATH=?", new String[]{file.getAbsolutePath()});
+        Log.w(TAG, "Upload attempt " + attempts + " failed for " + file.getName() + " (" + error + "); next try in " + (delay / 1000) + "s");
+    }
+
+    // Push jobs back without counting an attempt, so the next schedule() gets a minimum latency
+    void defer(Collection<File> files, long delayMs) {
+        if (files.isEmpty()) return;
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE + " SET NEXT_RUN_AT=? WHERE FILE_PATH=?");
+        long runAt = System.currentTimeMillis() + delayMs;
+        db.beginTransactionNonExclusive();
+        try {
+            for (File file : files) {
+                update.clearBindings();
+                update.bindLong(1, runAt);
+                update.bindString(2, file.getAbsolutePath());
+                update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            update.close();
+        }
+    }
+
+    public int pendingCount() {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        int count = 0;
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE, null)) {
+            if (cursor.moveToFirst()) count = cursor.getInt(0);
+        }
+        return count;
+    }
+
+    // Earliest time any queued job may run, or -1 if the queue is empty
+    long earliestNextRunAt() {
+        SQLiteDatabase db = FileMetaRepository.get(context).db();
+        long next = -1L;
+        try (Cursor cursor = db.rawQuery("SELECT MIN(NEXT_RUN_AT) FROM " + TABLE, null)) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) next = cursor.getLong(0);
+        }
+        return next;
+    }
+
+    static long backoffFor(int attempts) {
+        if (attempts <= 0) return 0L;
+        int shift = Math.min(attempts - 1, 20);
+        return Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << shift);
+    }
+
+    /**
+     * Hands every job whose backoff has expired to {@link SyncEngine}. Files the server already has
+     * are only marked as synced. Returns the number of files uploaded in this pass (0 when another
+     * sync is already in flight; the jobs then stay queued, deferred by BUSY_DEFER_MS so the
+     * rescheduled drain doesn't spin while that sync runs).
+     */
+    public int drain(ShimmerFileTransferClient client, BooleanSupplier stopRequested) {
+        List<File> ready = readyFiles(System.currentTimeMillis());
+        if (ready.isEmpty()) {
+            Log.d(TAG, "No upload jobs ready.");
+            return 0;
+        }
+
+        List<File> present = new ArrayList<>();
+        List<File> gone = new ArrayList<>();
+        for (File f : ready) {
+            if (f.exists()) {
+                present.add(f);
+            } else {
+                Log.w(TAG, "Queued file no longer on disk, dropping job: " + f.getAbsolutePath());
+                gone.add(f);
+            }
+        }
+        markSucceeded(gone);
+        if (present.isEmpty()) return 0;
+
+        SyncEngine.Progress result = SyncEngine.get(context).run(client, present, stopRequested);
+        if (result == null) {
+            Log.d(TAG, "Another sync is running; ready jobs deferred by " + (BUSY_DEFER_MS / 1000) + "s.");
+            defer(present, BUSY_DEFER_MS);
+            return 0;
+        }
+        Log.d(TAG, "Drain finished: uploaded " + result.uploaded + " of " + present.size() + " ready job(s).");
+        return result.uploaded;
+    }
+
+    /**
+     * (Re)schedules the drain job for the earliest pending upload, honouring the configured
+     * network/charging/idle constraints. Cancels the job when the queue is empty.
+     */
+    public static void schedule(Context context) {
+        JobScheduler js = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (js == null) return;
+
+        long next = new UploadJobQueue(context).earliestNextRunAt();
+        if (next < 0) {
+            js.cancel(JOB_ID);
+            Log.d(TAG, "Upload queue empty; drain job cancelled.");
+            return;
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_SYNC, Context.MODE_PRIVATE);
+        boolean unmetered = prefs.getBoolean(KEY_REQUIRE_UNMETERED, false);
+        boolean charging = prefs.getBoolean(KEY_REQUIRE_CHARGING, false);
+        boolean idle = prefs.getBoolean(KEY_REQUIRE_IDLE, false);
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID, new ComponentName(context, UploadJobService.class))
+                .setRequiredNetworkType(unmetered ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(charging)
+                .setRequiresDeviceIdle(idle)
+                .setPersisted(true);
+        long delay = next - System.currentTimeMillis();
+        if (delay > 0) builder.setMinimumLatency(delay);
+
+        try {
+            js.schedule(builder.build());
+            Log.d(TAG, "Upload drain scheduled (delay=" + Math.max(0, delay) + "ms, unmetered=" + unmetered
+                    + ", charging=" + charging + ", idle=" + idle + ")");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to schedule upload drain job: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.myapplication;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.util.Log;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Drains the persistent upload queue once JobScheduler reports the constraints are satisfied
+public class UploadJobService extends JobService {
+    private static final String TAG = "UploadJobService";
+
+    // Stop flag of the current run; a fresh one per start so a stale drain never sees it cleared
+    private volatile AtomicBoolean stopped = new AtomicBoolean();
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        AtomicBoolean stop = new AtomicBoolean();
+        stopped = stop;
+        try {
+            AppExecutors.get().io().submit("UploadJobWorker", () -> drain(params, stop));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "I/O pool busy; upload drain goes back to JobScheduler with backoff.");
+            jobFinished(params, true);
+        }
+        return true;
+    }
+
+    private void drain(JobParameters params, AtomicBoolean stop) {
+        UploadJobQueue queue = new UploadJobQueue(this);
+        try {
+            queue.drain(new ShimmerFileTransferClient(this), stop::get);
+        } catch (Exception e) {
+            Log.e(TAG, "Upload drain failed: " + e.getMessage(), e);
+        } finally {
+            // After onStopJob the job is JobScheduler's to reschedule; finishing it too would conflict
+            if (!stop.get()) {
+                jobFinished(params, false);
+                // Jobs left behind (backoff) get a fresh schedule for their next run time
+                UploadJobQueue.schedule(this);
+            }
+        }
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.d(TAG, "Constraints no longer met; stopping upload drain.");
+        stopped.set(true);
+        return true; // let JobScheduler reschedule
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class DockPhaseModelTest {
+    private static final String MAC = "00:06:66:AA:BB:01";
+    private static final String OTHER = "00:06:66:AA:BB:02";
+
+    private DockingProtocol.Config config;
+    private DockPhaseModel.MemoryStore store;
+    private DockPhaseModel model;
+
+    @Before
+    public void setUp() {
+        config = new DockingProtocol.Config();
+        config.nightStartHour = 20;
+        config.nightStartMinute = 0;
+        store = new DockPhaseModel.MemoryStore();
+        model = new DockPhaseModel(config, store);
+    }
+
+    @Test
+    public void nightStart_isTheLatestNightStartAtOrBefore() {
+        assertEquals(at(10, 20, 0), model.nightStart(at(10, 20, 0)));
+        assertEquals(at(10, 20, 0), model.nightStart(at(10, 23, 59)));
+        assertEquals(at(10, 20, 0), model.nightStart(at(11, 1, 30)));
+        assertEquals(at(9, 20, 0), model.nightStart(at(10, 19, 59)));
+    }
+
+    @Test
+    public void likelyDocked_needsThreeNightsOfHistory() {
+        dockedAt(MAC, 22, 0, 1, 2);
+        assertFalse(model.likelyDocked(MAC, at(10, 23, 0)));
+        dockedAt(MAC, 22, 0, 3);
+        assertTrue(model.likelyDocked(MAC, at(10, 23, 0)));
+    }
+
+    @Test
+    public void likelyDocked_onceMostPastNightsWereDockedByNow() {
+        // 22:00 .. 22:40 over five nights; 80% were docked by 22:40
+        for (int night = 1; night <= 5; night++) store.addDockTime(MAC, at(night, 22, (night - 1) * 10));
+
+        assertFalse(model.likelyDocked(MAC, at(10, 20, 30)));
+        assertFalse(model.likelyDocked(MAC, at(10, 22, 30)));
+        assertTrue(model.likelyDocked(MAC, at(10, 22, 40)));
+        assertTrue(model.likelyDocked(MAC, at(11, 1, 0)));
+        assertFalse(model.likelyDocked(OTHER, at(11, 1, 0)));
+    }
+
+    @Test
+    public void likelyDocked_dockTimesAfterMidnightCountAsTheSameNight() {
+        dockedAt(MAC, 1, 0, 2, 3, 4);
+        assertFalse(model.likelyDocked(MAC, at(10, 23, 0)));
+        assertTrue(model.likelyDocked(MAC, at(11, 1, 5)));
+    }
+
+    @Test
+    public void nextScanAt_sleepsUntilShortlyBeforeTheEarliestDock() {
+        dockedAt(MAC, 22, 0, 1, 2, 3);
+        dockedAt(OTHER, 23, 0, 1, 2, 3);
+
+        // Fifteen minutes ahead of the earliest expected dock of either device
+        assertEquals(at(10, 21, 45), model.nextScanAt(Collections.emptySet(), at(10, 20, 30)));
+        assertEquals(at(10, 22, 45), model.nextScanAt(Collections.singleton(MAC), at(10, 20, 30)));
+    }
+
+    @Test
+    public void nextScanAt_keepsTheCadenceWhenADockMayBeNear() {
+        dockedAt(MAC, 22, 0, 1, 2, 3);
+        assertEquals(-1L, model.nextScanAt(Collections.emptySet(), at(10, 21, 45)));
+        assertEquals(-1L, model.nextScanAt(Collections.emptySet(), at(10, 23, 0)));
+    }
+
+    @Test
+    public void nextScanAt_keepsTheCadenceWithoutEnoughHistory() {
+        assertEquals(-1L, model.nextScanAt(Collections.emptySet(), at(10, 20, 30)));
+
+        dockedAt(MAC, 22, 0, 1, 2, 3);
+        dockedAt(OTHER, 23, 0, 1);
+        // OTHER could dock at any time as far as the model knows
+        assertEquals(-1L, model.nextScanAt(Collections.emptySet(), at(10, 20, 30)));
+        assertEquals(at(10, 21, 45), model.nextScanAt(Collections.singleton(OTHER), at(10, 20, 30)));
+    }
+
+    @Test
+    public void nextScanAt_nothingLeftTonight() {
+        dockedAt(MAC, 22, 0, 1, 2, 3);
+        assertEquals(-1L, model.nextScanAt(Arrays.asList(MAC), at(10, 20, 30)));
+    }
+
+    @Test
+    public void predictionDisabled_predictsNothing() {
+        dockedAt(MAC, 22, 0, 1, 2, 3);
+        config.dockPrediction = false;
+        assertFalse(model.likelyDocked(MAC, at(10, 23, 0)));
+        assertEquals(-1L, model.nextScanAt(Collections.emptySet(), at(10, 20, 30)));
+    }
+
+    @Test
+    public void onDocked_recordsTheFirstDockOfEachNight() {
+        model.onNightStart();
+        model.onDocked(MAC, at(10, 22, 0));
+        model.onDocked(MAC, at(10, 23, 0));
+        model.markRecorded(OTHER);
+        model.onDocked(OTHER, at(10, 22, 0));
+        assertEquals(Collections.singletonList(at(10, 22, 0)), store.dockTimes(MAC, 0));
+        assertTrue(store.dockTimes(OTHER, 0).isEmpty());
+
+        model.onNightStart();
+        model.onDocked(MAC, at(11, 22, 5));
+        model.onDocked(OTHER, at(11, 22, 5));
+        assertEquals(2, store.dockTimes(MAC, 0).size());
+        assertEquals(1, store.dockTimes(OTHER, 0).size());
+    }
+
+    private void dockedAt(String mac, int hour, int minute, int... nights) {
+        for (int night : nights) {
+            // Hours before the night start belong to the next calendar day
+            int day = hour < config.nightStartHour ? night + 1 : night;
+            store.addDockTime(mac, at(day, hour, minute));
+        }
+    }
+
+    // January, away from DST changes, in the default zone nightStart also uses
+    private static long at(int day, int hour, int minute) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2026, Calendar.JANUARY, day, hour, minute, 0);
+        return cal.getTimeInMillis();
+    }
+}
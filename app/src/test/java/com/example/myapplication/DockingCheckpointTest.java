@@ -0,0 +1,198 @@
+package com.example.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DockingCheckpointTest {
+    private static final String A = "00:06:66:AA:BB:01";
+    private static final String B = "00:06:66:AA:BB:02";
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private DockingProtocol.Config config;
+    private long now;
+    private DockingCheckpoint.MemoryStore checkpoints;
+    private RecordingPort port;
+    private RecordingListener listener;
+    private DockingProtocol protocol;
+
+    @Before
+    public void setUp() {
+        config = new DockingProtocol.Config();
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2026, Calendar.JANUARY, 10, 21, 0, 0);
+        now = cal.getTimeInMillis();
+        checkpoints = new DockingCheckpoint.MemoryStore();
+        port = new RecordingPort();
+        listener = new RecordingListener();
+        protocol = new DockingProtocol(config, () -> now, new IgnoringScheduler(), port, listener,
+                new SilentBackoff(config, new SilentBackoff.MemoryStore()),
+                new DockPhaseModel(config, new DockPhaseModel.MemoryStore()),
+                new KnownDeviceRegistry(config, new KnownDeviceRegistry.MemoryStore()),
+                checkpoints);
+    }
+
+    @Test
+    public void serialization_roundTrips() throws IOException {
+        Map<String, Integer> retries = new LinkedHashMap<>();
+        retries.put(B, 2);
+        Map<String, DockingTimestampModel> stamps = new LinkedHashMap<>();
+        stamps.put(B, new DockingTimestampModel(0x1122334455L, 1767990000));
+        DockingCheckpoint saved = new DockingCheckpoint(tonight(), DockingProtocol.State.WAITING_TO_TRANSFER, B,
+                Arrays.asList(B), Arrays.asList(A), retries, stamps, 3, true);
+
+        DockingCheckpoint loaded = read(DockingCheckpointStore.serialize(saved));
+
+        assertEquals(saved.nightStart, loaded.nightStart);
+        assertEquals(saved.state, loaded.state);
+        assertEquals(B, loaded.currentMac);
+        assertEquals(saved.queue, loaded.queue);
+        assertEquals(saved.completed, loaded.completed);
+        assertEquals(saved.retryCounts, loaded.retryCounts);
+        assertEquals(1, loaded.dockTimestamps.size());
+        assertEquals(0x1122334455L, loaded.dockTimestamps.get(B).shimmerRtc);
+        assertEquals(1767990000, loaded.dockTimestamps.get(B).androidRtc);
+        assertEquals(3, loaded.emptyProbeRounds);
+        assertTrue(loaded.uploadPending);
+    }
+
+    @Test
+    public void serialization_roundTripsAnEmptyNight() throws IOException {
+        DockingCheckpoint saved = new DockingCheckpoint(tonight(), DockingProtocol.State.INIT_SCAN, null,
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(),
+                0, false);
+
+        DockingCheckpoint loaded = read(DockingCheckpointStore.serialize(saved));
+
+        assertNull(loaded.currentMac);
+        assertTrue(loaded.queue.isEmpty());
+        assertTrue(loaded.completed.isEmpty());
+        assertTrue(loaded.retryCounts.isEmpty());
+        assertTrue(loaded.dockTimestamps.isEmpty());
+        assertFalse(loaded.uploadPending);
+    }
+
+    @Test
+    public void serialization_otherFormatVersionIsIgnored() throws IOException {
+        byte[] bytes = DockingCheckpointStore.serialize(checkpoint(tonight(), Arrays.asList(A), Collections.emptyList(), null));
+        bytes[3]++;
+        assertNull(read(bytes));
+    }
+
+    @Test
+    public void start_sameNight_resumesWithoutRescanning() {
+        checkpoints.save(checkpoint(tonight(), Arrays.asList(A, B), Arrays.asList(A, B), null));
+
+        protocol.start();
+
+        assertEquals(1, listener.finished);
+        assertEquals(DockingProtocol.State.IDLE, protocol.state());
+        assertEquals(0, port.discoveries);
+        assertTrue(port.transfers.isEmpty());
+    }
+
+    @Test
+    public void start_sameNight_picksUpTheDeviceInHand() {
+        checkpoints.save(checkpoint(tonight(), Arrays.asList(A), Arrays.asList(B), B));
+
+        protocol.start();
+
+        assertEquals(B, protocol.currentMac());
+        assertEquals(DockingProtocol.State.MONITORING, protocol.state());
+        assertEquals(0, listener.finished);
+    }
+
+    @Test
+    public void start_checkpointFromAnotherNight_startsFresh() {
+        checkpoints.save(checkpoint(tonight() - DAY, Arrays.asList(A, B), Arrays.asList(A, B), null));
+
+        protocol.start();
+
+        assertEquals(0, listener.finished);
+        assertEquals(DockingProtocol.State.INIT_SCAN, protocol.state());
+        assertEquals(1, port.discoveries);
+    }
+
+    @Test
+    public void forceStop_dropsTheCheckpoint() {
+        protocol.start();
+        assertNotNull(checkpoints.load());
+
+        protocol.forceStop();
+
+        assertNull(checkpoints.load());
+    }
+
+    private long tonight() {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(now);
+        cal.set(Calendar.HOUR_OF_DAY, config.nightStartHour);
+        cal.set(Calendar.MINUTE, config.nightStartMinute);
+        return cal.getTimeInMillis();
+    }
+
+    private static DockingCheckpoint checkpoint(long nightStart, List<String> completed, List<String> queue,
+                                                String currentMac) {
+        return new DockingCheckpoint(nightStart, DockingProtocol.State.MONITORING, currentMac, queue, completed,
+                Collections.emptyMap(), Collections.emptyMap(), 0, false);
+    }
+
+    private static DockingCheckpoint read(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return DockingCheckpointStore.read(in);
+        }
+    }
+
+    private static final class IgnoringScheduler implements DockingProtocol.Scheduler {
+        @Override
+        public void schedule(long delayMs, Runnable task) {
+        }
+
+        @Override
+        public void cancelAll() {
+        }
+    }
+
+    private static final class RecordingPort implements DockingProtocol.Port {
+        int discoveries;
+        final List<String> transfers = new ArrayList<>();
+
+        @Override public boolean isBluetoothOn() { return true; }
+        @Override public boolean hasScanPermission() { return true; }
+        @Override public void startDiscovery() { discoveries++; }
+        @Override public boolean startDiscoveryAlongsideTransfer() { return false; }
+        @Override public void stopDiscovery() {}
+        @Override public void probePresence(int probeId, String mac) {}
+        @Override public void cancelPresenceProbe() {}
+        @Override public void queryDockState(int queryId, String mac) {}
+        @Override public void cancelDockQuery() {}
+        @Override public void startTransfer(String mac, DockingTimestampModel timestamps) { transfers.add(mac); }
+        @Override public void cancelTransfer() {}
+        @Override public void startSync() {}
+        @Override public void log(String message) {}
+    }
+
+    private static final class RecordingListener implements DockingProtocol.Listener {
+        int finished;
+
+        @Override public void onStateChanged(DockingProtocol.State from, DockingProtocol.State to, String mac) {}
+        @Override public void onStatus(String status) {}
+        @Override public void onDocked() {}
+        @Override public void onUndocked() {}
+        @Override public void onFileTransferStart() {}
+        @Override public void onFinished() { finished++; }
+    }
+}
@@ -0,0 +1,495 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs {@link DockingProtocol} against simulated sensors in virtual time, so a whole night takes
+ * milliseconds. DockingSimulatorTest asserts on whole nights through it; it is also the place to
+ * compare timing configs (scan period, silent duration, ...) over thousands of nights before
+ * trying one on a real device. Test sources only, so it never ships in the APK.
+ */
+public class DockingSimulator {
+
+    // What a night looks like; every device is drawn independently from these ranges
+    public static final class Scenario {
+        public int devices = 2;
+        // Each device has a habitual arrival (drawn once per run from this range, minutes after
+        // the window opens) and arrives within +/- arrivalJitterMin of it every night
+        public int arrivalEarliestMin = 0;
+        public int arrivalLatestMin = 180;
+        public int arrivalJitterMin = 30;
+        public int dockDelayMaxMin = 60;        // arrival -> placed on the dock
+        public int readyDelayMaxSec = 45;       // docked -> accepts connections again
+        public int transferMinMin = 3;
+        public int transferMaxMin = 12;
+        public int uploadMinMin = 2;
+        public int uploadMaxMin = 10;
+        public double discoverProbability = 0.8;   // per scan, for a device in range
+        public boolean bleAdvertising = true;      // devices advertise over BLE, so the port can scan beside a transfer
+        public double connectFailProbability = 0.1;
+        public double queryHangProbability = 0.02;  // connect never returns; only the timeout ends it
+        public double transferFailProbability = 0.05;
+        public int windowHours = 6;
+        public int processKillsPerNight = 0;       // the app process dies at random times and restarts RESTART_DELAY_MS later
+        public boolean keepCheckpoints = true;     // whether the protocol's checkpoints survive a kill
+    }
+
+    public static final class NightResult {
+        public int transferred;
+        public int silentStates;
+        public int dockQueries;
+        public int probes;
+        public int transferAttempts;
+        public int repeatTransfers;        // transfers of a device already transferred that night
+        public int uploads;
+        public long discoveryMs;
+        public long firstTransferMs = -1;   // window open -> first transfer that succeeds starts
+        public final List<Long> dockToStartMs = new ArrayList<>();
+        public final List<Long> dockToDoneMs = new ArrayList<>();
+    }
+
+    public static final class Stats {
+        public int nights;
+        public int allTransferredNights;
+        public double meanTransferred;
+        public double meanSilentStates;
+        public double meanDockQueries;
+        public double meanProbes;
+        public double meanTransferAttempts;
+        public double meanRepeatTransfers;
+        public double meanUploads;
+        public double meanDiscoveryMin;
+        public long p50FirstTransferMs;
+        public long p50DockToStartMs;
+        public long p50DockToDoneMs;
+        public long p95DockToDoneMs;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d nights: all transferred %.1f%%, mean transferred %.2f, silent states %.1f, dock queries %.1f, "
+                            + "probes %.1f, transfer attempts %.1f, repeat transfers %.2f, uploads %.1f, discovery %.1f min; "
+                            + "first transfer p50 %.1f min, "
+                            + "dock->transfer p50 %.1f min; "
+                            + "dock->done p50 %.1f min, p95 %.1f min",
+                    nights, 100.0 * allTransferredNights / Math.max(1, nights), meanTransferred, meanSilentStates,
+                    meanDockQueries, meanProbes, meanTransferAttempts, meanRepeatTransfers, meanUploads, meanDiscoveryMin,
+                    p50FirstTransferMs / 60000.0, p50DockToStartMs / 60000.0, p50DockToDoneMs / 60000.0, p95DockToDoneMs / 60000.0);
+        }
+    }
+
+    public static Stats run(DockingProtocol.Config config, Scenario scenario, int nights, long seed) {
+        Random random = new Random(seed);
+        Stats stats = new Stats();
+        stats.nights = nights;
+        List<Long> latencies = new ArrayList<>();
+        List<Long> startLatencies = new ArrayList<>();
+        List<Long> firstTransfers = new ArrayList<>();
+        History history = new History(scenario, random);
+        long transferred = 0, silent = 0, queries = 0, probes = 0, attempts = 0, repeats = 0, uploads = 0, discovery = 0;
+        for (int n = 0; n < nights; n++) {
+            NightResult r = new Night(config, scenario, random, history, n).run();
+            if (r.transferred == scenario.devices) stats.allTransferredNights++;
+            transferred += r.transferred;
+            silent += r.silentStates;
+            queries += r.dockQueries;
+            probes += r.probes;
+            attempts += r.transferAttempts;
+            repeats += r.repeatTransfers;
+            uploads += r.uploads;
+            discovery += r.discoveryMs;
+            latencies.addAll(r.dockToDoneMs);
+            startLatencies.addAll(r.dockToStartMs);
+            if (r.firstTransferMs >= 0) firstTransfers.add(r.firstTransferMs);
+        }
+        stats.meanTransferred = (double) transferred / nights;
+        stats.meanSilentStates = (double) silent / nights;
+        stats.meanDockQueries = (double) queries / nights;
+        stats.meanProbes = (double) probes / nights;
+        stats.meanTransferAttempts = (double) attempts / nights;
+        stats.meanRepeatTransfers = (double) repeats / nights;
+        stats.meanUploads = (double) uploads / nights;
+        stats.meanDiscoveryMin = discovery / 60000.0 / nights;
+        Collections.sort(latencies);
+        Collections.sort(startLatencies);
+        Collections.sort(firstTransfers);
+        stats.p50FirstTransferMs = percentile(firstTransfers, 0.50);
+        stats.p50DockToStartMs = percentile(startLatencies, 0.50);
+        stats.p50DockToDoneMs = percentile(latencies, 0.50);
+        stats.p95DockToDoneMs = percentile(latencies, 0.95);
+        return stats;
+    }
+
+    public static NightResult runNight(DockingProtocol.Config config, Scenario scenario, long seed) {
+        Random random = new Random(seed);
+        return new Night(config, scenario, random, new History(scenario, random), 0).run();
+    }
+
+    // What carries over from night to night: the devices' habits and what the phone has learned
+    private static final class History {
+        final double[] habitMin;
+        final SilentBackoff.Store backoff = new SilentBackoff.MemoryStore();
+        final DockPhaseModel.Store docks = new DockPhaseModel.MemoryStore();
+        final KnownDeviceRegistry.Store known = new KnownDeviceRegistry.MemoryStore();
+        final DockingCheckpoint.Store checkpoints = new DockingCheckpoint.MemoryStore();
+
+        History(Scenario scenario, Random random) {
+            habitMin = new double[scenario.devices];
+            for (int i = 0; i < habitMin.length; i++) {
+                habitMin[i] = scenario.arrivalEarliestMin
+                        + random.nextDouble() * (scenario.arrivalLatestMin - scenario.arrivalEarliestMin);
+            }
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) return 0L;
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.floor(p * sorted.size())));
+    }
+
+    // ---- Virtual time ----
+
+    private static final class Timer {
+        final long at;
+        final long seq;
+        final boolean protocolTimer;
+        final Runnable task;
+
+        Timer(long at, long seq, boolean protocolTimer, Runnable task) {
+            this.at = at;
+            this.seq = seq;
+            this.protocolTimer = protocolTimer;
+            this.task = task;
+        }
+    }
+
+    private static final class VirtualTime implements DockingProtocol.Clock, DockingProtocol.Scheduler {
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>((a, b) ->
+                a.at != b.at ? Long.compare(a.at, b.at) : Long.compare(a.seq, b.seq));
+        private long now;
+        private long seq;
+
+        VirtualTime(long start) {
+            this.now = start;
+        }
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        // Protocol timers; cancelAll() only drops these
+        @Override
+        public void schedule(long delayMs, Runnable task) {
+            timers.add(new Timer(now + delayMs, seq++, true, task));
+        }
+
+        @Override
+        public void cancelAll() {
+            timers.removeIf(t -> t.protocolTimer);
+        }
+
+        // Things the simulated world does (scan hits, query replies, transfer completions)
+        void world(long delayMs, Runnable task) {
+            timers.add(new Timer(now + delayMs, seq++, false, task));
+        }
+
+        void runUntil(long end) {
+            while (!timers.isEmpty() && timers.peek().at <= end) {
+                Timer t = timers.poll();
+                now = t.at;
+                t.task.run();
+            }
+            now = Math.max(now, end);
+        }
+    }
+
+    // ---- One simulated night ----
+
+    private static final class SimDevice {
+        final String mac;
+        final long arrivesAt;
+        final long dockedAt;
+        final long readyAt;
+        final long transferMs;
+
+        SimDevice(String mac, long arrivesAt, long dockedAt, long readyAt, long transferMs) {
+            this.mac = mac;
+            this.arrivesAt = arrivesAt;
+            this.dockedAt = dockedAt;
+            this.readyAt = readyAt;
+            this.transferMs = transferMs;
+        }
+    }
+
+    private static final class Night implements DockingProtocol.Port, DockingProtocol.Listener {
+        private final Scenario scenario;
+        private final Random random;
+        private final VirtualTime time;
+        private static final long RESTART_DELAY_MS = 10 * 1000;
+
+        private final DockingProtocol.Config config;
+        private final History history;
+        private DockingProtocol protocol;
+        private final List<SimDevice> devices = new ArrayList<>();
+        private final Set<String> transferred = new HashSet<>();
+        private final NightResult result = new NightResult();
+        private final long windowStart;
+        private final long windowEnd;
+
+        private int discoverySession = 0;
+        private boolean discovering = false;
+        private boolean passiveScan = false;
+        private long discoveryStartedAt;
+        private int transferSession = 0;
+        private int querySession = 0;
+        private int probeSession = 0;
+
+        Night(DockingProtocol.Config config, Scenario scenario, Random random, History history, int night) {
+            this.scenario = scenario;
+            this.random = random;
+
+            Calendar cal = Calendar.getInstance();
+            cal.set(2024, Calendar.JANUARY, 15, config.nightStartHour, config.nightStartMinute, 0);
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.add(Calendar.DAY_OF_MONTH, night);
+            long start = cal.getTimeInMillis();
+            windowStart = start;
+            windowEnd = start + scenario.windowHours * 3600_000L;
+            time = new VirtualTime(start);
+
+            for (int i = 0; i < scenario.devices; i++) {
+                double habit = history.habitMin[i];
+                long arrives = start + minutes(Math.max(0, habit + uniform(-scenario.arrivalJitterMin, scenario.arrivalJitterMin)));
+                long docked = arrives + minutes(uniform(0, scenario.dockDelayMaxMin));
+                long ready = docked + (long) (uniform(0, scenario.readyDelayMaxSec) * 1000);
+                long transfer = minutes(uniform(scenario.transferMinMin, scenario.transferMaxMin));
+                devices.add(new SimDevice(String.format(Locale.US, "00:06:66:00:00:%02X", i), arrives, docked, ready, transfer));
+            }
+            this.config = config;
+            this.history = history;
+            protocol = newProtocol();
+            for (int i = 0; i < scenario.processKillsPerNight; i++) {
+                time.world((long) (random.nextDouble() * (windowEnd - start)), this::killProcess);
+            }
+        }
+
+        // A fresh process: only what the stores hold survives
+        private DockingProtocol newProtocol() {
+            DockingCheckpoint.Store checkpoints = scenario.keepCheckpoints ? history.checkpoints : new DockingCheckpoint.MemoryStore();
+            return new DockingProtocol(config, time, time, this, this,
+                    new SilentBackoff(config, history.backoff), new DockPhaseModel(config, history.docks),
+                    new KnownDeviceRegistry(config, history.known), checkpoints);
+        }
+
+        private void killProcess() {
+            time.cancelAll();
+            stopDiscovery();
+            querySession++;
+            probeSession++;
+            transferSession++;
+            DockingProtocol restarted = newProtocol();
+            protocol = restarted;
+            time.world(RESTART_DELAY_MS, restarted::start);
+        }
+
+        NightResult run() {
+            protocol.start();
+            time.runUntil(windowEnd);
+            if (discovering) stopDiscovery();
+            return result;
+        }
+
+        private double uniform(int lo, int hi) {
+            return lo + random.nextDouble() * (hi - lo);
+        }
+
+        private static long minutes(double m) {
+            return (long) (m * 60_000L);
+        }
+
+        private SimDevice device(String mac) {
+            for (SimDevice d : devices) if (d.mac.equals(mac)) return d;
+            return null;
+        }
+
+        // Port
+
+        @Override
+        public boolean isBluetoothOn() {
+            return true;
+        }
+
+        @Override
+        public boolean hasScanPermission() {
+            return true;
+        }
+
+        @Override
+        public void startDiscovery() {
+            if (discovering) stopDiscovery();
+            discovering = true;
+            discoveryStartedAt = time.now();
+            final int session = ++discoverySession;
+            for (SimDevice d : devices) {
+                if (time.now() < d.arrivesAt || random.nextDouble() >= scenario.discoverProbability) continue;
+                // Classic inquiry reports a device within the first ~12 s
+                time.world(2000 + random.nextInt(10_000), () -> {
+                    if (discovering && session == discoverySession) protocol.onDeviceFound(d.mac);
+                });
+            }
+        }
+
+        // Low duty cycle BLE scan: a device in range shows up in some of its 5 s scan periods
+        @Override
+        public boolean startDiscoveryAlongsideTransfer() {
+            if (!scenario.bleAdvertising) return false;
+            if (discovering) stopDiscovery();
+            discovering = true;
+            passiveScan = true;
+            passiveScanPeriod(++discoverySession);
+            return true;
+        }
+
+        private void passiveScanPeriod(int session) {
+            if (!discovering || session != discoverySession) return;
+            for (SimDevice d : devices) {
+                if (time.now() < d.arrivesAt || random.nextDouble() >= scenario.discoverProbability) continue;
+                time.world(random.nextInt(5000), () -> {
+                    if (discovering && session == discoverySession) protocol.onDeviceFound(d.mac);
+                });
+            }
+            time.world(5000, () -> passiveScanPeriod(session));
+        }
+
+        // Only inquiry/active scan time counts as discovery
+        @Override
+        public void stopDiscovery() {
+            if (!discovering) return;
+            discovering = false;
+            if (!passiveScan) result.discoveryMs += time.now() - discoveryStartedAt;
+            passiveScan = false;
+        }
+
+        @Override
+        public void probePresence(int probeId, String mac) {
+            result.probes++;
+            if (random.nextDouble() < scenario.queryHangProbability) return;
+            SimDevice d = device(mac);
+            final int session = ++probeSession;
+            boolean present = d != null && time.now() >= d.arrivesAt && random.nextDouble() >= scenario.connectFailProbability;
+            // A reachable device accepts the connect at once; an absent one fails after the ~5 s page timeout
+            long delay = present ? 500 + random.nextInt(1500) : 5000 + random.nextInt(500);
+            time.world(delay, () -> {
+                if (session == probeSession) protocol.onPresence(probeId, mac, present);
+            });
+        }
+
+        @Override
+        public void cancelPresenceProbe() {
+            probeSession++;
+        }
+
+        @Override
+        public void queryDockState(int queryId, String mac) {
+            result.dockQueries++;
+            if (random.nextDouble() < scenario.queryHangProbability) return;
+            SimDevice d = device(mac);
+            final int session = ++querySession;
+            // Right after docking the sensor doesn't accept connections yet
+            boolean connectFails = random.nextDouble() < scenario.connectFailProbability
+                    || (d != null && time.now() >= d.dockedAt && time.now() < d.readyAt);
+            // Connect (with its retries) plus the 500 ms read wait
+            long delay = connectFails ? 3000 + random.nextInt(3000) : 1000 + random.nextInt(2000);
+            time.world(delay, () -> {
+                if (session != querySession) return;
+                DockingProtocol.DockResult r;
+                if (connectFails || d == null) r = new DockingProtocol.DockResult(0, 0L, true);
+                else r = new DockingProtocol.DockResult(time.now() >= d.dockedAt ? 1 : 0, time.now(), false);
+                protocol.onDockState(queryId, mac, r);
+            });
+        }
+
+        @Override
+        public void cancelDockQuery() {
+            querySession++;
+        }
+
+        @Override
+        public void startTransfer(String mac, DockingTimestampModel timestamps) {
+            result.transferAttempts++;
+            SimDevice d = device(mac);
+            final int session = ++transferSession;
+            boolean fails = d == null || time.now() < d.readyAt || random.nextDouble() < scenario.transferFailProbability;
+            if (!fails) {
+                result.dockToStartMs.add(time.now() - d.dockedAt);
+                if (result.firstTransferMs < 0) result.firstTransferMs = time.now() - windowStart;
+            }
+            long duration = fails ? 5000 + random.nextInt(60_000) : d.transferMs;
+            time.world(duration, () -> {
+                if (session != transferSession) return;
+                if (fails) {
+                    protocol.onTransferFailed("simulated");
+                } else {
+                    if (transferred.add(mac)) {
+                        result.transferred++;
+                        result.dockToDoneMs.add(time.now() - d.dockedAt);
+                    } else {
+                        result.repeatTransfers++;
+                    }
+                    protocol.onTransferDone(mac);
+                }
+            });
+        }
+
+        @Override
+        public void cancelTransfer() {
+            transferSession++;
+        }
+
+        @Override
+        public void startSync() {
+            result.uploads++;
+            time.world(minutes(uniform(scenario.uploadMinMin, scenario.uploadMaxMin)), () -> protocol.onSyncDone(true));
+        }
+
+        @Override
+        public void log(String message) {
+        }
+
+        // Listener
+
+        @Override
+        public void onStateChanged(DockingProtocol.State from, DockingProtocol.State to, String mac) {
+            if (to == DockingProtocol.State.SILENT) result.silentStates++;
+        }
+
+        @Override
+        public void onStatus(String status) {
+        }
+
+        @Override
+        public void onDocked() {
+        }
+
+        @Override
+        public void onUndocked() {
+        }
+
+        @Override
+        public void onFileTransferStart() {
+        }
+
+        @Override
+        public void onFinished() {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Whole-night checks of {@link DockingProtocol} in virtual time: every docked device gets
+ * transferred, none twice, and a killed process resumes from its checkpoint.
+ */
+public class DockingSimulatorTest {
+    private static final int NIGHTS = 200;
+    private static final long SEED = 7L;
+
+    private DockingProtocol.Config config;
+
+    @Before
+    public void setUp() {
+        config = new DockingProtocol.Config();
+        config.nightStartHour = 20;
+        config.nightEndHour = 2;
+    }
+
+    @Test
+    public void defaultNights_transferEveryDeviceOnce() {
+        DockingSimulator.Stats stats = DockingSimulator.run(config, new DockingSimulator.Scenario(), NIGHTS, SEED);
+        assertTrue(stats.toString(), stats.allTransferredNights >= NIGHTS * 99 / 100);
+        assertEquals(stats.toString(), 0.0, stats.meanRepeatTransfers, 0.0);
+    }
+
+    @Test
+    public void classicOnlyAndNoProbes_stillCompleteTheNight() {
+        DockingSimulator.Scenario classicOnly = new DockingSimulator.Scenario();
+        classicOnly.bleAdvertising = false;
+        DockingSimulator.Stats classic = DockingSimulator.run(config, classicOnly, NIGHTS, SEED);
+        assertTrue(classic.toString(), classic.allTransferredNights >= NIGHTS * 99 / 100);
+
+        config.knownDeviceProbes = false;
+        DockingSimulator.Stats noProbes = DockingSimulator.run(config, new DockingSimulator.Scenario(), NIGHTS, SEED);
+        assertTrue(noProbes.toString(), noProbes.allTransferredNights >= NIGHTS * 99 / 100);
+        assertEquals(noProbes.toString(), 0.0, noProbes.meanRepeatTransfers, 0.0);
+    }
+
+    @Test
+    public void knownDeviceProbes_replaceMostDiscovery() {
+        DockingSimulator.Stats probes = DockingSimulator.run(config, new DockingSimulator.Scenario(), NIGHTS, SEED);
+        config.knownDeviceProbes = false;
+        DockingSimulator.Stats discovery = DockingSimulator.run(config, new DockingSimulator.Scenario(), NIGHTS, SEED);
+        assertTrue(probes + " vs " + discovery, probes.meanDiscoveryMin < discovery.meanDiscoveryMin / 2);
+    }
+
+    @Test
+    public void dockedAtStart_firstTransferStartsWithinAMinute() {
+        DockingSimulator.Scenario docked = new DockingSimulator.Scenario();
+        docked.arrivalLatestMin = 0;
+        docked.arrivalJitterMin = 0;
+        docked.dockDelayMaxMin = 0;
+        docked.readyDelayMaxSec = 0;
+        DockingSimulator.Stats stats = DockingSimulator.run(config, docked, NIGHTS, SEED);
+        assertEquals(stats.toString(), NIGHTS, stats.allTransferredNights);
+        assertTrue(stats.toString(), stats.p50FirstTransferMs < 60 * 1000L);
+    }
+
+    @Test
+    public void processKills_resumeFromCheckpointWithoutRepeatTransfers() {
+        DockingSimulator.Scenario kills = new DockingSimulator.Scenario();
+        kills.processKillsPerNight = 2;
+        DockingSimulator.Stats stats = DockingSimulator.run(config, kills, NIGHTS, SEED);
+        assertTrue(stats.toString(), stats.allTransferredNights >= NIGHTS * 99 / 100);
+        assertEquals(stats.toString(), 0.0, stats.meanRepeatTransfers, 0.0);
+    }
+
+    @Test
+    public void processKills_withoutCheckpoints_repeatTransfers() {
+        // Guards the test above: the kills must actually hit mid-night progress
+        DockingSimulator.Scenario kills = new DockingSimulator.Scenario();
+        kills.processKillsPerNight = 2;
+        kills.keepCheckpoints = false;
+        DockingSimulator.Stats stats = DockingSimulator.run(config, kills, NIGHTS, SEED);
+        assertTrue(stats.toString(), stats.meanRepeatTransfers > 0.5);
+    }
+
+    @Test
+    public void sameSeed_sameNights() {
+        String first = DockingSimulator.run(config, new DockingSimulator.Scenario(), 50, SEED).toString();
+        String second = DockingSimulator.run(config, new DockingSimulator.Scenario(), 50, SEED).toString();
+        assertEquals(first, second);
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+    private static final EventBus.Topic<String> DONE = EventBus.Topic.event("done");
+    private static final EventBus.Topic<Integer> PROGRESS = EventBus.Topic.state("progress");
+
+    // Stands in for the main looper: posts queue up until drain()
+    private final ArrayDeque<Runnable> mainQueue = new ArrayDeque<>();
+    private boolean onMain;
+    private EventBus bus;
+
+    @Before
+    public void setUp() {
+        bus = new EventBus(mainQueue::add, () -> onMain);
+    }
+
+    @Test
+    public void event_deliveredOnMainInPostOrder() {
+        List<String> seen = new ArrayList<>();
+        bus.subscribe(DONE, seen::add);
+
+        bus.post(DONE, "a");
+        bus.post(DONE, "b");
+        assertTrue(seen.isEmpty());
+
+        drain();
+        assertEquals(Arrays.asList("a", "b"), seen);
+    }
+
+    @Test
+    public void event_notRetainedForLateSubscribers() {
+        bus.post(DONE, "a");
+        drain();
+
+        List<String> seen = new ArrayList<>();
+        bus.subscribe(DONE, seen::add);
+        drain();
+        assertTrue(seen.isEmpty());
+        assertNull(bus.peek(DONE));
+    }
+
+    @Test
+    public void state_postsBeforeDrainCoalesceToNewest() {
+        onMain = true;
+        List<Integer> seen = new ArrayList<>();
+        bus.subscribe(PROGRESS, seen::add);
+        onMain = false;
+
+        bus.post(PROGRESS, 10);
+        bus.post(PROGRESS, 20);
+        bus.post(PROGRESS, 30);
+        assertEquals(1, mainQueue.size());
+
+        drain();
+        assertEquals(Collections.singletonList(30), seen);
+
+        bus.post(PROGRESS, 40);
+        drain();
+        assertEquals(Arrays.asList(30, 40), seen);
+    }
+
+    @Test
+    public void state_lateSubscriberOnMainGetsLatestRightAway() {
+        bus.post(PROGRESS, 10);
+        bus.post(PROGRESS, 20);
+        drain();
+
+        onMain = true;
+        List<Integer> seen = new ArrayList<>();
+        bus.subscribe(PROGRESS, seen::add);
+        assertEquals(Collections.singletonList(20), seen);
+        assertEquals(Integer.valueOf(20), bus.peek(PROGRESS));
+    }
+
+    @Test
+    public void state_lateSubscriberOffMainGetsLatestOnMain() {
+        bus.post(PROGRESS, 10);
+        drain();
+
+        List<Integer> seen = new ArrayList<>();
+        bus.subscribe(PROGRESS, seen::add);
+        assertTrue(seen.isEmpty());
+        drain();
+        assertEquals(Collections.singletonList(10), seen);
+    }
+
+    @Test
+    public void state_clearedValueIsNotReplayed() {
+        bus.post(PROGRESS, 10);
+        drain();
+        bus.clear(PROGRESS);
+
+        onMain = true;
+        List<Integer> seen = new ArrayList<>();
+        bus.subscribe(PROGRESS, seen::add);
+        assertTrue(seen.isEmpty());
+        assertNull(bus.peek(PROGRESS));
+    }
+
+    @Test
+    public void unsubscribe_dropsAlreadyQueuedDeliveries() {
+        List<String> seen = new ArrayList<>();
+        EventBus.Subscription sub = bus.subscribe(DONE, seen::add);
+
+        bus.post(DONE, "a");
+        sub.unsubscribe();
+        drain();
+        assertTrue(seen.isEmpty());
+    }
+
+    @Test
+    public void throwingSubscriber_doesNotStopTheOthers() {
+        List<String> seen = new ArrayList<>();
+        bus.subscribe(DONE, value -> {
+            throw new IllegalStateException("boom");
+        });
+        bus.subscribe(DONE, seen::add);
+
+        bus.post(DONE, "a");
+        drain();
+        assertEquals(Collections.singletonList("a"), seen);
+    }
+
+    @Test
+    public void post_nullValueRejected() {
+        assertThrows(IllegalArgumentException.class, () -> bus.post(DONE, null));
+    }
+
+    private void drain() {
+        boolean wasOnMain = onMain;
+        onMain = true;
+        Runnable r;
+        while ((r = mainQueue.poll()) != null) r.run();
+        onMain = wasOnMain;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SilentBackoffTest {
+    private static final String MAC = "00:06:66:AA:BB:01";
+    private static final String OTHER = "00:06:66:AA:BB:02";
+    private static final long SECOND = 1000L;
+    private static final long HOUR = 60 * 60 * SECOND;
+
+    private DockingProtocol.Config config;
+    private SilentBackoff.MemoryStore store;
+    private SilentBackoff backoff;
+
+    @Before
+    public void setUp() {
+        config = new DockingProtocol.Config();
+        config.silentStateDurationMs = 45 * SECOND;
+        store = new SilentBackoff.MemoryStore();
+        backoff = new SilentBackoff(config, store);
+    }
+
+    @Test
+    public void firstFailure_waitsTheReasonsBase() {
+        assertEquals(10 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0));
+        assertEquals(15 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.CONNECT_FAILED, 0));
+        assertEquals(30 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.TRANSFER_FAILED, 0));
+        assertEquals(60 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.NOT_SEEN, 0));
+        assertEquals(60 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.UNDOCKED, 0));
+    }
+
+    @Test
+    public void consecutiveFailures_doubleUpToTheCap() {
+        long[] expected = {10 * SECOND, 20 * SECOND, 40 * SECOND, 60 * SECOND, 60 * SECOND};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("failure " + (i + 1), expected[i],
+                    backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, i * SECOND));
+        }
+        assertEquals(5 * 60 * SECOND, SilentBackoff.waitFor(SilentBackoff.Reason.TRANSFER_FAILED, 100));
+    }
+
+    @Test
+    public void nonDeviceReasons_useTheConfiguredSilence() {
+        for (SilentBackoff.Reason reason : SilentBackoff.Reason.values()) {
+            if (reason.perDevice()) continue;
+            assertEquals(reason.name(), 45 * SECOND, backoff.onFailure(MAC, reason, 0));
+        }
+        assertEquals(45 * SECOND, backoff.onFailure(null, SilentBackoff.Reason.ACK_TIMEOUT, 0));
+        assertNull(store.get(MAC, SilentBackoff.Reason.BLUETOOTH_OFF));
+    }
+
+    @Test
+    public void retriesBeforeRotate_perReason() {
+        assertEquals(4, backoff.retriesBeforeRotate(SilentBackoff.Reason.ACK_TIMEOUT));
+        assertEquals(4, backoff.retriesBeforeRotate(SilentBackoff.Reason.CONNECT_FAILED));
+        assertEquals(3, backoff.retriesBeforeRotate(SilentBackoff.Reason.TRANSFER_FAILED));
+        assertEquals(2, backoff.retriesBeforeRotate(SilentBackoff.Reason.NOT_SEEN));
+        // A sensor answering "undocked" is likely still worn: move on after one silent cycle
+        assertEquals(1, backoff.retriesBeforeRotate(SilentBackoff.Reason.UNDOCKED));
+        assertEquals(2, backoff.retriesBeforeRotate(SilentBackoff.Reason.NOTHING_FOUND));
+        assertEquals(2, backoff.retriesBeforeRotate(null));
+    }
+
+    @Test
+    public void history_isPerDeviceAndPerReason() {
+        backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0);
+        backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0);
+        assertEquals(10 * SECOND, backoff.onFailure(OTHER, SilentBackoff.Reason.ACK_TIMEOUT, 0));
+        assertEquals(15 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.CONNECT_FAILED, 0));
+        assertEquals(40 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0));
+    }
+
+    @Test
+    public void docked_clearsOnlyUndockedAndNotSeen() {
+        backoff.onFailure(MAC, SilentBackoff.Reason.UNDOCKED, 0);
+        backoff.onFailure(MAC, SilentBackoff.Reason.NOT_SEEN, 0);
+        backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0);
+
+        backoff.onDocked(MAC);
+
+        assertEquals(60 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.UNDOCKED, 1));
+        assertEquals(60 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.NOT_SEEN, 1));
+        assertEquals(20 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 1));
+    }
+
+    @Test
+    public void transferDone_clearsEveryReasonButKeepsTotals() {
+        backoff.onFailure(MAC, SilentBackoff.Reason.TRANSFER_FAILED, 0);
+        backoff.onFailure(MAC, SilentBackoff.Reason.TRANSFER_FAILED, 0);
+
+        backoff.onTransferDone(MAC);
+
+        SilentBackoff.Record record = store.get(MAC, SilentBackoff.Reason.TRANSFER_FAILED);
+        assertEquals(0, record.consecutive);
+        assertEquals(2, record.total);
+        assertEquals(30 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.TRANSFER_FAILED, 1));
+    }
+
+    @Test
+    public void staleHistory_isHalved() {
+        backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0);
+        backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0);
+        backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 0);
+
+        // Next night: 3 consecutive carry over as 1, so this is the second in a row
+        assertEquals(20 * SECOND, backoff.onFailure(MAC, SilentBackoff.Reason.ACK_TIMEOUT, 13 * HOUR));
+        assertEquals(4, store.get(MAC, SilentBackoff.Reason.ACK_TIMEOUT).total);
+    }
+
+    @Test
+    public void transferFailureStrings_mapToReasons() {
+        assertSame(SilentBackoff.Reason.ACK_TIMEOUT, SilentBackoff.Reason.fromTransferFailure("ack_timeout"));
+        assertSame(SilentBackoff.Reason.CONNECT_FAILED, SilentBackoff.Reason.fromTransferFailure("connect"));
+        assertSame(SilentBackoff.Reason.TRANSFER_FAILED, SilentBackoff.Reason.fromTransferFailure("io"));
+        assertSame(SilentBackoff.Reason.TRANSFER_FAILED, SilentBackoff.Reason.fromTransferFailure(null));
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.myapplication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StorageQuotaManagerTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("storage-quota").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] children = dir.listFiles();
+        if (children != null) for (File c : children) c.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void evict_oldestReceivedFirst() throws IOException {
+        FileRecord newest = record(3, "c.bin", 3000L, 100);
+        FileRecord oldest = record(1, "a.bin", 1000L, 100);
+        FileRecord middle = record(2, "b.bin", 2000L, 100);
+        List<String> evicted = new ArrayList<>();
+
+        long freed = StorageQuotaManager.evictOldestFirst(Arrays.asList(newest, oldest, middle), 300, evicted);
+
+        assertEquals(300L, freed);
+        assertEquals(Arrays.asList(oldest.filePath, middle.filePath, newest.filePath), evicted);
+    }
+
+    @Test
+    public void evict_sameReceivedAt_lowerIdFirst() throws IOException {
+        FileRecord second = record(8, "b.bin", 1000L, 100);
+        FileRecord first = record(7, "a.bin", 1000L, 100);
+        List<String> evicted = new ArrayList<>();
+
+        StorageQuotaManager.evictOldestFirst(Arrays.asList(second, first), 100, evicted);
+
+        assertEquals(Arrays.asList(first.filePath), evicted);
+        assertFalse(first.file().exists());
+        assertTrue(second.file().exists());
+    }
+
+    @Test
+    public void evict_stopsOnceEnoughIsFreed() throws IOException {
+        FileRecord a = record(1, "a.bin", 1000L, 100);
+        FileRecord b = record(2, "b.bin", 2000L, 100);
+        FileRecord c = record(3, "c.bin", 3000L, 100);
+        List<String> evicted = new ArrayList<>();
+
+        long freed = StorageQuotaManager.evictOldestFirst(Arrays.asList(a, b, c), 150, evicted);
+
+        assertEquals(200L, freed);
+        assertEquals(Arrays.asList(a.filePath, b.filePath), evicted);
+        assertTrue(c.file().exists());
+    }
+
+    @Test
+    public void evict_missingFileCountsAsEvictedWithoutFreeingBytes() throws IOException {
+        FileRecord gone = record(1, "a.bin", 1000L, 100);
+        FileRecord present = record(2, "b.bin", 2000L, 100);
+        assertTrue(gone.file().delete());
+        List<String> evicted = new ArrayList<>();
+
+        long freed = StorageQuotaManager.evictOldestFirst(Arrays.asList(present, gone), 100, evicted);
+
+        assertEquals(100L, freed);
+        assertEquals(Arrays.asList(gone.filePath, present.filePath), evicted);
+    }
+
+    @Test
+    public void evict_nothingToFree_deletesNothing() throws IOException {
+        FileRecord a = record(1, "a.bin", 1000L, 100);
+        List<String> evicted = new ArrayList<>();
+
+        assertEquals(0L, StorageQuotaManager.evictOldestFirst(Arrays.asList(a), 0, evicted));
+        assertTrue(evicted.isEmpty());
+        assertTrue(a.file().exists());
+    }
+
+    @Test
+    public void quarantine_leastRecentlyModifiedDeletedFirst() throws IOException {
+        File newer = record(1, "newer.partial", 0L, 100).file();
+        File older = record(2, "older.bin", 0L, 100).file();
+        File newest = record(3, "newest.bin", 0L, 100).file();
+        assertTrue(older.setLastModified(1_000_000L));
+        assertTrue(newer.setLastModified(2_000_000L));
+        assertTrue(newest.setLastModified(3_000_000L));
+
+        long freed = StorageQuotaManager.deleteOldestFirst(dir, 150);
+
+        assertEquals(200L, freed);
+        assertFalse(older.exists());
+        assertFalse(newer.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void quarantine_missingDirFreesNothing() {
+        assertEquals(0L, StorageQuotaManager.deleteOldestFirst(new File(dir, "absent"), 100));
+    }
+
+    @Test
+    public void debugLog_reservesHexDumpAndChunkHeaders() {
+        // "XX " per payload byte plus a 5-byte header per chunk, each also written as "XX "
+        assertEquals(3L * (1000 + 5 * 10), StorageQuotaManager.debugLogBytesFor(1000, 10));
+        assertEquals(0L, StorageQuotaManager.debugLogBytesFor(0, 0));
+        assertEquals(3000L, StorageQuotaManager.debugLogBytesFor(1000, -1));
+    }
+
+    private FileRecord record(long id, String name, long receivedAt, int size) throws IOException {
+        File f = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(new byte[size]);
+        }
+        FileRecord r = new FileRecord();
+        r.id = id;
+        r.filePath = f.getAbsolutePath();
+        r.receivedAt = receivedAt;
+        r.synced = true;
+        return r;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.myapplication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class UploadCompressorTest {
+    private File dir;
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("upload-compressor").toFile();
+        tempDir = new File(dir, "tmp");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void identity_uploadsTheSourceAsIs() throws IOException {
+        File source = write("rec.bin", repetitive(64 * 1024));
+        UploadCompressor.Result result = UploadCompressor.encode(source, tempDir, UploadCompressor.CODEC_IDENTITY,
+                Deflater.DEFAULT_COMPRESSION);
+        assertSame(source, result.file);
+        assertEquals(UploadCompressor.CODEC_IDENTITY, result.codec);
+        assertFalse(result.isCompressed());
+        assertEquals(source.length(), result.encodedSize);
+        result.cleanup();
+        assertTrue(source.exists());
+    }
+
+    @Test
+    public void gzip_roundTrips() throws IOException {
+        byte[] data = repetitive(200 * 1024);
+        File source = write("rec.bin", data);
+        UploadCompressor.Result result = UploadCompressor.encode(source, tempDir, UploadCompressor.CODEC_GZIP,
+                Deflater.BEST_SPEED);
+        assertEquals(UploadCompressor.CODEC_GZIP, result.codec);
+        assertTrue(result.isCompressed());
+        assertEquals(data.length, result.originalSize);
+        assertEquals(result.file.length(), result.encodedSize);
+        assertTrue(result.encodedSize < data.length);
+        try (InputStream in = new GZIPInputStream(new FileInputStream(result.file))) {
+            assertArrayEquals(data, readAll(in));
+        }
+        result.cleanup();
+        assertFalse(result.file.exists());
+        assertTrue(source.exists());
+    }
+
+    @Test
+    public void deflate_roundTrips() throws IOException {
+        byte[] data = repetitive(200 * 1024);
+        File source = write("rec.bin", data);
+        UploadCompressor.Result result = UploadCompressor.encode(source, tempDir, UploadCompressor.CODEC_DEFLATE,
+                Deflater.DEFAULT_COMPRESSION);
+        assertEquals(UploadCompressor.CODEC_DEFLATE, result.codec);
+        assertTrue(result.isCompressed());
+        try (InputStream in = new InflaterInputStream(new FileInputStream(result.file))) {
+            assertArrayEquals(data, readAll(in));
+        }
+        result.cleanup();
+    }
+
+    @Test
+    public void incompressible_fallsBackToIdentity() throws IOException {
+        byte[] data = new byte[64 * 1024];
+        new Random(1).nextBytes(data);
+        File source = write("rec.bin", data);
+        UploadCompressor.Result result = UploadCompressor.encode(source, tempDir, UploadCompressor.CODEC_GZIP,
+                Deflater.BEST_COMPRESSION);
+        assertSame(source, result.file);
+        assertEquals(UploadCompressor.CODEC_IDENTITY, result.codec);
+        assertFalse(result.isCompressed());
+        // The discarded attempt doesn't linger in the temp dir
+        String[] left = tempDir.list();
+        assertTrue(left == null || left.length == 0);
+    }
+
+    @Test
+    public void emptyFile_fallsBackToIdentity() throws IOException {
+        File source = write("empty.bin", new byte[0]);
+        UploadCompressor.Result result = UploadCompressor.encode(source, tempDir, UploadCompressor.CODEC_GZIP,
+                Deflater.DEFAULT_COMPRESSION);
+        assertSame(source, result.file);
+        assertEquals(UploadCompressor.CODEC_IDENTITY, result.codec);
+        assertEquals(0L, result.encodedSize);
+    }
+
+    // Sensor-like samples: a slow ramp with a small repeating pattern
+    private static byte[] repetitive(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) ((i / 64) + (i % 7));
+        return data;
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File f = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(data);
+        }
+        return f;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        f.delete();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UploadJobQueueTest {
+    private static final long SECOND = 1000L;
+    private static final long HOUR = 60 * 60 * SECOND;
+
+    @Test
+    public void backoff_noAttempts_runsNow() {
+        assertEquals(0L, UploadJobQueue.backoffFor(0));
+        assertEquals(0L, UploadJobQueue.backoffFor(-1));
+    }
+
+    @Test
+    public void backoff_doublesFromThirtySeconds() {
+        assertEquals(30 * SECOND, UploadJobQueue.backoffFor(1));
+        assertEquals(60 * SECOND, UploadJobQueue.backoffFor(2));
+        assertEquals(120 * SECOND, UploadJobQueue.backoffFor(3));
+        assertEquals(30 * SECOND << 9, UploadJobQueue.backoffFor(10));
+    }
+
+    @Test
+    public void backoff_cappedAtSixHours() {
+        // 30 s << 9 is about 4.3 h, << 10 about 8.5 h
+        assertTrue(UploadJobQueue.backoffFor(10) < 6 * HOUR);
+        assertEquals(6 * HOUR, UploadJobQueue.backoffFor(11));
+        assertEquals(6 * HOUR, UploadJobQueue.backoffFor(1000));
+        assertEquals(6 * HOUR, UploadJobQueue.backoffFor(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void backoff_neverDecreases() {
+        long prev = 0L;
+        for (int attempts = 0; attempts <= 100; attempts++) {
+            long next = UploadJobQueue.backoffFor(attempts);
+            assertTrue("attempts=" + attempts, next >= prev);
+            prev = next;
+        }
+    }
+}